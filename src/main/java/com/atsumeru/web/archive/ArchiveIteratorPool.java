@@ -0,0 +1,244 @@
+package com.atsumeru.web.archive;
+
+import com.atsumeru.web.archive.iterator.IArchiveIterator;
+import com.atsumeru.web.archive.iterator.IReadableArchive;
+import com.atsumeru.web.util.FileUtils;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded pool of opened {@link IArchiveIterator} handles keyed by archive path and modification time.
+ * Opened handle keeps its sorted entries list and entry name map, so sequential page reads of the same archive
+ * don't reopen and re-sort archive. Handles are reference-counted and closed only when no one uses them
+ */
+@Component
+public class ArchiveIteratorPool {
+    private static final int MAX_OPENED_HANDLES = 16;
+    private static final long IDLE_TIMEOUT_MS = 60 * 1000;
+
+    private static final Map<ArchiveKey, ArchiveHandle> handles = new HashMap<>();
+
+    /**
+     * Acquires handle for archive. Returned iterator must be closed to return handle into pool
+     *
+     * @param archivePath path to archive
+     * @return exclusively acquired read-only {@link IReadableArchive} reset to the first entry
+     */
+    public static IReadableArchive acquire(String archivePath) throws IOException {
+        File file = new File(archivePath);
+        ArchiveKey key = new ArchiveKey(file.getAbsolutePath(), file.lastModified(), file.length());
+
+        ArchiveHandle handle;
+        synchronized (handles) {
+            handle = handles.get(key);
+            if (handle != null) {
+                handle.refCount++;
+            }
+        }
+
+        if (handle == null) {
+            // Архив открывается вне блокировки пула, чтобы не задерживать чтение других архивов
+            IArchiveIterator archiveIterator = ArchiveReader.getArchiveIterator(archivePath);
+            synchronized (handles) {
+                handle = handles.get(key);
+                if (handle != null) {
+                    FileUtils.closeQuietly(archiveIterator);
+                } else {
+                    handle = new ArchiveHandle(key, archiveIterator);
+                    retireStaleHandles(key);
+                    handles.put(key, handle);
+                    evictOverflow();
+                }
+                handle.refCount++;
+            }
+        }
+
+        // Итератор хранит текущую запись, поэтому один хэндл одновременно используется только одним потоком
+        handle.lock.lock();
+        try {
+            handle.archiveIterator.reset();
+        } catch (IOException | RuntimeException ex) {
+            release(handle, true);
+            throw ex;
+        }
+        return new PooledArchiveIterator(handle);
+    }
+
+    /**
+     * Closes all idle handles of archive and marks used ones to be closed after release. Must be called before
+     * archive modification
+     */
+    public static void invalidate(String archivePath) {
+        String path = new File(archivePath).getAbsolutePath();
+        synchronized (handles) {
+            new ArrayList<>(handles.values())
+                    .stream()
+                    .filter(handle -> handle.key.path.equals(path))
+                    .forEach(ArchiveHandle::retire);
+        }
+    }
+
+    @Scheduled(fixedDelay = 30000, initialDelay = 30000)
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        synchronized (handles) {
+            new ArrayList<>(handles.values())
+                    .stream()
+                    .filter(handle -> handle.refCount == 0 && now - handle.lastAccess > IDLE_TIMEOUT_MS)
+                    .forEach(ArchiveHandle::retire);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        synchronized (handles) {
+            new ArrayList<>(handles.values()).forEach(ArchiveHandle::retire);
+        }
+    }
+
+    private static void release(ArchiveHandle handle, boolean isBroken) {
+        handle.lock.unlock();
+        synchronized (handles) {
+            handle.refCount--;
+            handle.lastAccess = System.currentTimeMillis();
+            if (isBroken) {
+                handle.retire();
+            } else if (handle.isRetired && handle.refCount == 0) {
+                handle.close();
+            }
+        }
+    }
+
+    private static void retireStaleHandles(ArchiveKey key) {
+        new ArrayList<>(handles.values())
+                .stream()
+                .filter(handle -> handle.key.path.equals(key.path))
+                .forEach(ArchiveHandle::retire);
+    }
+
+    private static void evictOverflow() {
+        if (handles.size() > MAX_OPENED_HANDLES) {
+            handles.values()
+                    .stream()
+                    .filter(handle -> handle.refCount == 0)
+                    .sorted(Comparator.comparingLong(handle -> handle.lastAccess))
+                    .limit(handles.size() - MAX_OPENED_HANDLES)
+                    .collect(Collectors.toList())
+                    .forEach(ArchiveHandle::retire);
+        }
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static class ArchiveKey {
+        private final String path;
+        private final long lastModified;
+        private final long length;
+    }
+
+    private static class ArchiveHandle {
+        private final ArchiveKey key;
+        private final IArchiveIterator archiveIterator;
+        private final ReentrantLock lock = new ReentrantLock();
+        private int refCount;
+        private long lastAccess = System.currentTimeMillis();
+        private boolean isRetired;
+
+        private ArchiveHandle(ArchiveKey key, IArchiveIterator archiveIterator) {
+            this.key = key;
+            this.archiveIterator = archiveIterator;
+        }
+
+        /**
+         * Removes handle from pool. Handle closes immediately if it is not used or after last release otherwise
+         */
+        private void retire() {
+            if (handles.get(key) == this) {
+                handles.remove(key);
+            }
+            isRetired = true;
+            if (refCount == 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            FileUtils.closeQuietly(archiveIterator);
+        }
+    }
+
+    private static class PooledArchiveIterator implements IReadableArchive {
+        private final ArchiveHandle handle;
+        private final IArchiveIterator archiveIterator;
+        private boolean isBroken;
+        private boolean isReleased;
+
+        private PooledArchiveIterator(ArchiveHandle handle) {
+            this.handle = handle;
+            this.archiveIterator = handle.archiveIterator;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            archiveIterator.reset();
+        }
+
+        @Override
+        public boolean next() {
+            return archiveIterator.next();
+        }
+
+        @Override
+        public long getEntrySize() throws IOException {
+            return archiveIterator.getEntrySize();
+        }
+
+        @Override
+        public String getEntryName() throws IOException {
+            return archiveIterator.getEntryName();
+        }
+
+        @Override
+        public InputStream getEntryInputStream() throws IOException {
+            try {
+                return archiveIterator.getEntryInputStream();
+            } catch (IOException | RuntimeException ex) {
+                isBroken = true;
+                throw ex;
+            }
+        }
+
+        @Override
+        public InputStream getEntryInputStreamByName(String entryName) throws IOException {
+            try {
+                return archiveIterator.getEntryInputStreamByName(entryName);
+            } catch (IOException | RuntimeException ex) {
+                isBroken = true;
+                throw ex;
+            }
+        }
+
+        @Override
+        public String getArchivePath() {
+            return archiveIterator.getArchivePath();
+        }
+
+        @Override
+        public void close() {
+            if (!isReleased) {
+                isReleased = true;
+                release(handle, isBroken);
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.atsumeru.web.archive;
+
+import com.atsumeru.web.util.ArrayUtils;
+import com.atsumeru.web.util.StringUtils;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Compact table of page entries locations inside ZIP file. Allows to read page bytes directly from archive file
+ * without parsing central directory on every request.
+ * <p>
+ * Format: {@code fileLength:lastModified|offset,compressedSize,size,method,crc;...} with entries in pages order.
+ * Empty entry means that page location is unknown (encrypted, ZIP64 or missing entry)
+ */
+public class ZipPageTable {
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final Charset DEFAULT_CHARSET = Charset.forName("CP866");
+
+    /**
+     * Creates page table for ZIP archive
+     *
+     * @param archivePath path to archive
+     * @param pageEntryNames entry names of pages in reading order
+     * @return serialized table or null if file is not a ZIP archive or can't be read
+     */
+    @Nullable
+    public static String create(String archivePath, List<String> pageEntryNames) {
+        if (ArrayUtils.isEmpty(pageEntryNames)) {
+            return null;
+        }
+
+        File file = new File(archivePath);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileLength = channel.size();
+            if (fileLength < END_OF_CENTRAL_DIRECTORY_SIZE || readBuffer(channel, 0, 4).getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                return null;
+            }
+
+            Map<String, PageEntry> entries = readCentralDirectory(channel, fileLength);
+            if (entries == null) {
+                return null;
+            }
+
+            String pages = pageEntryNames.stream()
+                    .map(entries::get)
+                    .map(entry -> locateData(channel, entry))
+                    .map(entry -> entry != null ? entry.toString() : "")
+                    .collect(Collectors.joining(";"));
+
+            return fileLength + ":" + file.lastModified() + "|" + pages;
+        } catch (IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds page location in table
+     *
+     * @param pageTable table created by {@link #create(String, List)}
+     * @param archivePath path to archive. Table is considered stale if archive length or modification time changed
+     * @param pageIndex zero-based page index in pageEntryNames list used for table creation
+     * @return page location or null if table is missing, stale or has no location for page
+     */
+    @Nullable
+    public static PageEntry find(@Nullable String pageTable, String archivePath, int pageIndex) {
+        if (StringUtils.isEmpty(pageTable) || pageIndex < 0) {
+            return null;
+        }
+
+        int headerEnd = pageTable.indexOf('|');
+        if (headerEnd < 0) {
+            return null;
+        }
+
+        File file = new File(archivePath);
+        if (!pageTable.substring(0, headerEnd).equals(file.length() + ":" + file.lastModified())) {
+            return null;
+        }
+
+        String[] pages = pageTable.substring(headerEnd + 1).split(";", -1);
+        return pageIndex < pages.length ? PageEntry.fromString(pages[pageIndex]) : null;
+    }
+
+    @Nullable
+    private static Map<String, PageEntry> readCentralDirectory(FileChannel channel, long fileLength) throws IOException {
+        int tailSize = (int) Math.min(fileLength, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = readBuffer(channel, fileLength - tailSize, tailSize);
+
+        int endPosition = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                endPosition = i;
+                break;
+            }
+        }
+        if (endPosition < 0) {
+            return null;
+        }
+
+        long directorySize = Integer.toUnsignedLong(tail.getInt(endPosition + 12));
+        long directoryOffset = Integer.toUnsignedLong(tail.getInt(endPosition + 16));
+        if (directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC || directoryOffset + directorySize > fileLength) {
+            return null;
+        }
+
+        ByteBuffer directory = readBuffer(channel, directoryOffset, (int) directorySize);
+        Map<String, PageEntry> entries = new HashMap<>();
+        int position = 0;
+        while (position + CENTRAL_HEADER_SIZE <= directorySize && directory.getInt(position) == CENTRAL_HEADER_SIGNATURE) {
+            int flags = Short.toUnsignedInt(directory.getShort(position + 8));
+            int method = Short.toUnsignedInt(directory.getShort(position + 10));
+            long crc = Integer.toUnsignedLong(directory.getInt(position + 16));
+            long compressedSize = Integer.toUnsignedLong(directory.getInt(position + 20));
+            long size = Integer.toUnsignedLong(directory.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+            long headerOffset = Integer.toUnsignedLong(directory.getInt(position + 42));
+
+            byte[] name = new byte[nameLength];
+            directory.position(position + CENTRAL_HEADER_SIZE);
+            directory.get(name);
+
+            boolean isSupported = (flags & FLAG_ENCRYPTED) == 0 && compressedSize != ZIP64_MAGIC && size != ZIP64_MAGIC
+                    && headerOffset != ZIP64_MAGIC && (method == METHOD_STORED || method == METHOD_DEFLATED);
+            if (isSupported) {
+                // headerOffset временно хранится в dataOffset, реальное смещение данных вычисляется по локальному заголовку
+                PageEntry entry = new PageEntry(headerOffset, compressedSize, size, method, crc);
+                // Имена без UTF-8 флага ZipIterator сначала читает в CP866, а затем в UTF-8
+                if ((flags & FLAG_UTF8) == 0) {
+                    entries.putIfAbsent(new String(name, DEFAULT_CHARSET), entry);
+                }
+                entries.putIfAbsent(new String(name, StandardCharsets.UTF_8), entry);
+            }
+
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    @Nullable
+    private static PageEntry locateData(FileChannel channel, @Nullable PageEntry entry) {
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            ByteBuffer header = readBuffer(channel, entry.dataOffset, LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                return null;
+            }
+
+            int nameLength = Short.toUnsignedInt(header.getShort(26));
+            int extraLength = Short.toUnsignedInt(header.getShort(28));
+            long dataOffset = entry.dataOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+            if (dataOffset + entry.compressedSize > channel.size()) {
+                return null;
+            }
+            return new PageEntry(dataOffset, entry.compressedSize, entry.size, entry.method, entry.crc);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private static ByteBuffer readBuffer(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        return buffer;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class PageEntry {
+        private final long dataOffset;
+        private final long compressedSize;
+        private final long size;
+        private final int method;
+        private final long crc;
+
+        public boolean isStored() {
+            return method == METHOD_STORED;
+        }
+
+        @Nullable
+        private static PageEntry fromString(String value) {
+            String[] parts = value.split(",");
+            if (parts.length != 5) {
+                return null;
+            }
+            try {
+                return new PageEntry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                        Integer.parseInt(parts[3]), Long.parseLong(parts[4]));
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return dataOffset + "," + compressedSize + "," + size + "," + method + "," + crc;
+        }
+    }
+}
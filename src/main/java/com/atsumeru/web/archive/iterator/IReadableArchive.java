@@ -0,0 +1,20 @@
+package com.atsumeru.web.archive.iterator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read-only view of opened archive. Used for handles that are shared between readers, so archive can't be
+ * reopened or modified through them
+ */
+public interface IReadableArchive extends Closeable {
+    void reset() throws IOException;
+    boolean next();
+    long getEntrySize() throws IOException;
+    String getEntryName() throws IOException;
+    InputStream getEntryInputStream() throws IOException;
+    InputStream getEntryInputStreamByName(String entryName) throws IOException;
+    String getArchivePath();
+    void close();
+}
@@ -32,6 +32,8 @@ public class SevenZipIterator implements IArchiveIterator {
     private RandomAccessFile randomAccessFile;
     private IInArchive inArchive;
 
+    private List<ISimpleInArchiveItem> entries;
+    private Map<String, ISimpleInArchiveItem> entriesByName;
     private ListIterator<ISimpleInArchiveItem> iterator;
     private ISimpleInArchiveItem entry;
 
@@ -128,12 +130,8 @@ public class SevenZipIterator implements IArchiveIterator {
         randomAccessFile = new RandomAccessFile(archivePath, "r");
         inArchive = SevenZip.openInArchive(null, new RandomAccessFileInStream(randomAccessFile));
 
-        reset();
-    }
-
-    @Override
-    public void reset() throws IOException {
-        iterator = Arrays.stream(inArchive.getSimpleInterface().getArchiveItems())
+        // Список записей сортируется один раз на открытие архива, reset() лишь переиспользует его
+        entries = Arrays.stream(inArchive.getSimpleInterface().getArchiveItems())
                 .filter(it -> {
                     try {
                         return !it.isFolder();
@@ -148,8 +146,19 @@ public class SevenZipIterator implements IArchiveIterator {
                         return 0;
                     }
                 })
-                .collect(Collectors.toList())
-                .listIterator();
+                .collect(Collectors.toList());
+
+        entriesByName = new HashMap<>();
+        for (ISimpleInArchiveItem item : entries) {
+            entriesByName.putIfAbsent(item.getPath(), item);
+        }
+
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        iterator = entries.listIterator();
     }
 
     @Override
@@ -202,12 +211,12 @@ public class SevenZipIterator implements IArchiveIterator {
 
     @Override
     public InputStream getEntryInputStreamByName(String entryName) throws SevenZipException {
-        while (next()) {
-            if (getEntryName().equals(entryName)) {
-                break;
-            }
+        ISimpleInArchiveItem item = entriesByName.get(entryName);
+        if (item != null) {
+            entry = item;
+            return getEntryInputStream();
         }
-        return getEntryName().equals(entryName) ? getEntryInputStream() : null;
+        return null;
     }
 
     @Override
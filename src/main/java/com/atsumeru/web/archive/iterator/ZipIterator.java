@@ -22,6 +22,9 @@ public class ZipIterator implements IArchiveIterator {
 
     @Getter private String archivePath;
     private ZipFile zipFile;
+    private Charset charset;
+    private List<ZipEntry> entries;
+    private Map<String, ZipEntry> entriesByName;
     private ListIterator<? extends ZipEntry> iterator;
     private ZipEntry entry;
 
@@ -55,18 +58,22 @@ public class ZipIterator implements IArchiveIterator {
     }
 
     private void openWithCharset(Charset charset) throws IOException {
+        this.charset = charset;
         zipFile = new ZipFile(archivePath, charset);
+
+        // Список записей сортируется один раз на открытие архива, reset() лишь переиспользует его
+        entries = Collections.list(zipFile.entries())
+                .stream()
+                .filter(it -> !it.isDirectory())
+                .sorted((entry1, entry2) -> natSortComparator.compare(entry1.getName().toLowerCase(), entry2.getName().toLowerCase()))
+                .collect(Collectors.toList());
+        entriesByName = entries.stream()
+                .collect(Collectors.toMap(ZipEntry::getName, it -> it, (first, second) -> first));
     }
 
     @Override
     public void reset() {
-        List<? extends ZipEntry> entries = Collections.list(zipFile.entries());
-
-        iterator = entries.stream()
-                .filter(it -> !it.isDirectory())
-                .sorted((entry1, entry2) -> natSortComparator.compare(entry1.getName().toLowerCase(), entry2.getName().toLowerCase()))
-                .collect(Collectors.toList())
-                .listIterator();
+        iterator = entries.listIterator();
     }
 
     @Override
@@ -95,15 +102,13 @@ public class ZipIterator implements IArchiveIterator {
 
     @Override
     public InputStream getEntryInputStreamByName(String entryName) throws IOException {
-        try {
-            entry = zipFile.getEntry(entryName);
-        } catch (IllegalArgumentException ignored) {
-        }
+        entry = entriesByName.get(entryName);
         // Maybe archive packed with in UTF-8 charset and entry has Cyrillic symbols?
-        if (entry == null) {
+        if (entry == null && !StandardCharsets.UTF_8.equals(charset)) {
             close();
             openWithCharset(StandardCharsets.UTF_8);
-            entry = zipFile.getEntry(entryName);
+            reset();
+            entry = entriesByName.get(entryName);
         }
         if (entry == null) {
             throw new IOException();
@@ -1,6 +1,7 @@
 package com.atsumeru.web.configuration;
 
 import com.atsumeru.web.filewatch.FileSystemWatcher;
+import com.atsumeru.web.filewatch.NativeFileSystemWatcher;
 import com.atsumeru.web.listener.ImporterFileChangeListener;
 import com.atsumeru.web.manager.Settings;
 import com.atsumeru.web.properties.FoldersProperties;
@@ -13,13 +14,18 @@ import org.springframework.core.annotation.Order;
 
 import javax.annotation.PreDestroy;
 import java.io.File;
+import java.io.IOException;
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 @Configuration
 public class FileWatcherConfig {
     private static final Logger logger = LoggerFactory.getLogger(FileWatcherConfig.class.getSimpleName());
     private static FileSystemWatcher fsWatcher;
+    private static NativeFileSystemWatcher nativeWatcher;
 
     public static void start() {
         destroy();
@@ -30,13 +36,41 @@ public class FileWatcherConfig {
     @Order(5)
     public FileSystemWatcher fileSystemWatcher() {
         if (!Settings.isDisableFileWatcher()) {
-            fsWatcher = new FileSystemWatcher(true, Duration.ofSeconds(20), Duration.ofSeconds(3));
-            FoldersProperties.getFolderProperties().forEach(property -> fsWatcher.addSourceFolder(new File(property.getPath())));
-            fsWatcher.addListener(new ImporterFileChangeListener());
+            // Папки на ФС без нативных уведомлений (сетевые ресурсы) отслеживаются опросом
+            boolean forcePolling = Settings.isForcePollingFileWatcher();
+            Map<Boolean, List<File>> folders = FoldersProperties.getFolderProperties()
+                    .stream()
+                    .map(property -> new File(property.getPath()))
+                    .collect(Collectors.partitioningBy(folder -> !forcePolling && NativeFileSystemWatcher.isSupported(folder)));
+
+            ImporterFileChangeListener listener = new ImporterFileChangeListener();
+            NativeFileSystemWatcher notifyingWatcher = new NativeFileSystemWatcher(true, Duration.ofSeconds(3));
+            folders.get(true).forEach(notifyingWatcher::addSourceFolder);
+            notifyingWatcher.addListener(listener);
+
+            FileSystemWatcher pollingWatcher = new FileSystemWatcher(true, Duration.ofSeconds(20), Duration.ofSeconds(3));
+            folders.get(false).forEach(pollingWatcher::addSourceFolder);
+            pollingWatcher.addListener(listener);
+
+            nativeWatcher = notifyingWatcher;
+            fsWatcher = pollingWatcher;
+
             logger.info("Starting Import Filesystem Watcher...");
             new Thread(() -> {
-                fsWatcher.start();
-                logger.info("Import Filesystem Watcher started!");
+                if (notifyingWatcher.hasSourceFolders()) {
+                    try {
+                        notifyingWatcher.start();
+                        logger.info(String.format("Import Filesystem Watcher started with native notifications for %d folders", folders.get(true).size()));
+                    } catch (IOException | RuntimeException ex) {
+                        logger.warn("Unable to start native Filesystem Watcher, falling back to polling. Reason: " + ex.getMessage());
+                        notifyingWatcher.stop();
+                        folders.get(true).forEach(pollingWatcher::addSourceFolder);
+                    }
+                }
+                if (pollingWatcher.hasSourceFolders()) {
+                    pollingWatcher.start();
+                    logger.info("Import Filesystem Watcher started with polling");
+                }
             }).start();
         } else {
             logger.warn("Import Filesystem Watcher disabled");
@@ -46,6 +80,7 @@ public class FileWatcherConfig {
 
     @PreDestroy
     public static void destroy() {
+        Optional.ofNullable(nativeWatcher).ifPresent(NativeFileSystemWatcher::stop);
         Optional.ofNullable(fsWatcher).ifPresent(FileSystemWatcher::stop);
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,8 @@
 package com.atsumeru.web.configuration;
 
+import com.atsumeru.web.json.PrettyPrintingGsonConverter;
 import com.atsumeru.web.json.adapter.OmitEmptyStringsAdapter;
+import com.google.gson.Gson;
 import org.springframework.boot.autoconfigure.gson.GsonBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -14,4 +16,9 @@ public class GsonConfiguration {
             builder.registerTypeAdapter(String.class, new OmitEmptyStringsAdapter());
         };
     }
-}
\ No newline at end of file
+
+    @Bean
+    public PrettyPrintingGsonConverter gsonHttpMessageConverter(Gson gson) {
+        return new PrettyPrintingGsonConverter(gson);
+    }
+}
@@ -1,8 +1,12 @@
 package com.atsumeru.web.configuration;
 
+import com.atsumeru.web.security.CachingAuthenticationProvider;
+import com.atsumeru.web.security.TokenAuthenticationFilter;
+import com.atsumeru.web.service.TokenService;
 import com.atsumeru.web.service.UserDatabaseDetailsService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -10,15 +14,18 @@ import org.springframework.security.config.annotation.web.configuration.EnableWe
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 
 @Configuration
 @EnableWebSecurity
 @EnableGlobalMethodSecurity(prePostEnabled = true)
 public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
     private final UserDatabaseDetailsService userDatabaseDetailsService;
+    private final TokenService tokenService;
 
-    public WebSecurityConfig(UserDatabaseDetailsService userDatabaseDetailsService) {
+    public WebSecurityConfig(UserDatabaseDetailsService userDatabaseDetailsService, TokenService tokenService) {
         this.userDatabaseDetailsService = userDatabaseDetailsService;
+        this.tokenService = tokenService;
     }
 
     @Bean
@@ -28,8 +35,12 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
 
     @Override
     protected void configure(AuthenticationManagerBuilder auth) throws Exception {
-        auth.userDetailsService(userDatabaseDetailsService)
-                .passwordEncoder(passwordEncoder());
+        DaoAuthenticationProvider daoAuthenticationProvider = new DaoAuthenticationProvider();
+        daoAuthenticationProvider.setUserDetailsService(userDatabaseDetailsService);
+        daoAuthenticationProvider.setPasswordEncoder(passwordEncoder());
+
+        // Проверка BCrypt выполняется только при первом запросе с данными учетными данными
+        auth.authenticationProvider(new CachingAuthenticationProvider(daoAuthenticationProvider));
     }
 
     @Override
@@ -44,6 +55,8 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
                 .and()
                 .csrf()
                 .disable()
-                .httpBasic();
+                .httpBasic()
+                .and()
+                .addFilterBefore(new TokenAuthenticationFilter(tokenService), BasicAuthenticationFilter.class);
     }
 }
\ No newline at end of file
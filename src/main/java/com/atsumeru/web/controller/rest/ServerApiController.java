@@ -7,9 +7,12 @@ import com.atsumeru.web.repository.BooksDatabaseRepository;
 import com.atsumeru.web.repository.dao.BooksDaoManager;
 import com.atsumeru.web.service.CoversSaverService;
 import com.atsumeru.web.helper.JavaHelper;
+import com.atsumeru.web.manager.AtsumeruCacheManager;
+import com.atsumeru.web.manager.PagesDiskCache;
 import com.atsumeru.web.helper.RestHelper;
 import com.atsumeru.web.model.AtsumeruMessage;
 import com.atsumeru.web.model.ServerInfo;
+import com.atsumeru.web.model.cache.CacheStatistics;
 import com.atsumeru.web.model.book.chapter.BookChapter;
 import com.atsumeru.web.model.database.Category;
 import com.atsumeru.web.util.FileUtils;
@@ -22,6 +25,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.File;
+import java.util.List;
 
 @RestController
 @RequestMapping(ServerApiController.ROOT_ENDPOINT)
@@ -64,10 +68,17 @@ public class ServerApiController {
     public ResponseEntity<AtsumeruMessage> clearCache() {
         new Thread(() -> {
             FileUtils.deleteDirectory(new File(Workspace.CACHE_DIR));
+            PagesDiskCache.reset();
             Workspace.configureWorkspace();
             CoversSaverService.saveNonExistentCoversIntoCache();
         }).start();
 
         return RestHelper.createResponseMessage("Cache cleared", HttpStatus.OK);
     }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/cache_stats")
+    public List<CacheStatistics> cacheStats() {
+        return AtsumeruCacheManager.getStatistics();
+    }
 }
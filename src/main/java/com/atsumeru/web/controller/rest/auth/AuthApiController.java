@@ -0,0 +1,34 @@
+package com.atsumeru.web.controller.rest.auth;
+
+import com.atsumeru.web.model.AccessToken;
+import com.atsumeru.web.model.database.User;
+import com.atsumeru.web.repository.UserDatabaseRepository;
+import com.atsumeru.web.service.TokenService;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+
+@RestController
+@RequestMapping("/api/v1/auth")
+public class AuthApiController {
+    private final UserDatabaseRepository userService;
+    private final TokenService tokenService;
+
+    public AuthApiController(UserDatabaseRepository userService, TokenService tokenService) {
+        this.userService = userService;
+        this.tokenService = tokenService;
+    }
+
+    /**
+     * Issues bearer token for user authenticated with HTTP Basic. Token may be used instead of Basic credentials
+     * in {@code Authorization: Bearer <token>} header and becomes invalid after password or roles change
+     */
+    @PostMapping("/token")
+    public AccessToken createToken(HttpServletRequest request) {
+        User user = userService.getUserFromRequest(request);
+        long expiresAt = System.currentTimeMillis() + TokenService.TOKEN_LIFETIME_MS;
+        return new AccessToken(tokenService.createToken(user, expiresAt), "Bearer", expiresAt);
+    }
+}
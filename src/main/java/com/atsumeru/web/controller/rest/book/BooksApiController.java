@@ -1,16 +1,23 @@
 package com.atsumeru.web.controller.rest.book;
 
 import com.atsumeru.web.enums.*;
+import com.atsumeru.web.event.LibraryChangeEvent;
+import com.atsumeru.web.event.LibraryEventBus;
 import com.atsumeru.web.helper.ArchiveHelper;
 import com.atsumeru.web.helper.FilesHelper;
 import com.atsumeru.web.helper.RestHelper;
+import com.atsumeru.web.json.JsonArrayStreamWriter;
+import com.atsumeru.web.json.PrettyPrintingGsonConverter;
 import com.atsumeru.web.manager.AtsumeruCacheManager;
 import com.atsumeru.web.manager.ImageCache;
 import com.atsumeru.web.manager.Settings;
 import com.atsumeru.web.model.AtsumeruMessage;
+import com.atsumeru.web.model.book.BookSerie;
+import com.atsumeru.web.model.book.BooksCursor;
 import com.atsumeru.web.model.book.IBaseBookItem;
 import com.atsumeru.web.model.book.chapter.BookChapter;
 import com.atsumeru.web.model.book.volume.VolumeItem;
+import com.atsumeru.web.model.database.User;
 import com.atsumeru.web.model.filter.Filters;
 import com.atsumeru.web.repository.BooksRepository;
 import com.atsumeru.web.repository.CategoryRepository;
@@ -31,9 +38,9 @@ import org.springframework.web.bind.annotation.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.List;
-import java.util.Objects;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.stream.Collectors;
 
 @Controller
@@ -41,27 +48,18 @@ import java.util.stream.Collectors;
 @RequestMapping("/api/v1/books")
 public class BooksApiController {
     private final UserDatabaseRepository userService;
+    private final PrettyPrintingGsonConverter gsonConverter;
 
-    public BooksApiController(UserDatabaseRepository userService) {
+    public BooksApiController(UserDatabaseRepository userService, PrettyPrintingGsonConverter gsonConverter) {
         this.userService = userService;
+        this.gsonConverter = gsonConverter;
     }
 
     //*****************************//
     //*         Books             *//
     //*****************************//
     @GetMapping("")
-    @Cacheable(value = "books", key="#request.userPrincipal.name.concat('-')" +
-            ".concat(\"\" + #contentType).concat('-')" +
-            ".concat(#category).concat('-')" +
-            ".concat(#libraryPresentation).concat('-')" +
-            ".concat(#search).concat('-')" +
-            ".concat(#sort).concat('-')" +
-            ".concat(#ascending).concat('-')" +
-            ".concat(#page).concat('-')" +
-            ".concat(#limit).concat('-')" +
-            ".concat(#withVolumesAndHistory).concat('-')" +
-            ".concat(#withChapters).concat('-')" +
-            ".concat(#getAll).concat('-')")
+    @Cacheable(value = "books", keyGenerator = AtsumeruCacheManager.USER_REQUEST_KEY_GENERATOR)
     public List<IBaseBookItem> getBooks(HttpServletRequest request,
                                         @RequestParam(value = "type", defaultValue = "") ContentType contentType,
                                         @RequestParam(value = "category", defaultValue = "") String category,
@@ -71,9 +69,9 @@ public class BooksApiController {
                                         @RequestParam(value = "asc", defaultValue = "false") boolean ascending,
                                         @RequestParam(value = "page", defaultValue = "1") int page,
                                         @RequestParam(value = "limit", defaultValue = "30") int limit,
+                                        @RequestParam(value = "cursor", required = false) String cursor,
                                         @RequestParam(value = "with_volumes", defaultValue = "false") boolean withVolumesAndHistory,
-                                        @RequestParam(value = "with_chapters", defaultValue = "false") boolean withChapters,
-                                        @RequestParam(value = "all", defaultValue = "false") boolean getAll) {
+                                        @RequestParam(value = "with_chapters", defaultValue = "false") boolean withChapters) {
         if (StringUtils.isEmpty(search)) {
             return BooksRepository.getBooks(
                     userService.getUserFromRequest(request),
@@ -84,9 +82,9 @@ public class BooksApiController {
                     ascending,
                     page,
                     limit,
+                    BooksCursor.decode(cursor),
                     Settings.isAllowListLoadingWithVolumes() && withVolumesAndHistory,
-                    Settings.isAllowListLoadingWithChapters() && withChapters,
-                    getAll);
+                    Settings.isAllowListLoadingWithChapters() && withChapters);
         } else {
             return getFilteredBooks(request,
                     contentType,
@@ -98,24 +96,64 @@ public class BooksApiController {
                     new LinkedMultiValueMap<>(),
                     page,
                     limit,
+                    cursor,
                     withVolumesAndHistory,
                     withChapters);
         }
     }
 
+    /**
+     * Whole library in one response. Written into response book by book instead of building list in memory,
+     * so it is not cached. Cached {@link #getBooks} always returns one page, whole library is never built there
+     */
+    @GetMapping(value = "", params = "all=true")
+    public void streamAllBooks(HttpServletRequest request, HttpServletResponse response,
+                               @RequestParam(value = "type", defaultValue = "") ContentType contentType,
+                               @RequestParam(value = "category", defaultValue = "") String category,
+                               @RequestParam(value = "presentation", defaultValue = "series") LibraryPresentation libraryPresentation,
+                               @RequestParam(value = "search", defaultValue = "") String search,
+                               @RequestParam(value = "sort", defaultValue = "created_at") Sort sort,
+                               @RequestParam(value = "asc", defaultValue = "false") boolean ascending,
+                               @RequestParam(value = "with_volumes", defaultValue = "false") boolean withVolumesAndHistory,
+                               @RequestParam(value = "with_chapters", defaultValue = "false") boolean withChapters) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        JsonArrayStreamWriter writer = new JsonArrayStreamWriter(gsonConverter.getGson(request), response.getWriter());
+        User user = userService.getUserFromRequest(request);
+        ContentType categoryContentType = CategoryRepository.getContentTypeForCategory(category, contentType);
+        String categoryDbId = CategoryRepository.createDbIdForCategoryId(category);
+        boolean loadVolumes = Settings.isAllowListLoadingWithVolumes() && withVolumesAndHistory;
+        boolean loadChapters = Settings.isAllowListLoadingWithChapters() && withChapters;
+        Runnable flush = () -> {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+
+        if (StringUtils.isNotEmpty(search)) {
+            BooksRepository.streamSearchResults(user, libraryPresentation, categoryContentType, categoryDbId, search, sort, ascending,
+                    loadVolumes, loadChapters, writer::write, flush);
+        } else {
+            BooksRepository.streamBooks(user, libraryPresentation, categoryContentType, categoryDbId, sort, ascending,
+                    loadVolumes, loadChapters, writer::write, flush);
+        }
+        writer.finish();
+    }
+
     //*****************************//
     //*         Filters           *//
     //*****************************//
     @GetMapping("/filters")
-    @Cacheable(value = "filters", key="#request.userPrincipal.name.concat('-')" +
-            ".concat(\"\" + #contentType).concat('-')" +
-            ".concat(#category).concat('-')" +
-            ".concat(#libraryPresentation).concat('-')")
+    @Cacheable(value = "filters", keyGenerator = AtsumeruCacheManager.USER_REQUEST_KEY_GENERATOR)
     public List<Filters> getFiltersList(HttpServletRequest request,
                                         @RequestParam(value = "type", defaultValue = "", required = false) ContentType contentType,
                                         @RequestParam(value = "category", defaultValue = "", required = false) String category,
                                         @RequestParam(value = "presentation", defaultValue = "series") LibraryPresentation libraryPresentation) {
         return FilteredBooksRepository.getFiltersList(
+                userService.getUserFromRequest(request),
                 CategoryRepository.getContentTypeForCategory(category, contentType),
                 CategoryRepository.createDbIdForCategoryId(category),
                 libraryPresentation
@@ -133,6 +171,7 @@ public class BooksApiController {
                                                 @RequestBody MultiValueMap<String, String> formData,
                                                 @RequestParam(value = "page", defaultValue = "1") int page,
                                                 @RequestParam(value = "limit", defaultValue = "30") int limit,
+                                                @RequestParam(value = "cursor", required = false) String cursor,
                                                 @RequestParam(value = "with_volumes", defaultValue = "false") boolean withVolumesAndHistory,
                                                 @RequestParam(value = "with_chapters", defaultValue = "false") boolean withChapters) {
         return FilteredBooksRepository.getFilteredList(
@@ -146,6 +185,7 @@ public class BooksApiController {
                 formData,
                 page,
                 limit,
+                BooksCursor.decode(cursor),
                 Settings.isAllowListLoadingWithVolumes() && withVolumesAndHistory,
                 Settings.isAllowListLoadingWithChapters() && withChapters);
     }
@@ -199,6 +239,7 @@ public class BooksApiController {
                                                 // Other params
                                                 @RequestParam(value = "page", defaultValue = "1") int page,
                                                 @RequestParam(value = "limit", defaultValue = "30") int limit,
+                                                @RequestParam(value = "cursor", required = false) String cursor,
                                                 @RequestParam(value = "with_volumes", defaultValue = "false") boolean withVolumesAndHistory,
                                                 @RequestParam(value = "with_chapters", defaultValue = "false") boolean withChapters) {
         return FilteredBooksRepository.getFilteredList(
@@ -209,6 +250,7 @@ public class BooksApiController {
                 color, ageRating, authors, authorsMode, artists, artistsMode, publishers, publishersMode, translators, translatorsMode,
                 genres, genresMode, tags, tagsMode, countries, countriesMode, languages, languagesMode, events, eventsMode, characters,
                 charactersMode, series, seriesMode, parodies, parodiesMode, circles, circlesMode, magazines, magazinesMode, years, page, limit,
+                BooksCursor.decode(cursor),
                 Settings.isAllowListLoadingWithVolumes() && withVolumesAndHistory,
                 Settings.isAllowListLoadingWithChapters() && withChapters
         );
@@ -310,7 +352,10 @@ public class BooksApiController {
                         @PathVariable(value = "archive_hash", required = false) String archiveHash,
                         @PathVariable(value = "chapter_hash", required = false) String chapterHash,
                         @PathVariable(value = "page") int page,
-                        @RequestParam(value = "convert", defaultValue = "false") boolean convertImage) {
+                        @RequestParam(value = "convert", defaultValue = "false") boolean convertImage,
+                        @RequestParam(value = "width", defaultValue = "0") int width,
+                        @RequestParam(value = "height", defaultValue = "0") int height,
+                        @RequestParam(value = "format", required = false) String format) {
         ArchiveHelper.getBookPage(
                 response,
                 !BooksRepository.isChapterHash(archiveOrChapterHash)
@@ -320,7 +365,10 @@ public class BooksApiController {
                         ? archiveOrChapterHash
                         : chapterHash,
                 page,
-                convertImage
+                convertImage,
+                width,
+                height,
+                format
         );
     }
 
@@ -337,8 +385,9 @@ public class BooksApiController {
     //*****************************//
     @DeleteMapping("/delete/{book_hash}")
     public ResponseEntity<AtsumeruMessage> deleteArchive(HttpServletRequest request, @PathVariable(value = "book_hash") String bookHash) {
-        BooksRepository.deleteBook(userService.getUserFromRequest(request), bookHash);
-        AtsumeruCacheManager.evictAll();
+        IBaseBookItem deletedBook = BooksRepository.deleteBook(userService.getUserFromRequest(request), bookHash);
+        String serieHash = Optional.ofNullable(deletedBook.getSerie()).map(BookSerie::getContentId).orElse(null);
+        LibraryEventBus.publish(LibraryChangeEvent.booksChanged(Arrays.asList(bookHash, serieHash), true));
         return RestHelper.createResponseMessage("Book deleted", HttpStatus.OK);
     }
 
@@ -1,5 +1,6 @@
 package com.atsumeru.web.controller.rest.book;
 
+import com.atsumeru.web.manager.AtsumeruCacheManager;
 import com.atsumeru.web.model.book.BookSerie;
 import com.atsumeru.web.repository.BooksDatabaseRepository;
 import com.atsumeru.web.enums.LibraryPresentation;
@@ -21,9 +22,7 @@ import java.util.stream.Collectors;
 @RequestMapping("/api/v1/books/")
 public class FilteredByBoundServiceApiController {
 
-    @Cacheable(value = "books_by_bound_service", key = "#request.userPrincipal.name.concat('-')" +
-            ".concat(\"\" + #boundServiceName).concat('-')" +
-            ".concat(#boundServiceId).concat('-')")
+    @Cacheable(value = "books_by_bound_service", keyGenerator = AtsumeruCacheManager.USER_REQUEST_KEY_GENERATOR)
     @GetMapping("{bound_service_name}/{bound_service_id}")
     public List<BookSerie> getBooksByBoundService(HttpServletRequest request,
                                                   @PathVariable("bound_service_name") String boundServiceName,
@@ -1,8 +1,9 @@
 package com.atsumeru.web.controller.rest.category;
 
 import com.atsumeru.web.enums.ContentType;
+import com.atsumeru.web.event.LibraryChangeEvent;
+import com.atsumeru.web.event.LibraryEventBus;
 import com.atsumeru.web.helper.RestHelper;
-import com.atsumeru.web.manager.AtsumeruCacheManager;
 import com.atsumeru.web.model.AtsumeruMessage;
 import com.atsumeru.web.model.book.BookSerie;
 import com.atsumeru.web.model.database.Category;
@@ -18,8 +19,8 @@ import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Controller
@@ -61,7 +62,14 @@ public class CategoriesApiController {
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<AtsumeruMessage> setCategories(@RequestBody MultiValueMap<String, String> contentIdsWithCategories) {
         CategoryRepository.setCategories(contentIdsWithCategories);
-        AtsumeruCacheManager.evictAll();
+        LibraryEventBus.publish(LibraryChangeEvent.categoriesChanged(
+                contentIdsWithCategories.values()
+                        .stream()
+                        .flatMap(Collection::stream)
+                        .flatMap(Pattern.compile(",")::splitAsStream)
+                        .collect(Collectors.toSet()),
+                contentIdsWithCategories.keySet()
+        ));
         return RestHelper.createResponseMessage("Categories set for provided content list", HttpStatus.OK);
     }
 
@@ -97,7 +105,7 @@ public class CategoriesApiController {
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<AtsumeruMessage> deleteCategory(@RequestParam(value = "id") String categoryId) {
         boolean deleted = CategoryRepository.deleteCategory(categoryId);
-        AtsumeruCacheManager.evictAll();
+        LibraryEventBus.publish(LibraryChangeEvent.categoriesChanged(Collections.singletonList(categoryId), Collections.emptyList()));
         return RestHelper.createResponseMessage(
                 deleted ? "Category deleted" : "Category not exist",
                 deleted ? HttpStatus.OK : HttpStatus.NOT_FOUND
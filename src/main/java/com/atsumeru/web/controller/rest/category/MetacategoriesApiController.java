@@ -1,5 +1,6 @@
 package com.atsumeru.web.controller.rest.category;
 
+import com.atsumeru.web.model.book.BooksCursor;
 import com.atsumeru.web.model.book.IBaseBookItem;
 import com.atsumeru.web.model.category.Metacategory;
 import com.atsumeru.web.repository.MetacategoryRepository;
@@ -37,8 +38,9 @@ public class MetacategoriesApiController {
                                                       @PathVariable(value = "filter") String filter,
                                                       @RequestParam(value = "page", defaultValue = "1") int page,
                                                       @RequestParam(value = "limit", defaultValue = "30") int limit,
+                                                      @RequestParam(value = "cursor", required = false) String cursor,
                                                       @RequestParam(value = "with_volumes", defaultValue = "false") boolean withVolumesAndHistory,
                                                       @RequestParam(value = "with_chapters", defaultValue = "false") boolean withChapters) {
-        return MetacategoryRepository.getFilteredList(userService.getUserFromRequest(request), metacategoryId, filter, page, limit, withVolumesAndHistory, withChapters);
+        return MetacategoryRepository.getFilteredList(userService.getUserFromRequest(request), metacategoryId, filter, page, limit, BooksCursor.decode(cursor), withVolumesAndHistory, withChapters);
     }
 }
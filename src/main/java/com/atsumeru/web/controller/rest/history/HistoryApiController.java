@@ -1,6 +1,8 @@
 package com.atsumeru.web.controller.rest.history;
 
+import com.atsumeru.web.manager.AtsumeruCacheManager;
 import com.atsumeru.web.enums.LibraryPresentation;
+import com.atsumeru.web.model.book.BooksCursor;
 import com.atsumeru.web.model.book.IBaseBookItem;
 import com.atsumeru.web.repository.HistoryRepository;
 import com.atsumeru.web.repository.UserDatabaseRepository;
@@ -28,14 +30,12 @@ public class HistoryApiController {
     //*          History          *//
     //*****************************//
     @GetMapping("/history")
-    @Cacheable(value = "history", key="#request.userPrincipal.name.concat('-')" +
-            ".concat(#libraryPresentation.toString()).concat('-')" +
-            ".concat(#page).concat('-')" +
-            ".concat(#limit).concat('-')")
+    @Cacheable(value = "history", keyGenerator = AtsumeruCacheManager.USER_REQUEST_KEY_GENERATOR)
     public List<IBaseBookItem> getBooksHistory(HttpServletRequest request,
                                                @RequestParam(value = "presentation", defaultValue = "series") LibraryPresentation libraryPresentation,
                                                @RequestParam(value = "page", defaultValue = "1") int page,
-                                               @RequestParam(value = "limit", defaultValue = "50") long limit) {
-        return HistoryRepository.getBooksHistory(userService.getUserFromRequest(request), libraryPresentation, page, limit);
+                                               @RequestParam(value = "limit", defaultValue = "50") long limit,
+                                               @RequestParam(value = "cursor", required = false) String cursor) {
+        return HistoryRepository.getBooksHistory(userService.getUserFromRequest(request), libraryPresentation, page, limit, BooksCursor.decode(cursor));
     }
 }
@@ -1,10 +1,12 @@
 package com.atsumeru.web.controller.rest.hub;
 
+import com.atsumeru.web.manager.AtsumeruCacheManager;
 import com.atsumeru.web.enums.ContentType;
 import com.atsumeru.web.enums.LibraryPresentation;
 import com.atsumeru.web.enums.Sort;
 import com.atsumeru.web.helper.ServerHelper;
 import com.atsumeru.web.manager.Settings;
+import com.atsumeru.web.model.book.BooksCursor;
 import com.atsumeru.web.model.book.IBaseBookItem;
 import com.atsumeru.web.repository.BooksRepository;
 import com.atsumeru.web.repository.CategoryRepository;
@@ -36,16 +38,7 @@ public class HubApiController {
             "/new",
             "/updates"
     })
-    @Cacheable(value = "hub-updates", key="#request.userPrincipal.name.concat('-')" +
-            ".concat(#request.servletPath).concat('-')" +
-            ".concat(#libraryPresentation).concat('-')" +
-            ".concat(\"\" + #contentType).concat('-')" +
-            ".concat(#category).concat('-')" +
-            ".concat(#ascendingOrder).concat('-')" +
-            ".concat(#page).concat('-')" +
-            ".concat(#limit).concat('-')" +
-            ".concat(#withVolumesAndHistory).concat('-')" +
-            ".concat(#withChapters).concat('-')")
+    @Cacheable(value = "hub-updates", keyGenerator = AtsumeruCacheManager.USER_REQUEST_KEY_GENERATOR)
     public List<IBaseBookItem> getBooksHubInfo(HttpServletRequest request,
                                                @RequestParam(value = "presentation", defaultValue = "series") LibraryPresentation libraryPresentation,
                                                @RequestParam(value = "type", defaultValue = "") ContentType contentType,
@@ -53,6 +46,7 @@ public class HubApiController {
                                                @RequestParam(value = "asc", defaultValue = "false") boolean ascendingOrder,
                                                @RequestParam(value = "page", defaultValue = "1") int page,
                                                @RequestParam(value = "limit", defaultValue = "50") long limit,
+                                               @RequestParam(value = "cursor", required = false) String cursor,
                                                @RequestParam(value = "with_volumes", defaultValue = "false") boolean withVolumesAndHistory,
                                                @RequestParam(value = "with_chapters", defaultValue = "false") boolean withChapters) {
         return BooksRepository.getBooks(
@@ -64,9 +58,9 @@ public class HubApiController {
                 ascendingOrder,
                 page,
                 limit,
+                BooksCursor.decode(cursor),
                 Settings.isAllowListLoadingWithVolumes() && withVolumesAndHistory,
-                Settings.isAllowListLoadingWithChapters() && withChapters,
-                false);
+                Settings.isAllowListLoadingWithChapters() && withChapters);
     }
 
     private Sort getOrderByStringForHubRequest(HttpServletRequest request) {
@@ -1,10 +1,12 @@
 package com.atsumeru.web.controller.rest.metadata;
 
+import com.atsumeru.web.event.LibraryChangeEvent;
+import com.atsumeru.web.event.LibraryEventBus;
 import com.atsumeru.web.model.book.BookArchive;
 import com.atsumeru.web.model.book.BookSerie;
 import com.atsumeru.web.repository.BooksDatabaseRepository;
+import com.atsumeru.web.repository.BooksIndexRepository;
 import com.atsumeru.web.repository.CategoryRepository;
-import com.atsumeru.web.repository.MetacategoryRepository;
 import com.atsumeru.web.repository.dao.BooksDaoManager;
 import com.atsumeru.web.helper.RestHelper;
 import com.atsumeru.web.model.AtsumeruMessage;
@@ -17,6 +19,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Collections;
 import java.util.List;
 
 @RestController
@@ -39,7 +42,6 @@ public class MetadataApiController {
     }
 
     @PatchMapping({"/update", "/edit"})
-    @CacheEvict(cacheNames = {"books", "books_by_bound_service", "filters", "hub-updates", "history"}, allEntries = true)
     public ResponseEntity<AtsumeruMessage> updateMetadata(@RequestBody BookSerie bookSerie,
                                                           @RequestParam(value = "serie_only", defaultValue = "false") boolean serieOnly,
                                                           @RequestParam(value = "into_archives", defaultValue = "false") boolean insertIntoArchives,
@@ -51,9 +53,10 @@ public class MetadataApiController {
             serieInDb.copyFromBaseBook(bookSerie);
             serieInDb.fromBoundServicesToIds();
             daoManager.save(serieInDb);
+            BooksIndexRepository.update(serieInDb);
+            LibraryEventBus.publish(LibraryChangeEvent.metadataChanged(Collections.singletonList(serieInDb.getContentId())));
 
             CategoryRepository.reLoadCategories();
-            MetacategoryRepository.reIndex();
 
             if (serieOnly) {
                 return RestHelper.createResponseMessage("Serie updated in database", HttpStatus.OK);
@@ -68,9 +71,10 @@ public class MetadataApiController {
             BookArchive archiveInDb = archivesInDb.get(0);
             archiveInDb.copyFromBaseBook(bookSerie);
             daoManager.save(archiveInDb);
+            BooksIndexRepository.update(archiveInDb);
+            LibraryEventBus.publish(LibraryChangeEvent.metadataChanged(Collections.singletonList(archiveInDb.getContentId())));
 
             CategoryRepository.reLoadCategories();
-            MetacategoryRepository.reIndex();
 
             return RestHelper.createResponseMessage(
                     MetadataUpdateService.getInstance().startUpdateForArchive(archiveInDb, insertIntoArchives, insertIntoDBOnly)
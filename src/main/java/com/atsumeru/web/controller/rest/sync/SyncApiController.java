@@ -1,15 +1,17 @@
 package com.atsumeru.web.controller.rest.sync;
 
+import com.atsumeru.web.event.LibraryChangeEvent;
+import com.atsumeru.web.event.LibraryEventBus;
 import com.atsumeru.web.helper.RestHelper;
 import com.atsumeru.web.model.AtsumeruMessage;
 import com.atsumeru.web.model.database.History;
+import com.atsumeru.web.model.database.User;
 import com.atsumeru.web.repository.BooksRepository;
 import com.atsumeru.web.repository.HistoryRepository;
 import com.atsumeru.web.repository.UserDatabaseRepository;
 import com.atsumeru.web.util.ArrayUtils;
 import com.atsumeru.web.util.StringUtils;
 import com.atsumeru.web.util.TypeUtils;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -17,6 +19,8 @@ import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -31,29 +35,34 @@ public class SyncApiController {
     }
 
     @GetMapping(value = "/push")
-    @CacheEvict(cacheNames = {"history", "books", "books_by_bound_service"}, allEntries = true)
     public ResponseEntity<AtsumeruMessage> getPushReadHistory(HttpServletRequest request,
                                                               @RequestParam(value = "hash", required = false) String hash,
                                                               @RequestParam(value = "archive_hash", required = false) String archiveHash,
                                                               @RequestParam(value = "chapter_hash", required = false) String chapterHash,
                                                               @RequestParam(value = "page") int page) {
-        HistoryRepository.saveReadedPage(userService.getUserFromRequest(request), StringUtils.getFirstNotEmptyValue(hash, archiveHash), chapterHash, page);
+        User user = userService.getUserFromRequest(request);
+        History history = HistoryRepository.saveReadedPage(user, StringUtils.getFirstNotEmptyValue(hash, archiveHash), chapterHash, page);
+        LibraryEventBus.publish(LibraryChangeEvent.historyChanged(user.getUserName(), Arrays.asList(history.getSerieHash(), history.getArchiveHash())));
         return RestHelper.createResponseMessage("Synced successfully", HttpStatus.OK);
     }
 
     @PostMapping(value = "/push")
-    @CacheEvict(cacheNames = {"history", "books", "books_by_bound_service"}, allEntries = true)
     public ResponseEntity<AtsumeruMessage> postPushReadHistory(HttpServletRequest request, @RequestBody MultiValueMap<String, String> formData) {
         if (ArrayUtils.isNotEmpty(formData)) {
+            User user = userService.getUserFromRequest(request);
+            List<String> changedHashes = new ArrayList<>();
             for (Map.Entry<String, List<String>> entry : formData.entrySet()) {
                 String hash = entry.getKey();
-                HistoryRepository.saveReadedPage(
-                        userService.getUserFromRequest(request),
+                History history = HistoryRepository.saveReadedPage(
+                        user,
                         BooksRepository.isArchiveHash(hash) ? hash : null,
                         BooksRepository.isChapterHash(hash) ? hash : null,
                         TypeUtils.getIntDef(entry.getValue().get(0), 0)
                 );
+                changedHashes.add(history.getSerieHash());
+                changedHashes.add(history.getArchiveHash());
             }
+            LibraryEventBus.publish(LibraryChangeEvent.historyChanged(user.getUserName(), changedHashes));
             return RestHelper.createResponseMessage("Synced successfully", HttpStatus.OK);
         }
         return RestHelper.createResponseMessage("Sync error. No form_data values", HttpStatus.NOT_ACCEPTABLE.value(), HttpStatus.OK);
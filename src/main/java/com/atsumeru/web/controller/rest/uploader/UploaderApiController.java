@@ -4,12 +4,13 @@ import com.atsumeru.web.repository.BooksRepository;
 import com.atsumeru.web.util.ContentDetector;
 import com.atsumeru.web.util.StringUtils;
 import com.atsumeru.web.archive.CBZPacker;
-import com.atsumeru.web.manager.AtsumeruCacheManager;
 import com.atsumeru.web.archive.iterator.SevenZipIterator;
 import com.atsumeru.web.util.EnumUtils;
 import com.atsumeru.web.util.FileUtils;
 import com.atsumeru.web.component.Localizr;
 import com.atsumeru.web.configuration.FileWatcherConfig;
+import com.atsumeru.web.event.LibraryChangeEvent;
+import com.atsumeru.web.event.LibraryEventBus;
 import com.atsumeru.web.helper.RestHelper;
 import com.atsumeru.web.model.AtsumeruMessage;
 import com.atsumeru.web.util.Workspace;
@@ -28,6 +29,7 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.Collections;
 
 import static java.util.zip.Deflater.NO_COMPRESSION;
 
@@ -72,7 +74,7 @@ public class UploaderApiController {
                 return repackArchive(outputFile, EnumUtils.valueOf(CBZPacker.ArchiveType.class, archiveType));
             }
 
-            AtsumeruCacheManager.evictAll();
+            LibraryEventBus.publish(LibraryChangeEvent.booksChanged(Collections.singletonList(hash), false));
             FileWatcherConfig.start();
 
             return message;
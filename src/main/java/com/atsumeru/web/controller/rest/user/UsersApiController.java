@@ -3,8 +3,9 @@ package com.atsumeru.web.controller.rest.user;
 import com.atsumeru.web.configuration.ServerConfig;
 import com.atsumeru.web.enums.Genre;
 import com.atsumeru.web.enums.LibraryPresentation;
+import com.atsumeru.web.event.LibraryChangeEvent;
+import com.atsumeru.web.event.LibraryEventBus;
 import com.atsumeru.web.helper.RestHelper;
-import com.atsumeru.web.manager.AtsumeruCacheManager;
 import com.atsumeru.web.model.AtsumeruMessage;
 import com.atsumeru.web.model.GenreModel;
 import com.atsumeru.web.model.UserAccessConstants;
@@ -110,7 +111,7 @@ public class UsersApiController {
             statusCode = HttpStatus.CREATED;
         }
 
-        AtsumeruCacheManager.evictAll();
+        LibraryEventBus.publish(LibraryChangeEvent.usersChanged(Arrays.asList(userInDb.getUserName(), user.getUserName())));
 
         return RestHelper.createResponseMessage(responseMessage, statusCode.value(), HttpStatus.OK);
     }
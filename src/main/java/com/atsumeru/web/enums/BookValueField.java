@@ -0,0 +1,67 @@
+package com.atsumeru.web.enums;
+
+import com.atsumeru.web.model.book.IBaseBookItem;
+import com.atsumeru.web.util.ArrayUtils;
+import com.atsumeru.web.util.StringUtils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Multi-value book fields stored as comma-joined strings. Their values are also interned into METADATA_VALUES
+ * and linked with books through BOOK_VALUE_LINKS
+ */
+public enum BookValueField {
+    AUTHORS(IBaseBookItem::getAuthors),
+    ARTISTS(IBaseBookItem::getArtists),
+    PUBLISHERS(IBaseBookItem::getPublisher),
+    TRANSLATORS(IBaseBookItem::getTranslators),
+    GENRES(IBaseBookItem::getGenres),
+    TAGS(IBaseBookItem::getTags),
+    YEARS(IBaseBookItem::getYear),
+    COUNTRIES(IBaseBookItem::getCountry),
+    LANGUAGES(IBaseBookItem::getLanguage),
+    EVENTS(IBaseBookItem::getEvent),
+    CHARACTERS(IBaseBookItem::getCharacters),
+    SERIES(IBaseBookItem::getSeries),
+    PARODIES(IBaseBookItem::getParodies),
+    CIRCLES(IBaseBookItem::getCircles),
+    MAGAZINES(IBaseBookItem::getMagazines),
+    CATEGORIES(IBaseBookItem::getCategories);
+
+    private final Function<IBaseBookItem, String> extractor;
+
+    BookValueField(Function<IBaseBookItem, String> extractor) {
+        this.extractor = extractor;
+    }
+
+    /**
+     * Returns trimmed values of field in the same order as they are stored in book. Values that differ only in case
+     * are considered the same, so only first of them is returned
+     */
+    public List<String> getValues(IBaseBookItem item) {
+        String value = extractor.apply(item);
+        if (StringUtils.isEmpty(value)) {
+            return Collections.emptyList();
+        }
+
+        Set<String> normalized = new HashSet<>();
+        return ArrayUtils.splitString(value, ",")
+                .stream()
+                .map(String::trim)
+                .filter(StringUtils::isNotEmpty)
+                .filter(it -> normalized.add(normalize(it)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Converts value into form used for lookups and filtering
+     */
+    public static String normalize(String value) {
+        return value.trim().toLowerCase();
+    }
+}
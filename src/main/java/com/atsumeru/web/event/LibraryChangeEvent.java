@@ -0,0 +1,80 @@
+package com.atsumeru.web.event;
+
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Describes what was changed in library: books (by serie or archive hashes), users data or categories.
+ * Published through {@link LibraryEventBus} so subscribers (for example, caches) may react only on affected data
+ */
+@Getter
+public class LibraryChangeEvent {
+    private final Set<String> bookHashes = Collections.synchronizedSet(new HashSet<>());
+    private final Set<String> userNames = Collections.synchronizedSet(new HashSet<>());
+    private final Set<String> categoryIds = Collections.synchronizedSet(new HashSet<>());
+
+    // Книги добавлены, удалены или изменены их метаданные, поэтому меняется состав и порядок любых списков
+    private volatile boolean isStructureChanged;
+    // Изменилась только история чтения пользователей
+    private volatile boolean isHistoryOnly;
+    private volatile boolean isWholeLibrary;
+
+    public static LibraryChangeEvent wholeLibrary() {
+        LibraryChangeEvent event = new LibraryChangeEvent();
+        event.isWholeLibrary = true;
+        return event;
+    }
+
+    public static LibraryChangeEvent booksChanged(Collection<String> bookHashes, boolean isStructureChanged) {
+        LibraryChangeEvent event = new LibraryChangeEvent().addBookHashes(bookHashes);
+        event.isStructureChanged = isStructureChanged;
+        return event;
+    }
+
+    /**
+     * Edited metadata may move books into other filtered, searched or sorted lists that don't contain them yet,
+     * so such change is treated as structure change
+     */
+    public static LibraryChangeEvent metadataChanged(Collection<String> bookHashes) {
+        return booksChanged(bookHashes, true);
+    }
+
+    public static LibraryChangeEvent historyChanged(String userName, Collection<String> bookHashes) {
+        LibraryChangeEvent event = new LibraryChangeEvent().addBookHashes(bookHashes);
+        event.userNames.add(userName);
+        event.isHistoryOnly = true;
+        return event;
+    }
+
+    public static LibraryChangeEvent usersChanged(Collection<String> userNames) {
+        LibraryChangeEvent event = new LibraryChangeEvent();
+        event.userNames.addAll(userNames);
+        return event;
+    }
+
+    public static LibraryChangeEvent categoriesChanged(Collection<String> categoryIds, Collection<String> bookHashes) {
+        LibraryChangeEvent event = new LibraryChangeEvent().addBookHashes(bookHashes);
+        event.categoryIds.addAll(categoryIds);
+        return event;
+    }
+
+    public LibraryChangeEvent addBookHashes(Collection<String> hashes) {
+        hashes.stream()
+                .filter(hash -> hash != null)
+                .forEach(bookHashes::add);
+        return this;
+    }
+
+    public LibraryChangeEvent setStructureChanged() {
+        isStructureChanged = true;
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return !isWholeLibrary && !isStructureChanged && bookHashes.isEmpty() && userNames.isEmpty() && categoryIds.isEmpty();
+    }
+}
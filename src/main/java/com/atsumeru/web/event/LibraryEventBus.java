@@ -0,0 +1,22 @@
+package com.atsumeru.web.event;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.stereotype.Component;
+
+@Component
+public class LibraryEventBus implements ApplicationEventPublisherAware {
+    private static ApplicationEventPublisher publisher;
+
+    public static void publish(LibraryChangeEvent event) {
+        if (publisher != null && !event.isEmpty()) {
+            publisher.publishEvent(event);
+        }
+    }
+
+    @Override
+    public void setApplicationEventPublisher(@NotNull ApplicationEventPublisher applicationEventPublisher) {
+        publisher = applicationEventPublisher;
+    }
+}
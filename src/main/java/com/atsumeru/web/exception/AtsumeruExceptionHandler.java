@@ -45,6 +45,11 @@ public class AtsumeruExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(new AtsumeruException("Page not found"), HttpStatus.NOT_FOUND);
     }
 
+    @ExceptionHandler(InvalidCursorException.class)
+    protected ResponseEntity<AtsumeruException> handleInvalidCursorException() {
+        return new ResponseEntity<>(new AtsumeruException("Invalid cursor"), HttpStatus.BAD_REQUEST);
+    }
+
     @ExceptionHandler(NotAcceptableForOnlineReadingException.class)
     protected ResponseEntity<AtsumeruException> handleNotAcceptableFroOnlineReadableException() {
         return new ResponseEntity<>(new AtsumeruException("Readable is not acceptable for online reading"), HttpStatus.NOT_ACCEPTABLE);
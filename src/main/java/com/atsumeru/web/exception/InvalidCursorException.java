@@ -0,0 +1,4 @@
+package com.atsumeru.web.exception;
+
+public class InvalidCursorException extends RuntimeException {
+}
@@ -1,5 +1,6 @@
 package com.atsumeru.web.filewatch;
 
+import java.io.File;
 import java.util.Set;
 
 /**
@@ -18,4 +19,11 @@ public interface FileChangeListener {
      */
     void onChange(Set<ChangedFiles> changeSet);
 
+    /**
+     * Called when some changes in source folder were lost and folder must be fully rescanned.
+     * @param sourceFolder the source folder
+     */
+    default void onOverflow(File sourceFolder) {
+    }
+
 }
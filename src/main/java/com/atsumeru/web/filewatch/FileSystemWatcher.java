@@ -115,6 +115,16 @@ public class FileSystemWatcher {
         }
     }
 
+    /**
+     * Return whether any source folder was added.
+     * @return true if watcher has folders to monitor
+     */
+    public boolean hasSourceFolders() {
+        synchronized (this.monitor) {
+            return !this.folders.isEmpty();
+        }
+    }
+
     /**
      * Set an optional {@link FileFilter} used to limit the files that trigger a change.
      * @param triggerFilter a trigger filter or null
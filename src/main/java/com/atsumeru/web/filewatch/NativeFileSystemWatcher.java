@@ -0,0 +1,267 @@
+package com.atsumeru.web.filewatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Watches folders trees for file changes using native filesystem notifications ({@link WatchService}).
+ * Changes are collected until folders stay quiet for given period and then passed into listeners at once.
+ * Should be used only for filesystems that support native notifications, see {@link #isSupported(File)}
+ *
+ * @see FileSystemWatcher
+ */
+public class NativeFileSystemWatcher {
+    private static final Logger logger = LoggerFactory.getLogger(NativeFileSystemWatcher.class.getSimpleName());
+
+    // Для сетевых ФС локальные уведомления не приходят об изменениях, сделанных на других машинах
+    private static final List<String> NON_NOTIFYING_FILE_SYSTEMS = Arrays.asList(
+            "nfs", "cifs", "smb", "ncpfs", "afs", "9p", "fuse", "davfs", "sshfs"
+    );
+
+    private final List<FileChangeListener> listeners = new ArrayList<>();
+    private final List<File> folders = new ArrayList<>();
+
+    private final boolean daemon;
+    private final long quietPeriod;
+
+    private final Object monitor = new Object();
+
+    private WatchService watchService;
+    private Thread watchThread;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+    /**
+     * Create a new {@link NativeFileSystemWatcher} instance.
+     * @param daemon if a daemon thread used to monitor changes
+     * @param quietPeriod the amount of time without new events required to ensure that updates have completed
+     */
+    public NativeFileSystemWatcher(boolean daemon, Duration quietPeriod) {
+        Assert.notNull(quietPeriod, "QuietPeriod must not be null");
+        Assert.isTrue(quietPeriod.toMillis() > 0, "QuietPeriod must be positive");
+        this.daemon = daemon;
+        this.quietPeriod = quietPeriod.toMillis();
+    }
+
+    /**
+     * Checks whether folder located on filesystem that reports about changes natively
+     */
+    public static boolean isSupported(File folder) {
+        try {
+            String type = Files.getFileStore(folder.toPath()).type().toLowerCase(Locale.ROOT);
+            return NON_NOTIFYING_FILE_SYSTEMS.stream().noneMatch(type::startsWith);
+        } catch (IOException | RuntimeException ex) {
+            return false;
+        }
+    }
+
+    public void addListener(FileChangeListener fileChangeListener) {
+        Assert.notNull(fileChangeListener, "FileChangeListener must not be null");
+        synchronized (this.monitor) {
+            checkNotStarted();
+            this.listeners.add(fileChangeListener);
+        }
+    }
+
+    public void addSourceFolder(File folder) {
+        Assert.notNull(folder, "Folder must not be null");
+        Assert.isTrue(!folder.isFile(), "Folder '" + folder + "' must not be a file");
+        synchronized (this.monitor) {
+            checkNotStarted();
+            this.folders.add(folder.getAbsoluteFile());
+        }
+    }
+
+    public boolean hasSourceFolders() {
+        return !folders.isEmpty();
+    }
+
+    private void checkNotStarted() {
+        Assert.state(this.watchThread == null, "NativeFileSystemWatcher already started");
+    }
+
+    /**
+     * Registers folders trees and starts monitoring for changes
+     */
+    public void start() throws IOException {
+        synchronized (this.monitor) {
+            if (this.watchThread == null) {
+                this.watchService = FileSystems.getDefault().newWatchService();
+                for (File folder : this.folders) {
+                    registerTree(folder.toPath(), null);
+                }
+
+                this.watchThread = new Thread(this::watch);
+                this.watchThread.setName("Native File Watcher");
+                this.watchThread.setDaemon(this.daemon);
+                this.watchThread.start();
+            }
+        }
+    }
+
+    /**
+     * Stop monitoring the source folders.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this.monitor) {
+            thread = this.watchThread;
+            this.watchThread = null;
+            if (this.watchService != null) {
+                try {
+                    this.watchService.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        if (thread != null && Thread.currentThread() != thread) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void watch() {
+        Map<Path, ChangedFile.Type> changes = new LinkedHashMap<>();
+        Set<File> overflowedFolders = new LinkedHashSet<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = changes.isEmpty() && overflowedFolders.isEmpty()
+                        ? this.watchService.take()
+                        : this.watchService.poll(this.quietPeriod, TimeUnit.MILLISECONDS);
+
+                // Изменений не было в течение периода тишины, можно сообщать о них
+                if (key == null) {
+                    fireListeners(changes, overflowedFolders);
+                    changes.clear();
+                    overflowedFolders.clear();
+                    continue;
+                }
+
+                Path dir = this.watchedDirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (dir == null) {
+                        continue;
+                    }
+
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        File sourceFolder = getSourceFolder(dir);
+                        if (sourceFolder != null) {
+                            logger.warn("File watcher events overflow for folder: " + sourceFolder);
+                            overflowedFolders.add(sourceFolder);
+                            registerTree(sourceFolder.toPath(), null);
+                        }
+                        continue;
+                    }
+
+                    Path path = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                            // Файлы могли появиться в директории до ее регистрации
+                            registerTree(path, changes);
+                        } else {
+                            mergeChange(changes, path, ChangedFile.Type.ADD);
+                        }
+                    } else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+                        if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                            mergeChange(changes, path, ChangedFile.Type.MODIFY);
+                        }
+                    } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        mergeChange(changes, path, ChangedFile.Type.DELETE);
+                    }
+                }
+
+                if (!key.reset()) {
+                    this.watchedDirs.remove(key);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignored) {
+        }
+    }
+
+    private void registerTree(Path root, Map<Path, ChangedFile.Type> changes) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    watchedDirs.put(key, dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (changes != null && attrs.isRegularFile()) {
+                        mergeChange(changes, file, ChangedFile.Type.ADD);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            logger.error("Unable to register folder for watching: " + root + ". Reason: " + ex.getMessage());
+        }
+    }
+
+    private static void mergeChange(Map<Path, ChangedFile.Type> changes, Path path, ChangedFile.Type type) {
+        ChangedFile.Type previous = changes.get(path);
+        if (previous == ChangedFile.Type.ADD && type == ChangedFile.Type.DELETE) {
+            changes.remove(path);
+        } else if (previous == ChangedFile.Type.ADD) {
+            changes.put(path, ChangedFile.Type.ADD);
+        } else if (previous == ChangedFile.Type.DELETE && type == ChangedFile.Type.ADD) {
+            changes.put(path, ChangedFile.Type.MODIFY);
+        } else {
+            changes.put(path, type);
+        }
+    }
+
+    private File getSourceFolder(Path path) {
+        return this.folders.stream()
+                .filter(folder -> path.startsWith(folder.toPath()))
+                .max(Comparator.comparingInt(folder -> folder.getPath().length()))
+                .orElse(null);
+    }
+
+    private void fireListeners(Map<Path, ChangedFile.Type> changes, Set<File> overflowedFolders) {
+        Map<File, Set<ChangedFile>> changedFilesByFolder = new LinkedHashMap<>();
+        changes.forEach((path, type) -> Optional.ofNullable(getSourceFolder(path))
+                .ifPresent(folder -> changedFilesByFolder.computeIfAbsent(folder, key -> new LinkedHashSet<>())
+                        .add(new ChangedFile(folder, path.toFile(), type))));
+
+        Set<ChangedFiles> changeSet = changedFilesByFolder.entrySet()
+                .stream()
+                .map(entry -> new ChangedFiles(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        for (FileChangeListener listener : this.listeners) {
+            try {
+                overflowedFolders.forEach(listener::onOverflow);
+                if (!changeSet.isEmpty()) {
+                    listener.onChange(Collections.unmodifiableSet(changeSet));
+                }
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
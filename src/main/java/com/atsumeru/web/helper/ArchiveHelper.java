@@ -4,16 +4,20 @@ import com.atsumeru.web.model.book.BookArchive;
 import com.atsumeru.web.model.book.IBaseBookItem;
 import com.atsumeru.web.repository.BooksRepository;
 import com.atsumeru.web.util.*;
-import com.atsumeru.web.archive.ArchiveReader;
-import com.atsumeru.web.archive.iterator.IArchiveIterator;
+import com.atsumeru.web.archive.ArchiveIteratorPool;
+import com.atsumeru.web.archive.ZipPageTable;
+import com.atsumeru.web.archive.iterator.IReadableArchive;
 import com.atsumeru.web.enums.BookType;
 import com.atsumeru.web.exception.ArchiveReadingException;
 import com.atsumeru.web.exception.NoReadableFoundException;
 import com.atsumeru.web.exception.PageNotFoundException;
+import com.atsumeru.web.manager.PagePrefetcher;
+import com.atsumeru.web.renderer.AbstractRenderer;
 import com.atsumeru.web.renderer.RendererFactory;
 import lombok.SneakyThrows;
 import org.apache.catalina.connector.ClientAbortException;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.tika.io.TikaInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,22 +25,33 @@ import org.springframework.lang.Nullable;
 
 import javax.imageio.ImageIO;
 import javax.servlet.http.HttpServletResponse;
-import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class ArchiveHelper {
     private static final Logger logger = LoggerFactory.getLogger(ArchiveHelper.class.getSimpleName());
 
     public static void saveBookPage(File outputFile, String archiveHash, String chapterHash, int page) {
         try (OutputStream out = new FileOutputStream(outputFile)) {
-            getBookPage(null, out, archiveHash, chapterHash, page, false, 1);
+            writeBookPage(out, archiveHash, chapterHash, page);
         } catch (Exception ex) {
             outputFile.delete();
         }
     }
 
+    /**
+     * Writes original page bytes into output stream
+     */
+    public static void writeBookPage(OutputStream outputStream, String archiveHash, @Nullable String chapterHash, int page) throws InterruptedException {
+        getBookPage(null, outputStream, archiveHash, chapterHash, page, false, 1);
+    }
+
     public static void getBookPage(HttpServletResponse response, String archiveHash, int page, boolean reDecodeImage) {
         getBookPage(response, archiveHash, null, page, reDecodeImage);
     }
@@ -46,6 +61,20 @@ public class ArchiveHelper {
         getBookPage(response, response.getOutputStream(), archiveHash, chapterHash, page, convertImage, 1);
     }
 
+    /**
+     * Writes page resized to given bounds and/or transcoded into given format. Without size and format original
+     * page is written
+     */
+    @SneakyThrows
+    public static void getBookPage(HttpServletResponse response, String archiveHash, String chapterHash, int page, boolean convertImage,
+                                   int width, int height, @Nullable String format) {
+        if (PageDerivativeHelper.isDerivativeRequested(width, height, format)) {
+            PageDerivativeHelper.writePage(response, response.getOutputStream(), archiveHash, chapterHash, page, width, height, format);
+        } else {
+            getBookPage(response, archiveHash, chapterHash, page, convertImage);
+        }
+    }
+
     private static void getBookPage(@Nullable HttpServletResponse response, OutputStream outputStream, @Nullable String archiveHash,
                                     @Nullable String chapterHash, int page, boolean convertImage, int tryCount) throws InterruptedException {
         if (StringUtils.isEmpty(archiveHash) && StringUtils.isNotEmpty(chapterHash) || BooksRepository.isArchiveHash(archiveHash)) {
@@ -59,21 +88,53 @@ public class ArchiveHelper {
                 BookArchive archive = (BookArchive) archiveItem;
                 if (archive.isBook()) {
                     BookType bookType = ContentDetector.detectBookType(Paths.get(archive.getFolder()));
-                    RendererFactory.create(bookType, archive.getFolder()).renderPage(response, outputStream, page);
+                    AbstractRenderer renderer = RendererFactory.create(bookType, archive.getFolder());
+                    if (response != null) {
+                        PagePrefetcher.onPageRequested(HttpCacheHelper.getCurrentUserName(), archive.getContentId(), page, renderer::getPagesCount,
+                                nextPage -> renderer.renderPageIntoCache(archive.getContentId(), nextPage));
+                    }
+
+                    String eTag = HttpCacheHelper.createETag(archive.getContentId(), page, renderer.getCacheVariant());
+                    if (!HttpCacheHelper.checkNotModified(response, eTag, new File(archive.getFolder()).lastModified(), HttpCacheHelper.PAGES_CACHE_CONTROL)) {
+                        renderer.renderPage(response, outputStream, archive.getContentId(), page);
+                    }
                     return;
                 }
             }
 
-            // Открытие архива для чтения
-            try (IArchiveIterator archiveIterator = ArchiveReader.getArchiveIterator(archiveItem.getFolder())) {
+            try {
                 List<String> pages = StringUtils.isNotEmpty(chapterHash)
                         ? BooksRepository.getChapter(chapterHash).getPageEntryNames()
                         : archiveItem.getPageEntryNames();
+                String bookHash = StringUtils.isNotEmpty(chapterHash) ? chapterHash : archiveItem.getContentId();
+
+                // Упреждающая распаковка нужна только архивам без таблицы смещений (RAR, 7z и т.п.)
+                if (response != null && archiveItem instanceof BookArchive && StringUtils.isEmpty(((BookArchive) archiveItem).getPageOffsets())) {
+                    PagePrefetcher.onPageRequested(HttpCacheHelper.getCurrentUserName(), bookHash, page, pages::size,
+                            nextPage -> prefetchPage(archiveItem, chapterHash, bookHash, pages, nextPage));
+                }
 
-                if (!writePageIntoResponse(response, outputStream, archiveIterator, pages, page, convertImage, time)) {
-                    throw new PageNotFoundException();
+                // Чтение страницы напрямую из файла по таблице смещений, без открытия архива
+                if (!convertImage && archiveItem instanceof BookArchive
+                        && writeIndexedPageIntoResponse(response, outputStream, (BookArchive) archiveItem, pages, page, time)) {
+                    return;
+                }
+
+                if (isPageNotModified(response, archiveItem, pages, page, convertImage)) {
+                    return;
+                }
+
+                if (!convertImage && writePrefetchedPageIntoResponse(response, outputStream, archiveItem, bookHash, page, time)) {
+                    return;
+                }
+
+                // Открытие архива для чтения
+                try (IReadableArchive archiveIterator = ArchiveIteratorPool.acquire(archiveItem.getFolder())) {
+                    if (!writePageIntoResponse(response, outputStream, archiveIterator, pages, page, convertImage, time)) {
+                        throw new PageNotFoundException();
+                    }
+                    return;
                 }
-                return;
             } catch (Exception ex) {
                 if ((ex.getMessage().equals("Stream closed") || ex instanceof ClientAbortException) && tryCount < 5) {
                     Thread.sleep(1000);
@@ -89,13 +150,110 @@ public class ArchiveHelper {
         throw new NoReadableFoundException();
     }
 
-    private static IBaseBookItem findArchive(@Nullable String archiveHash, @Nullable String chapterHash) {
+    static IBaseBookItem findArchive(@Nullable String archiveHash, @Nullable String chapterHash) {
         return BooksRepository.getBookDetails(
                 NotEmptyString.ofNullable(archiveHash)
                         .orElseGet(() -> BooksRepository.getChapter(chapterHash).getArchiveId()));
     }
 
-    private static boolean writePageIntoResponse(@Nullable HttpServletResponse response, OutputStream outputStream, IArchiveIterator archiveIterator,
+    private static void prefetchPage(IBaseBookItem archiveItem, @Nullable String chapterHash, String bookHash, List<String> pages, int page)
+            throws InterruptedException {
+        // Версия файла берется до чтения, чтобы страница замененного во время чтения архива не попала в кэш под новой версией
+        String variant = createPrefetchVariant(archiveItem);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writeBookPage(outputStream, archiveItem.getContentId(), chapterHash, page);
+        PagePrefetcher.put(bookHash, variant, page, new PagePrefetcher.PrefetchedPage(outputStream.toByteArray(),
+                FilesHelper.safeProbeContentType(pages.get(page - 1))));
+    }
+
+    private static boolean writePrefetchedPageIntoResponse(@Nullable HttpServletResponse response, OutputStream outputStream,
+                                                           IBaseBookItem archiveItem, String bookHash, int page, long time) throws IOException {
+        PagePrefetcher.PrefetchedPage prefetchedPage = PagePrefetcher.get(bookHash, createPrefetchVariant(archiveItem), page);
+        if (prefetchedPage == null) {
+            return false;
+        }
+
+        setResponseContentTypeAndLength(response, prefetchedPage.getContentType(), prefetchedPage.getData().length);
+        outputStream.write(prefetchedPage.getData());
+        logger.info("Prefetched page writing time: " + (System.currentTimeMillis() - time) + "ms");
+        return true;
+    }
+
+    /**
+     * Variant of prefetched page. Depends on archive size and modification time, like ETag of page
+     */
+    private static String createPrefetchVariant(IBaseBookItem archiveItem) {
+        File archiveFile = new File(archiveItem.getFolder());
+        return String.format("%d_%x", archiveFile.length(), archiveFile.lastModified());
+    }
+
+    /**
+     * Checks client's copy of page read from archive. ETag depends on archive file, because entry size and CRC
+     * are unknown until archive is opened
+     */
+    private static boolean isPageNotModified(@Nullable HttpServletResponse response, IBaseBookItem archiveItem, List<String> pages,
+                                             int page, boolean convertImage) {
+        if (response == null || ArrayUtils.isEmpty(pages) || pages.size() < page) {
+            return false;
+        }
+
+        File archiveFile = new File(archiveItem.getFolder());
+        String eTag = HttpCacheHelper.createETag(archiveItem.getContentId(), pages.get(page - 1), archiveFile.length(),
+                archiveFile.lastModified(), convertImage);
+        return HttpCacheHelper.checkNotModified(response, eTag, archiveFile.lastModified(), HttpCacheHelper.PAGES_CACHE_CONTROL);
+    }
+
+    /**
+     * Writes page directly from ZIP file using page offsets recorded on import. STORED entries are transferred
+     * from file channel as is (with byte ranges support), DEFLATED entries are inflated without opening archive
+     *
+     * @return false if archive has no valid offsets table for page and it must be read in usual way
+     */
+    private static boolean writeIndexedPageIntoResponse(@Nullable HttpServletResponse response, OutputStream outputStream, BookArchive archive,
+                                                        List<String> pages, int page, long time) throws IOException {
+        if (StringUtils.isEmpty(archive.getPageOffsets()) || ArrayUtils.isEmpty(pages) || pages.size() < page) {
+            return false;
+        }
+
+        String entryName = pages.get(page - 1);
+        ZipPageTable.PageEntry entry = ZipPageTable.find(archive.getPageOffsets(), archive.getFolder(), archive.getPageEntryNames().indexOf(entryName));
+        if (entry == null) {
+            return false;
+        }
+
+        long lastModified = new File(archive.getFolder()).lastModified();
+        String eTag = HttpCacheHelper.createETag(archive.getContentId(), entryName, entry.getSize(), entry.getCrc());
+        if (HttpCacheHelper.checkNotModified(response, eTag, lastModified, HttpCacheHelper.PAGES_CACHE_CONTROL)) {
+            return true;
+        }
+
+        String contentType = FilesHelper.safeProbeContentType(entryName);
+        if (entry.isStored()) {
+            HttpCacheHelper.writeFileRegion(response, outputStream, Paths.get(archive.getFolder()), entry.getDataOffset(),
+                    entry.getCompressedSize(), contentType, eTag, lastModified);
+        } else {
+            setResponseContentTypeAndLength(response, contentType, (int) entry.getSize());
+
+            Inflater inflater = new Inflater(true);
+            try (FileChannel channel = FileChannel.open(Paths.get(archive.getFolder()), StandardOpenOption.READ)) {
+                // Inflater в режиме nowrap требует дополнительный пустой байт в конце данных
+                InputStream compressedStream = new SequenceInputStream(
+                        new BoundedInputStream(Channels.newInputStream(channel.position(entry.getDataOffset())), entry.getCompressedSize()),
+                        new ByteArrayInputStream(new byte[1])
+                );
+                IOUtils.copyLarge(new InflaterInputStream(compressedStream, inflater), outputStream, 0, entry.getSize());
+            } finally {
+                inflater.end();
+            }
+        }
+
+        if (response != null) {
+            logger.info("Image writing time from page offsets: " + (System.currentTimeMillis() - time) + "ms. Image length: " + entry.getSize() + " bytes");
+        }
+        return true;
+    }
+
+    private static boolean writePageIntoResponse(@Nullable HttpServletResponse response, OutputStream outputStream, IReadableArchive archiveIterator,
                                                  List<String> pages, int page, boolean convertImage, long time) throws IOException {
         if (ArrayUtils.isNotEmpty(pages) && pages.size() >= page) {
             return writeEntryStreamIntoResponseOrOutputStream(
@@ -120,11 +278,7 @@ public class ArchiveHelper {
             if (convertImage) {
                 tikaInputStream = ContentDetector.createTikaInputStream(entryInputStream);
                 if (ContentDetector.isWebP(tikaInputStream)) {
-                    BufferedImage bufferedImage = ImageIO.read(tikaInputStream);
-                    ByteArrayOutputStream os = new ByteArrayOutputStream();
-                    ImageIO.write(bufferedImage, "jpeg", os);
-                    setResponseContentTypeAndLength(response, "image/jpeg", os.size());
-                    IOUtils.copy(entryInputStream = new ByteArrayInputStream(os.toByteArray()), outputStream);
+                    contentLength = JpegEncoder.write(response, outputStream, ImageIO.read(tikaInputStream));
                 } else {
                     IOUtils.copy(tikaInputStream, outputStream);
                 }
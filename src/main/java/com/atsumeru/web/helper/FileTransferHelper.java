@@ -0,0 +1,78 @@
+package com.atsumeru.web.helper;
+
+import org.springframework.lang.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes file regions into response. When servlet container supports sendfile (Tomcat NIO/NIO2/APR connector
+ * without TLS) region is handed to container and sent by kernel without copying into user space. Otherwise region
+ * is copied through large pooled buffers
+ */
+public class FileTransferHelper {
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // Как и в DefaultServlet Tomcat: для маленьких файлов sendfile не даёт выигрыша
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 32;
+    private static final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    /**
+     * Writes file region using sendfile if possible. Response headers (including Content-Length) must be set
+     * before call and nothing must be written into response after it
+     */
+    public static void write(@Nullable HttpServletRequest request, OutputStream outputStream, Path file, long position, long count) throws IOException {
+        if (!sendFile(request, file, position, count)) {
+            copy(outputStream, file, position, count);
+        }
+    }
+
+    /**
+     * Copies file region into output stream through pooled buffer
+     */
+    public static void copy(OutputStream outputStream, Path file, long position, long count) throws IOException {
+        byte[] buffer = acquireBuffer();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "r")) {
+            randomAccessFile.seek(position);
+            long remaining = count;
+            while (remaining > 0) {
+                int read = randomAccessFile.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of file " + file);
+                }
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            buffers.offer(buffer);
+        }
+    }
+
+    private static boolean sendFile(@Nullable HttpServletRequest request, Path file, long position, long count) {
+        if (request == null || count < SENDFILE_MIN_SIZE || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            return false;
+        }
+
+        request.setAttribute(SENDFILE_FILENAME_ATTR, file.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START_ATTR, position);
+        request.setAttribute(SENDFILE_END_ATTR, position + count);
+        return true;
+    }
+
+    private static byte[] acquireBuffer() {
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+}
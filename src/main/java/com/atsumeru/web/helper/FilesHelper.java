@@ -17,12 +17,11 @@ import com.atsumeru.web.service.UserDatabaseDetailsService;
 import com.atsumeru.web.util.ContentDetector;
 import com.atsumeru.web.util.ArrayUtils;
 import com.atsumeru.web.util.FileUtils;
-import org.apache.commons.io.IOUtils;
+import org.springframework.http.MediaType;
 import org.springframework.security.core.Authentication;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -79,6 +78,11 @@ public class FilesHelper {
 
     public static byte[] getCover(HttpServletResponse response, String imageHash, ImageCache.ImageCacheType cacheType, boolean convertImage) {
         if (cacheType != ImageCache.ImageCacheType.ORIGINAL) {
+            File image = ImageCache.getImage(imageHash, cacheType);
+            String eTag = HttpCacheHelper.createETag(imageHash, cacheType, image.length(), image.lastModified());
+            if (image.isFile() && HttpCacheHelper.checkNotModified(response, eTag, image.lastModified(), HttpCacheHelper.REVALIDATE_CACHE_CONTROL)) {
+                return null;
+            }
             return ImageCache.getImageBytesFromCache(imageHash, cacheType);
         } else {
             getOriginalImageFromArchive(response, imageHash, convertImage);
@@ -94,6 +98,11 @@ public class FilesHelper {
 
                 File externalCover = ReadableContent.getSerieExternalCover(book.getFolder());
                 if (externalCover != null) {
+                    String eTag = HttpCacheHelper.createETag(imageHash, externalCover.getAbsolutePath(), externalCover.length(),
+                            externalCover.lastModified(), convertImage);
+                    if (HttpCacheHelper.checkNotModified(response, eTag, externalCover.lastModified(), HttpCacheHelper.REVALIDATE_CACHE_CONTROL)) {
+                        return;
+                    }
                     try {
                         ArchiveHelper.writeEntryStreamIntoResponseOrOutputStream(response, response.getOutputStream(),
                                 Files.newInputStream(externalCover.toPath()), externalCover.length(),
@@ -140,12 +149,17 @@ public class FilesHelper {
         return FileUtils.isFileExist(ImageCache.getImage(imageHash, Constants.PNG, ImageCache.ImageCacheType.THUMBNAIL));
     }
 
-    private static void writeResponseStream(HttpServletResponse response, File file) throws FileNotFoundException {
-        try (FileInputStream fis = new FileInputStream(file)) {
-            response.setContentType(Files.probeContentType(file.toPath()));
-            response.setContentLength((int) file.length());
+    private static void writeResponseStream(HttpServletResponse response, String archiveHash, File file) throws FileNotFoundException {
+        long lastModified = file.lastModified();
+        String eTag = HttpCacheHelper.createETag(archiveHash, file.length(), lastModified);
+        if (HttpCacheHelper.checkNotModified(response, eTag, lastModified, HttpCacheHelper.REVALIDATE_CACHE_CONTROL)) {
+            return;
+        }
+
+        try {
+            String contentType = Optional.ofNullable(Files.probeContentType(file.toPath())).orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE);
             response.setHeader("Content-Disposition", "attachment; filename=" + FileUtils.getFileNameWithExt(file.getPath(), true));
-            IOUtils.copy(fis, response.getOutputStream());
+            HttpCacheHelper.writeFileRegion(response, response.getOutputStream(), file.toPath(), 0, file.length(), contentType, eTag, lastModified);
         } catch (IOException ex) {
             throw new FileNotFoundException(ex.getMessage());
         }
@@ -161,7 +175,7 @@ public class FilesHelper {
             }
 
             if (!isNeedCheckDownloadAuthority(archiveFile) || UserDatabaseDetailsService.isUserCanDownloadFiles(authentication)) {
-                writeResponseStream(response, archiveFile);
+                writeResponseStream(response, archiveHash, archiveFile);
             } else {
                 throw new DownloadsNotAllowedException();
             }
@@ -0,0 +1,200 @@
+package com.atsumeru.web.helper;
+
+import com.atsumeru.web.util.StringUtils;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.lang.Nullable;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Conditional requests (ETag, Last-Modified, 304) and byte ranges (206) support for pages, covers and downloads
+ */
+public class HttpCacheHelper {
+    /**
+     * Pages content changes only with archive itself, so client may reuse them for some time without revalidation
+     */
+    public static final CacheControl PAGES_CACHE_CONTROL = CacheControl.maxAge(1, TimeUnit.HOURS).cachePrivate();
+
+    /**
+     * Covers may be regenerated and files replaced at any moment, so client must revalidate them on every use
+     */
+    public static final CacheControl REVALIDATE_CACHE_CONTROL = CacheControl.noCache().cachePrivate();
+
+    private static final String BYTES_UNIT = "bytes";
+    private static final String MULTIPART_BYTE_RANGES = "multipart/byteranges; boundary=";
+
+    /**
+     * Creates strong ETag from parts that identify exact content of response
+     */
+    public static String createETag(Object... parts) {
+        String value = Arrays.stream(parts)
+                .map(String::valueOf)
+                .collect(Collectors.joining(":"));
+        return "\"" + StringUtils.md5Hex(value) + "\"";
+    }
+
+    /**
+     * Sets ETag, Last-Modified and Cache-Control headers and checks If-None-Match/If-Modified-Since request headers
+     *
+     * @return true if client has actual content and response status already set to 304, so body must not be written
+     */
+    public static boolean checkNotModified(@Nullable HttpServletResponse response, String eTag, long lastModified, CacheControl cacheControl) {
+        HttpServletRequest request = getCurrentRequest();
+        if (response == null || request == null) {
+            return false;
+        }
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        return new ServletWebRequest(request, response).checkNotModified(eTag, lastModified);
+    }
+
+    /**
+     * Writes region of file into response with respect to Range and If-Range request headers. Whole region is
+     * written with 200 status, one range with 206 status and several ranges as multipart/byteranges with 206 status
+     */
+    public static void writeFileRegion(@Nullable HttpServletResponse response, OutputStream outputStream, Path file, long offset,
+                                       long length, String contentType, String eTag, long lastModified) throws IOException {
+        if (response != null) {
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+        }
+
+        HttpServletRequest request = getCurrentRequest();
+        if (response == null || request == null || !isRangeRequested(request, eTag, lastModified)) {
+            setContentTypeAndLength(response, contentType, length);
+            FileTransferHelper.write(response != null ? request : null, outputStream, file, offset, length);
+            return;
+        }
+
+        List<long[]> ranges = parseRanges(request.getHeader(HttpHeaders.RANGE), length);
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + length);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, createContentRange(range, length));
+            setContentTypeAndLength(response, contentType, range[1] - range[0] + 1);
+            FileTransferHelper.write(request, outputStream, file, offset + range[0], range[1] - range[0] + 1);
+        } else {
+            writeMultipartRanges(response, outputStream, file, offset, length, contentType, ranges);
+        }
+    }
+
+    @Nullable
+    public static HttpServletRequest getCurrentRequest() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes instanceof ServletRequestAttributes
+                ? ((ServletRequestAttributes) attributes).getRequest()
+                : null;
+    }
+
+    @Nullable
+    public static String getCurrentUserName() {
+        HttpServletRequest request = getCurrentRequest();
+        Principal principal = request != null ? request.getUserPrincipal() : null;
+        return principal != null ? principal.getName() : null;
+    }
+
+    private static void writeMultipartRanges(HttpServletResponse response, OutputStream outputStream, Path file, long offset,
+                                             long length, String contentType, List<long[]> ranges) throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + createContentRange(range, length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range[1] - range[0] + 1;
+        }
+        byte[] closingBoundary = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closingBoundary.length;
+
+        setContentTypeAndLength(response, MULTIPART_BYTE_RANGES + boundary, contentLength);
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            outputStream.write(partHeaders.get(i));
+            FileTransferHelper.copy(outputStream, file, offset + range[0], range[1] - range[0] + 1);
+        }
+        outputStream.write(closingBoundary);
+    }
+
+    private static boolean isRangeRequested(HttpServletRequest request, String eTag, long lastModified) {
+        if (!HttpMethod.GET.matches(request.getMethod()) || StringUtils.isEmpty(request.getHeader(HttpHeaders.RANGE))) {
+            return false;
+        }
+
+        // Диапазон применяется только если у клиента та же версия файла, иначе отдаётся файл целиком
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (StringUtils.isEmpty(ifRange)) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(eTag);
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return list of [start, end] inclusive ranges or null if ranges are malformed or not satisfiable
+     */
+    @Nullable
+    private static List<long[]> parseRanges(String rangeHeader, long length) {
+        try {
+            List<long[]> ranges = new ArrayList<>();
+            long total = 0;
+            for (HttpRange httpRange : HttpRange.parseRanges(rangeHeader)) {
+                long start = httpRange.getRangeStart(length);
+                long end = httpRange.getRangeEnd(length);
+                // Диапазоны за пределами файла пропускаются, 416 отдаётся только если не осталось ни одного
+                if (start < length && start <= end) {
+                    ranges.add(new long[]{start, end});
+                    total += end - start + 1;
+                }
+            }
+            // Защита от запросов, в которых суммарный размер диапазонов больше самого файла
+            return !ranges.isEmpty() && total <= length ? ranges : null;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static String createContentRange(long[] range, long length) {
+        return BYTES_UNIT + " " + range[0] + "-" + range[1] + "/" + length;
+    }
+
+    private static void setContentTypeAndLength(@Nullable HttpServletResponse response, String contentType, long contentLength) {
+        if (response != null) {
+            response.setContentType(contentType);
+            response.setContentLengthLong(contentLength);
+        }
+    }
+}
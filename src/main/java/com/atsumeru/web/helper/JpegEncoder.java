@@ -0,0 +1,155 @@
+package com.atsumeru.web.helper;
+
+import com.atsumeru.web.manager.Settings;
+import com.atsumeru.web.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Encodes images into JPEG exactly once, into small pool of reusable buffers, so encoded length is known before writing
+ * into response. Writer and quality are configured with {@link Settings#getJpegEncoder()} and
+ * {@link Settings#getJpegQuality()}
+ */
+public class JpegEncoder {
+    private static final Logger logger = LoggerFactory.getLogger(JpegEncoder.class.getSimpleName());
+
+    public static final String MIME_TYPE = "image/jpeg";
+
+    private static final String FORMAT_NAME = "jpeg";
+    private static final String PREFERRED_ENCODER = "turbo";
+    private static final int INITIAL_BUFFER_SIZE = 512 * 1024;
+    // Буферы, выросшие сверх начального размера, не возвращаются в пул, чтобы не удерживать память
+    private static final int MAX_RETAINED_BUFFER_SIZE = INITIAL_BUFFER_SIZE;
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private static final BlockingQueue<ByteArrayOutputStream> buffers = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    private static volatile String selectedEncoder;
+    private static volatile ImageWriterSpi writerSpi;
+
+    private JpegEncoder() {
+    }
+
+    /**
+     * Encodes image and writes it into output stream, setting content type and length of response if present
+     *
+     * @return length of encoded image
+     */
+    public static int write(@Nullable HttpServletResponse response, OutputStream outputStream, BufferedImage image) throws IOException {
+        ByteArrayOutputStream buffer = acquireBuffer();
+        try {
+            encode(image, buffer);
+            if (response != null) {
+                response.setContentType(MIME_TYPE);
+                response.setContentLength(buffer.size());
+            }
+            buffer.writeTo(outputStream);
+            return buffer.size();
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private static void encode(BufferedImage image, ByteArrayOutputStream buffer) throws IOException {
+        ImageWriter writer = getWriterSpi().createWriterInstance();
+        try (ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(buffer)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Settings.getJpegQuality() / 100f);
+
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(removeAlpha(image), null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static ByteArrayOutputStream acquireBuffer() {
+        ByteArrayOutputStream buffer = buffers.poll();
+        return buffer != null ? buffer : new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+    }
+
+    private static void releaseBuffer(ByteArrayOutputStream buffer) {
+        // reset() не уменьшает внутренний массив, поэтому размер буфера равен наибольшему закодированному изображению
+        if (buffer.size() <= MAX_RETAINED_BUFFER_SIZE) {
+            buffer.reset();
+            buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * JPEG doesn't support transparency, so transparent images (e.g. WebP) are drawn on white background
+     */
+    private static BufferedImage removeAlpha(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return image;
+        }
+
+        BufferedImage rgbImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgbImage.createGraphics();
+        graphics.drawImage(image, 0, 0, Color.WHITE, null);
+        graphics.dispose();
+        return rgbImage;
+    }
+
+    private static ImageWriterSpi getWriterSpi() throws IOException {
+        String encoder = Settings.getJpegEncoder();
+        if (writerSpi == null || !StringUtils.equals(encoder, selectedEncoder)) {
+            synchronized (JpegEncoder.class) {
+                if (writerSpi == null || !StringUtils.equals(encoder, selectedEncoder)) {
+                    writerSpi = findWriterSpi(encoder);
+                    selectedEncoder = encoder;
+                    logger.info("Using JPEG encoder: " + writerSpi.getClass().getName());
+                }
+            }
+        }
+        return writerSpi;
+    }
+
+    /**
+     * Finds writer which class name contains configured encoder name. Without configured encoder libjpeg-turbo
+     * based writer is preferred if its plugin is in classpath
+     */
+    private static ImageWriterSpi findWriterSpi(String encoder) throws IOException {
+        List<ImageWriterSpi> writers = new ArrayList<>();
+        Iterator<ImageWriter> iterator = ImageIO.getImageWritersByFormatName(FORMAT_NAME);
+        while (iterator.hasNext()) {
+            ImageWriter writer = iterator.next();
+            if (writer.getOriginatingProvider() != null) {
+                writers.add(writer.getOriginatingProvider());
+            }
+            writer.dispose();
+        }
+
+        if (writers.isEmpty()) {
+            throw new IOException("No JPEG encoders found");
+        }
+
+        String name = StringUtils.isNotEmpty(encoder) ? encoder : PREFERRED_ENCODER;
+        return writers.stream()
+                .filter(spi -> StringUtils.containsIgnoreCase(spi.getClass().getName(), name))
+                .findFirst()
+                .orElse(writers.get(0));
+    }
+}
@@ -6,6 +6,7 @@ import com.j256.ormlite.dao.DaoManager;
 import com.j256.ormlite.dao.GenericRawResults;
 import com.j256.ormlite.stmt.QueryBuilder;
 import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
 import com.j256.ormlite.table.DatabaseTableConfig;
 import com.j256.ormlite.table.TableInfo;
 import com.j256.ormlite.table.TableUtils;
@@ -98,17 +99,21 @@ public class OrmLiteUpgradeTable {
     }
 
     private static boolean isTableExists(final ConnectionSource connectionSource, final String tableName) throws SQLException {
-        boolean alreadyExists = connectionSource.getReadOnlyConnection(tableName).isTableExists(tableName);
+        DatabaseConnection connection = connectionSource.getReadOnlyConnection(tableName);
+        try {
+            boolean alreadyExists = connection.isTableExists(tableName);
 
-        if (!alreadyExists) {
-            alreadyExists = connectionSource.getReadOnlyConnection(tableName).isTableExists(tableName.toUpperCase());
-        }
-        if (!alreadyExists) {
-            alreadyExists = connectionSource.getReadOnlyConnection(tableName).isTableExists(tableName.toLowerCase());
-        }
-
-        return (alreadyExists);
+            if (!alreadyExists) {
+                alreadyExists = connection.isTableExists(tableName.toUpperCase());
+            }
+            if (!alreadyExists) {
+                alreadyExists = connection.isTableExists(tableName.toLowerCase());
+            }
 
+            return (alreadyExists);
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
     }
 
     private static void log(String message) {
@@ -0,0 +1,199 @@
+package com.atsumeru.web.helper;
+
+import com.atsumeru.web.exception.NoReadableFoundException;
+import com.atsumeru.web.exception.PageNotFoundException;
+import com.atsumeru.web.manager.PagePrefetcher;
+import com.atsumeru.web.manager.PagesDiskCache;
+import com.atsumeru.web.manager.Settings;
+import com.atsumeru.web.model.book.IBaseBookItem;
+import com.atsumeru.web.repository.BooksRepository;
+import com.atsumeru.web.util.StringUtils;
+import lombok.Getter;
+import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.resizers.configurations.ScalingMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Optional;
+
+/**
+ * Resized and transcoded page derivatives. Derivatives are stored in {@link PagesDiskCache} under hash of archive
+ * (or chapter) with variant that includes target size, format, quality and archive modification time
+ */
+public class PageDerivativeHelper {
+    private static final Logger logger = LoggerFactory.getLogger(PageDerivativeHelper.class.getSimpleName());
+
+    public static boolean isDerivativeRequested(int width, int height, @Nullable String format) {
+        return width > 0 || height > 0 || StringUtils.isNotEmpty(format);
+    }
+
+    public static void writePage(HttpServletResponse response, OutputStream outputStream, @Nullable String archiveHash, @Nullable String chapterHash,
+                                 int page, int width, int height, @Nullable String format) throws IOException {
+        long time = System.currentTimeMillis();
+        IBaseBookItem archiveItem = ArchiveHelper.findArchive(archiveHash, chapterHash);
+        if (archiveItem == null) {
+            throw new NoReadableFoundException();
+        }
+
+        Format outputFormat = Format.of(format);
+        long lastModified = new File(archiveItem.getFolder()).lastModified();
+        String cacheHash = StringUtils.isNotEmpty(chapterHash) ? chapterHash : archiveItem.getContentId();
+        String variant = String.format("w%dh%d_q%d_%x", Math.max(0, width), Math.max(0, height), Settings.getJpegQuality(), lastModified);
+
+        if (PagesDiskCache.isEnabled()) {
+            PagePrefetcher.onPageRequested(HttpCacheHelper.getCurrentUserName(), cacheHash + ":" + variant, page,
+                    () -> getPagesCount(archiveItem, chapterHash),
+                    nextPage -> PagesDiskCache.getOrCreate(cacheHash, nextPage, variant, outputFormat.getExtension(),
+                            out -> writeDerivative(out, archiveItem.getContentId(), chapterHash, nextPage, width, height, outputFormat)));
+        }
+
+        String eTag = HttpCacheHelper.createETag(cacheHash, page, variant, outputFormat);
+        if (HttpCacheHelper.checkNotModified(response, eTag, lastModified, HttpCacheHelper.PAGES_CACHE_CONTROL)) {
+            return;
+        }
+
+        PagesDiskCache.PageWriter writer = out -> writeDerivative(out, archiveItem.getContentId(), chapterHash, page, width, height, outputFormat);
+        if (PagesDiskCache.isEnabled()) {
+            File derivative = PagesDiskCache.getOrCreate(cacheHash, page, variant, outputFormat.getExtension(), writer);
+            if (derivative == null) {
+                throw new PageNotFoundException();
+            }
+            HttpCacheHelper.writeFileRegion(response, outputStream, derivative.toPath(), 0, derivative.length(),
+                    outputFormat.getMimeType(), eTag, lastModified);
+        } else {
+            ByteArrayOutputStream derivative = new ByteArrayOutputStream();
+            if (!writer.write(derivative)) {
+                throw new PageNotFoundException();
+            }
+            response.setContentType(outputFormat.getMimeType());
+            response.setContentLength(derivative.size());
+            derivative.writeTo(outputStream);
+        }
+
+        logger.info("Page derivative writing time: " + (System.currentTimeMillis() - time) + "ms. Variant: " + variant + "." + outputFormat.getExtension());
+    }
+
+    private static int getPagesCount(IBaseBookItem archiveItem, @Nullable String chapterHash) {
+        return StringUtils.isNotEmpty(chapterHash)
+                ? BooksRepository.getChapter(chapterHash).getPageEntryNames().size()
+                : Optional.ofNullable(archiveItem.getPagesCount()).orElse(0);
+    }
+
+    private static boolean writeDerivative(OutputStream outputStream, String archiveHash, @Nullable String chapterHash, int page,
+                                           int width, int height, Format format) throws IOException {
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        try {
+            ArchiveHelper.writeBookPage(original, archiveHash, chapterHash, page);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(original.toByteArray())));
+        if (image == null) {
+            return false;
+        }
+
+        write(resize(image, width, height), format, outputStream);
+        return true;
+    }
+
+    /**
+     * Fits image into given bounds keeping aspect ratio. Zero bound means no limit. Images are never upscaled
+     */
+    private static BufferedImage resize(BufferedImage image, int width, int height) throws IOException {
+        boolean fitsWidth = width <= 0 || image.getWidth() <= width;
+        boolean fitsHeight = height <= 0 || image.getHeight() <= height;
+        if (fitsWidth && fitsHeight) {
+            return image;
+        }
+
+        Thumbnails.Builder<BufferedImage> builder = Thumbnails.of(image).scalingMode(ScalingMode.PROGRESSIVE_BILINEAR);
+        if (width > 0 && height > 0) {
+            builder.size(Math.min(width, image.getWidth()), Math.min(height, image.getHeight()));
+        } else if (width > 0) {
+            builder.width(width);
+        } else {
+            builder.height(height);
+        }
+        return builder.asBufferedImage();
+    }
+
+    private static void write(BufferedImage image, Format format, OutputStream outputStream) throws IOException {
+        if (format == Format.JPEG) {
+            JpegEncoder.write(null, outputStream, image);
+            return;
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format.getName()).next();
+        try (ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(outputStream)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionTypes() != null && param.getCompressionType() == null) {
+                    param.setCompressionType(param.getCompressionTypes()[0]);
+                }
+                param.setCompressionQuality(Settings.getJpegQuality() / 100f);
+            }
+
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    public enum Format {
+        JPEG(Constants.JPEG, Constants.JPG, "image/jpeg"),
+        PNG(Constants.PNG, Constants.PNG, "image/png"),
+        WEBP(Constants.WEBP, Constants.WEBP, "image/webp"),
+        AVIF(Constants.AVIF, Constants.AVIF, "image/avif");
+
+        @Getter
+        private final String name;
+        @Getter
+        private final String extension;
+        @Getter
+        private final String mimeType;
+
+        Format(String name, String extension, String mimeType) {
+            this.name = name;
+            this.extension = extension;
+            this.mimeType = mimeType;
+        }
+
+        /**
+         * Returns format by name. Formats without ImageIO writer (WebP and AVIF need additional plugins) fall back
+         * to JPEG, so client always gets image and may check real format in Content-Type header
+         */
+        public static Format of(@Nullable String name) {
+            return Arrays.stream(values())
+                    .filter(format -> StringUtils.equalsIgnoreCase(format.name, name) || StringUtils.equalsIgnoreCase(format.extension, name))
+                    .filter(Format::isWritable)
+                    .findFirst()
+                    .orElse(JPEG);
+        }
+
+        private boolean isWritable() {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(name);
+            return writers.hasNext();
+        }
+    }
+}
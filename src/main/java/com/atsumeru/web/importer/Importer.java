@@ -1,6 +1,7 @@
 package com.atsumeru.web.importer;
 
 import com.atsumeru.web.enums.Status;
+import com.atsumeru.web.event.LibraryChangeEvent;
 import com.atsumeru.web.helper.ChapterRecognition;
 import com.atsumeru.web.helper.Constants;
 import com.atsumeru.web.helper.JavaHelper;
@@ -15,6 +16,7 @@ import com.atsumeru.web.model.database.History;
 import com.atsumeru.web.model.importer.FolderProperty;
 import com.atsumeru.web.model.importer.ReadableContent;
 import com.atsumeru.web.repository.BooksDatabaseRepository;
+import com.atsumeru.web.repository.BooksIndexRepository;
 import com.atsumeru.web.repository.HistoryRepository;
 import com.atsumeru.web.repository.dao.BooksDaoManager;
 import com.atsumeru.web.service.ImportService;
@@ -31,6 +33,7 @@ import org.springframework.lang.Nullable;
 import java.io.File;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -41,6 +44,7 @@ public final class Importer {
     private static final BooksDaoManager daoManager;
     private static final AtomicInteger progress = new AtomicInteger();
     private static final AtomicInteger total = new AtomicInteger();
+    private static final AtomicReference<LibraryChangeEvent> importChanges = new AtomicReference<>(new LibraryChangeEvent());
 
     static {
         daoManager = BooksDatabaseRepository.getInstance().getDaoManager();
@@ -73,6 +77,13 @@ public final class Importer {
         total.set(total.get() + count);
     }
 
+    /**
+     * Returns books changed since previous call and starts collecting new changes
+     */
+    public static LibraryChangeEvent takeImportChanges() {
+        return importChanges.getAndSet(new LibraryChangeEvent());
+    }
+
     public static void calculateTotal(List<FolderProperty> properties) {
         incrementTotal(
                 properties.stream()
@@ -83,29 +94,38 @@ public final class Importer {
     }
 
     public static void importFile(FolderProperty property, File file, Map<String, BookSerie> seriesMap, Map<String, BookArchive> archivesMap, OnImportCallback callback) {
-        boolean reImportIfExist = property.isReImportIfExist();
-        boolean forceUpdateCovers = property.isForceUpdateCovers();
-        boolean ignoreVolumeNumbersDetection = property.isIgnoreVolumeNumbersDetection();
+        saveFile(property, readFile(property, file, archivesMap), seriesMap);
+        incrementAndNotifyProgress(callback);
+    }
 
+    /**
+     * Reads archive and fills {@link ReadableContent} with its info. Doesn't touch database, so may be called in parallel
+     */
+    @Nullable
+    public static ReadableContent readFile(FolderProperty property, File file, Map<String, BookArchive> archivesMap) {
         String importPath = FileUtils.removeLastPathSlash(property.getPath());
-
-        String archivePath = file.getPath();
         String parentPath = file.getParent();
 
-        boolean asSingles = property.isAsSingles(file, parentPath.equals(importPath));
-
         // Чтение архива и заполнение модели ReadableContent информацией из него
-        ReadableContent readableContent = Importer.importFile(
+        return Importer.importFile(
                 archivesMap,
                 parentPath,
-                archivePath,
-                asSingles,
-                reImportIfExist,
-                ignoreVolumeNumbersDetection,
-                forceUpdateCovers
+                file.getPath(),
+                property.isAsSingles(file, parentPath.equals(importPath)),
+                property.isReImportIfExist(),
+                property.isIgnoreVolumeNumbersDetection(),
+                property.isForceUpdateCovers()
         );
+    }
 
+    /**
+     * Saves read archive into database and binds it to Serie. Must be called from single thread
+     */
+    public static void saveFile(FolderProperty property, @Nullable ReadableContent readableContent, Map<String, BookSerie> seriesMap) {
         if (readableContent != null) {
+            boolean asSingles = readableContent.isAsSingle();
+            String parentPath = readableContent.getParentPath();
+
             String existedSerieHash = seriesMap.entrySet()
                     .stream()
                     .filter(entry -> !(asSingles || readableContent.getBookArchive().isSingle() && readableContent.getSerieArchive() == null)
@@ -119,7 +139,7 @@ public final class Importer {
                 readableContent.setSerieHash(existedSerieHash);
             }
 
-            Pair<String, String> serieArchiveFolderPair = saveArchive(readableContent, seriesMap, parentPath, reImportIfExist);
+            Pair<String, String> serieArchiveFolderPair = saveArchive(readableContent, seriesMap, parentPath, property.isReImportIfExist());
 
             // Распределяем в Set'ы пути к импортированной Серии и Архиву
             if (serieArchiveFolderPair != null) {
@@ -127,8 +147,6 @@ public final class Importer {
                 property.addArchiveFolder(serieArchiveFolderPair.getSecond());
             }
         }
-
-        incrementAndNotifyProgress(callback);
     }
 
     @Nullable
@@ -158,16 +176,20 @@ public final class Importer {
 
         if (ArrayUtils.isNotEmpty(bookPaths)) {
             int removed = daoManager.removeByColumnIn("FOLDER", bookPaths, clazz);
+            BooksIndexRepository.remove(notInFileSystemBooks);
 
             if (clazz.isAssignableFrom(BookArchive.class)) {
-                List<String> serieIds = notInFileSystemBooks.stream()
+                List<Long> serieDbIds = notInFileSystemBooks.stream()
                         .filter(book -> book.getStatus() == Status.SINGLE)
                         .map(IBaseBookItem::getSerieDbId)
+                        .collect(Collectors.toList());
+                List<String> serieIds = serieDbIds.stream()
                         .map(Object::toString)
                         .collect(Collectors.toList());
 
                         if (ArrayUtils.isNotEmpty(serieIds)) {
                             daoManager.removeByColumnIn("ID", serieIds, BookSerie.class);
+                            serieDbIds.forEach(BooksIndexRepository::removeSerie);
                         }
             }
 
@@ -178,6 +200,8 @@ public final class Importer {
             int removedChapters = daoManager.removeByColumnIn("SERIE_ID", contentIds, BookChapter.class)
                     + daoManager.removeByColumnIn("ARCHIVE_ID", contentIds, BookChapter.class);
 
+            importChanges.get().addBookHashes(contentIds).setStructureChanged();
+
             logWarn("Removed (" + removed + ") " + bookType + "s and (" + removedChapters + ") corresponding chapters that not exist on file system");
         }
     }
@@ -219,6 +243,7 @@ public final class Importer {
         String serieHash = readableContent.getSerieHash();
         boolean asSingle = readableContent.isAsSingle() || readableContent.getBookArchive().isSingle() && readableContent.getSerieArchive() == null;
         boolean isBook = readableContent.isBookFile();
+        boolean isNewArchive = bookArchiveInDb.getDbId() == null;
 
         bookArchiveInDb.fromBaseBook(readableContent.getBookArchive());
         bookArchiveInDb.setCover(readableContent.getBookArchive().getCover());
@@ -227,6 +252,7 @@ public final class Importer {
 
         if (!isBook) {
             bookArchiveInDb.setPageEntryNames(readableContent.getPageEntryNames());
+            bookArchiveInDb.setPageOffsets(readableContent.getPageOffsets());
         }
 
         if (seriesMap.containsKey(serieHash)) {
@@ -263,12 +289,10 @@ public final class Importer {
             );
         }
 
+        // Количество томов в Серии пересчитывается один раз по окончании импорта в calculateVolumesAndChaptersCount
         if (bookSerie.getDbId() != null) {
             bookArchiveInDb.setSerie(bookSerie);
             daoManager.save(bookArchiveInDb);
-
-            // Считаем новое количество томов в Серии
-            bookSerie.setVolumesCount(daoManager.countArchivesForSerie(bookSerie));
             daoManager.save(bookSerie);
         } else {
             daoManager.save(bookSerie);
@@ -276,6 +300,14 @@ public final class Importer {
             daoManager.save(bookArchiveInDb);
         }
 
+        BooksIndexRepository.update(bookSerie);
+        BooksIndexRepository.update(bookArchiveInDb);
+
+        LibraryChangeEvent changes = importChanges.get().addBookHashes(Arrays.asList(bookSerie.getContentId(), bookArchiveInDb.getContentId()));
+        if (isNewArchive) {
+            changes.setStructureChanged();
+        }
+
         return bookSerie;
     }
 
@@ -426,10 +458,12 @@ public final class Importer {
             archives.forEach(archive -> {
                 archive.setVolumesCount(serie.getVolumesCount());
                 daoManager.save(archive);
+                BooksIndexRepository.update(archive);
             });
 
             logFile(String.format("[%s:%s] volumes = %s, chapters = %s", serie.getTitle(), serie.getContentId(), serie.getVolumesCount(), serie.getChaptersCount()));
             daoManager.save(serie);
+            BooksIndexRepository.update(serie);
             incrementProgress();
             cliProgressBar.step();
         });
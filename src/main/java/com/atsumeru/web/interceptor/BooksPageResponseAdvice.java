@@ -0,0 +1,33 @@
+package com.atsumeru.web.interceptor;
+
+import com.atsumeru.web.model.book.BooksPage;
+import com.atsumeru.web.util.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Returns cursor of {@link BooksPage} in response header. Done here and not in controllers, because pages may be
+ * returned from cache without calling controller method
+ */
+@ControllerAdvice
+public class BooksPageResponseAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(@NotNull MethodParameter returnType, @NotNull Class converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, @NotNull MethodParameter returnType, @NotNull MediaType selectedContentType,
+                                  @NotNull Class selectedConverterType, @NotNull ServerHttpRequest request, @NotNull ServerHttpResponse response) {
+        if (body instanceof BooksPage && StringUtils.isNotEmpty(((BooksPage) body).getNextCursor())) {
+            response.getHeaders().set(BooksPage.NEXT_CURSOR_HEADER, ((BooksPage) body).getNextCursor());
+        }
+        return body;
+    }
+}
@@ -0,0 +1,39 @@
+package com.atsumeru.web.json;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes JSON array element by element, so large lists may be sent to client without building them in memory.
+ * Array is ended only by {@link #finish()}, so response interrupted by error is left unterminated and client
+ * can't mistake it for complete list
+ */
+public class JsonArrayStreamWriter {
+    private final Gson gson;
+    private final JsonWriter jsonWriter;
+
+    public JsonArrayStreamWriter(Gson gson, Writer writer) throws IOException {
+        this.gson = gson;
+        this.jsonWriter = gson.newJsonWriter(writer);
+        jsonWriter.beginArray();
+    }
+
+    public void write(Object item) {
+        gson.toJson(item, item.getClass(), jsonWriter);
+    }
+
+    public void flush() throws IOException {
+        jsonWriter.flush();
+    }
+
+    /**
+     * Ends array after all items were written
+     */
+    public void finish() throws IOException {
+        jsonWriter.endArray();
+        jsonWriter.flush();
+    }
+}
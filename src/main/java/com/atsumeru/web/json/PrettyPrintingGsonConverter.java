@@ -0,0 +1,58 @@
+package com.atsumeru.web.json;
+
+import com.google.gson.Gson;
+import org.springframework.http.converter.json.GsonHttpMessageConverter;
+import org.springframework.lang.Nullable;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.Writer;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Optional;
+
+/**
+ * Gson converter that writes compact JSON by default and pretty-printed JSON only when request
+ * contains {@link #PRETTY_PARAM} parameter (without value or with {@code true} value)
+ */
+public class PrettyPrintingGsonConverter extends GsonHttpMessageConverter {
+    public static final String PRETTY_PARAM = "pretty";
+
+    private final Gson prettyGson;
+
+    public PrettyPrintingGsonConverter(Gson gson) {
+        super(gson);
+        this.prettyGson = gson.newBuilder().setPrettyPrinting().create();
+    }
+
+    public Gson getGson(@Nullable HttpServletRequest request) {
+        return isPrettyPrintingRequested(request) ? prettyGson : getGson();
+    }
+
+    @Override
+    protected void writeInternal(Object object, @Nullable Type type, Writer writer) {
+        Gson gson = getGson(getCurrentRequest());
+        if (type instanceof ParameterizedType) {
+            gson.toJson(object, type, writer);
+        } else {
+            gson.toJson(object, writer);
+        }
+    }
+
+    private static boolean isPrettyPrintingRequested(@Nullable HttpServletRequest request) {
+        return Optional.ofNullable(request)
+                .map(it -> it.getParameter(PRETTY_PARAM))
+                .map(value -> value.isEmpty() || Boolean.parseBoolean(value))
+                .orElse(false);
+    }
+
+    @Nullable
+    private static HttpServletRequest getCurrentRequest() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes instanceof ServletRequestAttributes
+                ? ((ServletRequestAttributes) attributes).getRequest()
+                : null;
+    }
+}
@@ -0,0 +1,93 @@
+package com.atsumeru.web.listener;
+
+import com.atsumeru.web.enums.Sort;
+import com.atsumeru.web.event.LibraryChangeEvent;
+import com.atsumeru.web.manager.AtsumeruCacheManager;
+import com.atsumeru.web.model.book.IBaseBookItem;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Evicts from request caches only entries affected by {@link LibraryChangeEvent}
+ */
+@Component
+public class CacheInvalidationListener {
+    private static final String BOOKS_CACHE = "books";
+    private static final String HISTORY_CACHE = "history";
+    private static final String FILTERS_CACHE = "filters";
+    private static final String HUB_UPDATES_CACHE = "hub-updates";
+
+    private final CacheManager cacheManager;
+
+    public CacheInvalidationListener(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    @EventListener
+    public void onLibraryChange(LibraryChangeEvent event) {
+        if (event.isWholeLibrary()) {
+            AtsumeruCacheManager.evictAll();
+            return;
+        }
+
+        cacheManager.getCacheNames()
+                .stream()
+                .map(cacheManager::getCache)
+                .filter(CaffeineCache.class::isInstance)
+                .map(CaffeineCache.class::cast)
+                .forEach(cache -> cache.getNativeCache()
+                        .asMap()
+                        .entrySet()
+                        .removeIf(entry -> isAffected(cache.getName(), entry.getKey(), entry.getValue(), event)));
+    }
+
+    private static boolean isAffected(String cacheName, Object key, Object value, LibraryChangeEvent event) {
+        AtsumeruCacheManager.UserRequestKey requestKey = key instanceof AtsumeruCacheManager.UserRequestKey
+                ? (AtsumeruCacheManager.UserRequestKey) key
+                : null;
+
+        boolean isUserMatches = Optional.ofNullable(requestKey)
+                .map(AtsumeruCacheManager.UserRequestKey::getUserName)
+                .map(event.getUserNames()::contains)
+                .orElse(false);
+
+        // История чтения влияет только на списки самого пользователя. Фильтры от нее не зависят, а сортировка по
+        // последнему чтению и обновления в хабе могут измениться даже если книги в них еще нет
+        if (event.isHistoryOnly()) {
+            return isUserMatches && (HISTORY_CACHE.equals(cacheName)
+                    || HUB_UPDATES_CACHE.equals(cacheName)
+                    || BOOKS_CACHE.equals(cacheName) && requestKey.getParams().contains(Sort.LAST_READ)
+                    || !FILTERS_CACHE.equals(cacheName) && containsAnyBook(value, event));
+        }
+
+        if (isUserMatches || isCategoryMatches(requestKey, event) || containsAnyBook(value, event)) {
+            return true;
+        }
+
+        // Добавленные или удаленные книги меняют состав списков, а измененные книги - значения фильтров и порядок обновлений
+        return event.isStructureChanged() && !HISTORY_CACHE.equals(cacheName)
+                || (FILTERS_CACHE.equals(cacheName) || HUB_UPDATES_CACHE.equals(cacheName)) && !event.getBookHashes().isEmpty();
+    }
+
+    private static boolean isCategoryMatches(AtsumeruCacheManager.UserRequestKey requestKey, LibraryChangeEvent event) {
+        return requestKey != null && !event.getCategoryIds().isEmpty() && requestKey.getParams()
+                .stream()
+                .filter(Objects::nonNull)
+                .map(Object::toString)
+                .anyMatch(event.getCategoryIds()::contains);
+    }
+
+    private static boolean containsAnyBook(Object value, LibraryChangeEvent event) {
+        return !event.getBookHashes().isEmpty() && value instanceof Collection && ((Collection<?>) value)
+                .stream()
+                .filter(IBaseBookItem.class::isInstance)
+                .map(IBaseBookItem.class::cast)
+                .anyMatch(item -> event.getBookHashes().contains(item.getContentId()));
+    }
+}
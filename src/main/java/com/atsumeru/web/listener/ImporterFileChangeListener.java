@@ -11,38 +11,55 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Predicate;
 
 @Component
 public class ImporterFileChangeListener implements FileChangeListener {
     private static final Logger logger = LoggerFactory.getLogger(ImporterFileChangeListener.class.getSimpleName());
-    private static final Predicate<ChangedFiles> serverNotLocked = notLocked ->
-            !MetadataUpdateService.isUpdateActive() && !ImportService.isImportActive() && !CoversSaverService.isCachingActive();
 
     @Override
     public void onChange(Set<ChangedFiles> changeSet) {
-        AtomicBoolean isLogged = new AtomicBoolean();
+        List<File> changedFiles = new ArrayList<>();
+        List<File> deletedFiles = new ArrayList<>();
         changeSet.stream()
-                .filter(serverNotLocked)
-                .flatMap(changedFiles -> changedFiles.getFiles().stream())
-                .filter(changedFile -> !isLocked(changedFile.getFile().toPath()))
-                .filter(changedFile -> !Settings.isDisableWatchForModifiedFiles() || changedFile.getType() != ChangedFile.Type.MODIFY)
-                .peek(changedFile -> {
-                    if (!isLogged.get()) {
-                        logger.info("Requested Importer rescan because of filesystem changes with type [" + changedFile.getType() + "]");
-                        isLogged.set(true);
+                .filter(files -> isServerNotLocked())
+                .flatMap(files -> files.getFiles().stream())
+                .forEach(changedFile -> {
+                    if (changedFile.getType() == ChangedFile.Type.DELETE) {
+                        deletedFiles.add(changedFile.getFile());
+                    } else if ((!Settings.isDisableWatchForModifiedFiles() || changedFile.getType() != ChangedFile.Type.MODIFY)
+                            && !isLocked(changedFile.getFile().toPath())) {
+                        changedFiles.add(changedFile.getFile());
                     }
-                })
-                .limit(1)
-                .findFirst()
-                .ifPresent(file -> ImportService.rescan( false, false));
+                });
+
+        if (!changedFiles.isEmpty() || !deletedFiles.isEmpty()) {
+            logger.info(String.format("Requested Importer update because of filesystem changes: %d changed, %d deleted", changedFiles.size(), deletedFiles.size()));
+            ImportService.importChanged(changedFiles, deletedFiles);
+        }
+    }
+
+    @Override
+    public void onOverflow(File sourceFolder) {
+        if (isServerNotLocked()) {
+            logger.info("Requested Importer rescan because of lost filesystem events for folder: " + sourceFolder);
+            ImportService.rescan(false, false);
+        }
+    }
+
+    /**
+     * Changes during import are not skipped, because import of changes is queued after current import
+     */
+    private static boolean isServerNotLocked() {
+        return !MetadataUpdateService.isUpdateActive() && !CoversSaverService.isCachingActive();
     }
 
     private boolean isLocked(Path path) {
@@ -1,52 +1,100 @@
 package com.atsumeru.web.manager;
 
 import com.djvu2image.DjVuBook;
-import com.atsumeru.web.util.FileUtils;
+import com.atsumeru.web.renderer.PDFRenderer;
+import com.atsumeru.web.renderer.SharedDocument;
 import com.github.benmanes.caffeine.cache.Cache;
+import com.atsumeru.web.model.cache.CacheStatistics;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Configurable;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.CachingConfigurerSupport;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.interceptor.KeyGenerator;
 import org.springframework.cache.support.SimpleCacheManager;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 
-import java.io.Closeable;
+import javax.servlet.http.HttpServletRequest;
 import java.io.File;
-import java.util.Arrays;
+import java.security.Principal;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Component
 @Configurable
 @Configuration
 @EnableCaching(proxyTargetClass = true)
 public class AtsumeruCacheManager extends CachingConfigurerSupport implements ApplicationContextAware {
-    public static final Cache<File, PDDocument> PDF_CACHE = Caffeine.newBuilder()
-            .maximumSize(20)
-            .expireAfterAccess(1, TimeUnit.MINUTES)
-            .removalListener((file, pdf, cause) -> FileUtils.closeQuietly((Closeable) pdf))
+    // Примерный объём памяти под разобранную страницу документа (дерево объектов, шрифты, декодированные данные)
+    private static final long DOCUMENT_PAGE_WEIGHT = 64 * 1024;
+    // Читатель может долго задерживаться на одной странице, поэтому документ не должен закрываться слишком быстро
+    private static final long DOCUMENTS_EXPIRE_AFTER_ACCESS_MINUTES = 10;
+    // Вес документов считается в килобайтах. До загрузки настроек кэши не ограничены, бюджет применяется
+    // в applyDocumentsCacheSize() и делится поровну между PDF и DjVu
+    private static volatile long documentsCacheMaxWeight = Long.MAX_VALUE;
+
+    /**
+     * Opened PDF documents weighed by estimated heap footprint. Most of stream data is kept in scratch file, so
+     * weight of document is limited by {@link PDFRenderer#MAX_MAIN_MEMORY_BYTES} plus per page overhead
+     */
+    public static final Cache<File, SharedDocument<PDDocument>> PDF_CACHE = Caffeine.newBuilder()
+            .maximumWeight(documentsCacheMaxWeight)
+            .weigher((File file, SharedDocument<PDDocument> pdf) -> weighDocument(Math.min(file.length(), PDFRenderer.MAX_MAIN_MEMORY_BYTES),
+                    pdf.getDocument().getNumberOfPages()))
+            .expireAfterAccess(DOCUMENTS_EXPIRE_AFTER_ACCESS_MINUTES, TimeUnit.MINUTES)
+            .removalListener((File file, SharedDocument<PDDocument> pdf, RemovalCause cause) -> {
+                // Документ закрывается, когда его освободит последний использующий поток
+                if (pdf != null) {
+                    pdf.evict();
+                }
+            })
             .build();
 
+    /**
+     * Opened DjVu documents weighed by estimated heap footprint. DjVu document is read into memory completely, so
+     * its weight includes whole file size. Document has nothing to close, it's released with last reference
+     */
     public static final Cache<File, DjVuBook> DJVU_CACHE = Caffeine.newBuilder()
-            .maximumSize(20)
-            .expireAfterAccess(1, TimeUnit.MINUTES)
+            .maximumWeight(documentsCacheMaxWeight)
+            .weigher((File file, DjVuBook book) -> weighDocument(file.length(), book.getTotalPages()))
+            .expireAfterAccess(DOCUMENTS_EXPIRE_AFTER_ACCESS_MINUTES, TimeUnit.MINUTES)
             .build();
 
+    public static final String USER_REQUEST_KEY_GENERATOR = "userRequestKeyGenerator";
+
     private static ApplicationContext context;
 
     public static void evictAll() {
         context.getBean(AtsumeruCacheManager.class).evictAllInternal();
     }
 
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(1)
+    public void applyDocumentsCacheSize() {
+        documentsCacheMaxWeight = Settings.getDocumentsCacheSize() * 1024 / 2;
+        PDF_CACHE.policy().eviction().ifPresent(eviction -> eviction.setMaximum(documentsCacheMaxWeight));
+        DJVU_CACHE.policy().eviction().ifPresent(eviction -> eviction.setMaximum(documentsCacheMaxWeight));
+    }
+
     @Override
     public void setApplicationContext(@NotNull ApplicationContext applicationContext) throws BeansException {
         context = applicationContext;
@@ -63,16 +111,97 @@ public class AtsumeruCacheManager extends CachingConfigurerSupport implements Ap
         }
     }
 
+    /**
+     * Weight of document in kilobytes. Document heavier than whole cache is weighed as whole cache, so it stays
+     * cached alone instead of being evicted right after loading
+     */
+    private static int weighDocument(long heapBytes, int pagesCount) {
+        long weight = (heapBytes + pagesCount * DOCUMENT_PAGE_WEIGHT) / 1024;
+        return (int) Math.min(weight, Math.min(documentsCacheMaxWeight, Integer.MAX_VALUE));
+    }
+
+    public static List<CacheStatistics> getStatistics() {
+        CacheManager cacheManager = context.getBean(CacheManager.class);
+        return cacheManager.getCacheNames()
+                .stream()
+                .map(cacheManager::getCache)
+                .filter(CaffeineCache.class::isInstance)
+                .map(CaffeineCache.class::cast)
+                .map(AtsumeruCacheManager::createStatistics)
+                .collect(Collectors.toList());
+    }
+
+    private static CacheStatistics createStatistics(CaffeineCache cache) {
+        Cache<Object, Object> nativeCache = cache.getNativeCache();
+        CacheStats stats = nativeCache.stats();
+        Optional<Policy.Eviction<Object, Object>> eviction = nativeCache.policy().eviction();
+        return new CacheStatistics()
+                .setName(cache.getName())
+                .setSize(nativeCache.estimatedSize())
+                .setWeight(eviction.map(it -> it.weightedSize().orElse(0)).orElse(0L))
+                .setMaxWeight(eviction.map(Policy.Eviction::getMaximum).orElse(0L))
+                .setHitCount(stats.hitCount())
+                .setMissCount(stats.missCount())
+                .setHitRate(stats.hitRate())
+                .setEvictionCount(stats.evictionCount())
+                .setEvictionWeight(stats.evictionWeight());
+    }
+
     @Bean
     public CacheManager cacheManager() {
         SimpleCacheManager cacheManager = new SimpleCacheManager();
         cacheManager.setCaches(Arrays.asList(
-                new ConcurrentMapCache("books"),
-                new ConcurrentMapCache("books_by_bound_service"),
-                new ConcurrentMapCache("filters"),
-                new ConcurrentMapCache("hub-updates"),
-                new ConcurrentMapCache("history")
+                createCache("books", 20000, 10),
+                createCache("books_by_bound_service", 2000, 10),
+                createCache("filters", 500, 30),
+                createCache("hub-updates", 10000, 10),
+                createCache("history", 10000, 10)
         ));
         return cacheManager;
     }
+
+    /**
+     * Creates cache bounded by total weight of cached values. Weight of list is its size, so maximum weight is
+     * roughly the number of books that cache may hold
+     */
+    private static CaffeineCache createCache(String name, long maximumWeight, long expireAfterAccessMinutes) {
+        return new CaffeineCache(name, Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((key, value) -> value instanceof Collection ? ((Collection<?>) value).size() + 1 : 1)
+                .expireAfterAccess(expireAfterAccessMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build());
+    }
+
+    /**
+     * Key generator for per-user requests cache. Key consists of user name, request path and all method
+     * arguments except request itself
+     */
+    @Bean(USER_REQUEST_KEY_GENERATOR)
+    public KeyGenerator userRequestKeyGenerator() {
+        return (target, method, params) -> {
+            HttpServletRequest request = Arrays.stream(params)
+                    .filter(HttpServletRequest.class::isInstance)
+                    .map(HttpServletRequest.class::cast)
+                    .findFirst()
+                    .orElse(null);
+
+            return new UserRequestKey(
+                    Optional.ofNullable(request).map(HttpServletRequest::getUserPrincipal).map(Principal::getName).orElse(null),
+                    Optional.ofNullable(request).map(HttpServletRequest::getServletPath).orElse(null),
+                    Arrays.stream(params)
+                            .filter(param -> !(param instanceof HttpServletRequest))
+                            .collect(Collectors.toList())
+            );
+        };
+    }
+
+    @Getter
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    public static class UserRequestKey {
+        private final String userName;
+        private final String path;
+        private final List<Object> params;
+    }
 }
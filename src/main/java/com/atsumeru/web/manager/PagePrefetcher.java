@@ -0,0 +1,158 @@
+package com.atsumeru.web.manager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.lang.Nullable;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Server-side read-ahead. Tracks page requests of every user in every book and, when user reads sequentially,
+ * prepares next {@link Settings#getPagesPrefetchCount()} pages in background: archive pages are unpacked into small
+ * memory-bounded cache, PDF/DjVu pages and resized derivatives are rendered into {@link PagesDiskCache}. Pending
+ * prefetch is cancelled when user jumps to other place of book
+ */
+public class PagePrefetcher {
+    // Сколько последовательных переходов нужно, чтобы считать чтение последовательным
+    private static final int SEQUENTIAL_READS_TO_PREFETCH = 2;
+    // Пропуск страниц (например, разворот) тоже считается последовательным чтением
+    private static final int MAX_SEQUENTIAL_STEP = 2;
+
+    private static final int THREADS = 2;
+    private static final int QUEUE_SIZE = 32;
+    private static final long BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(QUEUE_SIZE),
+            runnable -> {
+                Thread thread = new Thread(runnable, "PagePrefetcher");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+
+    private static final Cache<String, ReadingState> readingStates = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    private static final Cache<String, PrefetchedPage> pages = Caffeine.newBuilder()
+            .maximumWeight(Settings.getPagesPrefetchCacheSize() * BYTES_IN_MEGABYTE)
+            .weigher((String key, PrefetchedPage page) -> page.getData().length)
+            .expireAfterWrite(2, TimeUnit.MINUTES)
+            .build();
+
+    private PagePrefetcher() {
+    }
+
+    public interface PageLoader {
+
+        /**
+         * Prepares page in background. Loader must put archive pages into cache with {@link #put(String, String, int, PrefetchedPage)}
+         */
+        void load(int page) throws Exception;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class PrefetchedPage {
+        private final byte[] data;
+        private final String contentType;
+    }
+
+    /**
+     * Registers page request and schedules prefetch of next pages if user reads book sequentially
+     *
+     * @param userName     name of user or null for anonymous requests
+     * @param bookHash     hash of archive or chapter
+     * @param pagesCount   supplier of pages count, called only when prefetch is scheduled
+     */
+    public static void onPageRequested(@Nullable String userName, String bookHash, int page, IntSupplier pagesCount, PageLoader loader) {
+        int prefetchCount = Settings.getPagesPrefetchCount();
+        if (prefetchCount <= 0) {
+            return;
+        }
+
+        ReadingState state = readingStates.get(userName + ":" + bookHash, key -> new ReadingState());
+        synchronized (state) {
+            state.tasks.removeIf(Future::isDone);
+            if (state.lastPage > 0 && page > state.lastPage && page - state.lastPage <= MAX_SEQUENTIAL_STEP) {
+                state.sequentialReads++;
+            } else {
+                // Переход в другое место книги: ожидающие задачи больше не нужны
+                state.cancelTasks();
+                state.sequentialReads = 0;
+                state.prefetchedPage = page;
+            }
+            state.lastPage = page;
+
+            if (state.sequentialReads < SEQUENTIAL_READS_TO_PREFETCH || isOverloaded(prefetchCount)) {
+                return;
+            }
+
+            int lastPage = Math.min(page + prefetchCount, pagesCount.getAsInt());
+            for (int nextPage = Math.max(page, state.prefetchedPage) + 1; nextPage <= lastPage; nextPage++) {
+                int pageToLoad = nextPage;
+                try {
+                    state.tasks.add(executor.submit(() -> {
+                        loader.load(pageToLoad);
+                        return null;
+                    }));
+                } catch (RejectedExecutionException ex) {
+                    break;
+                }
+                state.prefetchedPage = nextPage;
+            }
+        }
+    }
+
+    /**
+     * @param variant version of source file, so page of replaced file is never taken from cache
+     */
+    public static void put(String bookHash, String variant, int page, PrefetchedPage prefetchedPage) {
+        pages.put(createPageKey(bookHash, variant, page), prefetchedPage);
+    }
+
+    @Nullable
+    public static PrefetchedPage get(String bookHash, String variant, int page) {
+        return pages.getIfPresent(createPageKey(bookHash, variant, page));
+    }
+
+    /**
+     * Prefetch is skipped when its queue is almost full or system is already loaded with other work
+     */
+    private static boolean isOverloaded(int prefetchCount) {
+        if (executor.getQueue().remainingCapacity() < prefetchCount) {
+            return true;
+        }
+        double loadAverage = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        return loadAverage >= Runtime.getRuntime().availableProcessors();
+    }
+
+    private static String createPageKey(String bookHash, String variant, int page) {
+        return bookHash + ":" + variant + ":" + page;
+    }
+
+    private static class ReadingState {
+        private final List<Future<?>> tasks = new ArrayList<>();
+        private int lastPage;
+        private int sequentialReads;
+        private int prefetchedPage;
+
+        private void cancelTasks() {
+            // Уже запущенные задачи не прерываются, чтобы не оставить документ в неконсистентном состоянии
+            tasks.forEach(task -> task.cancel(false));
+            tasks.clear();
+        }
+    }
+}
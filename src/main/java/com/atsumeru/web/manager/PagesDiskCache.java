@@ -0,0 +1,221 @@
+package com.atsumeru.web.manager;
+
+import com.atsumeru.web.util.Workspace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Size-bounded disk cache of prepared page images. Files are stored as
+ * {@code cache/pages/<book hash>/<page>_<variant>.<extension>} and evicted in least recently used order
+ * when total size exceeds {@link Settings#getPagesCacheSize()}
+ */
+public class PagesDiskCache {
+    private static final Logger logger = LoggerFactory.getLogger(PagesDiskCache.class.getSimpleName());
+
+    private static final String FOLDER = "pages";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final long BYTES_IN_MEGABYTE = 1024 * 1024;
+    // Файл, отданный через sendfile, открывается контейнером уже после выхода из сервлета, поэтому недавно
+    // использованные файлы не удаляются, даже если кэш временно превышает лимит
+    private static final long IN_FLIGHT_MILLIS = 30 * 1000;
+
+    // Файлы в порядке доступа, от давно использованных к недавним
+    private static final LinkedHashMap<File, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Map<File, CompletableFuture<File>> inProgress = new ConcurrentHashMap<>();
+    private static long totalSize;
+    private static boolean loaded;
+
+    private PagesDiskCache() {
+    }
+
+    public interface PageWriter {
+
+        /**
+         * @return false if page can't be written
+         */
+        boolean write(OutputStream outputStream) throws IOException;
+    }
+
+    public static boolean isEnabled() {
+        return Settings.getPagesCacheSize() > 0;
+    }
+
+    public static File getFile(String bookHash, int page, String variant, String extension) {
+        return new File(Workspace.CACHE_DIR + FOLDER + File.separator + bookHash, String.format("%d_%s.%s", page, variant, extension));
+    }
+
+    /**
+     * @return cached page file or null if page is not in cache yet
+     */
+    @Nullable
+    public static synchronized File get(String bookHash, int page, String variant, String extension) {
+        loadIfNeeded();
+        File file = getFile(bookHash, page, variant, extension);
+        Long size = entries.get(file);
+        if (size == null) {
+            return null;
+        }
+        if (!file.isFile()) {
+            entries.remove(file);
+            totalSize -= size;
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Returns cached page file or writes page into cache with given writer. Concurrent calls for same page wait for
+     * single write instead of preparing page twice
+     *
+     * @return cached page file or null if page can't be written
+     */
+    @Nullable
+    public static File getOrCreate(String bookHash, int page, String variant, String extension, PageWriter writer) {
+        File cached = get(bookHash, page, variant, extension);
+        if (cached != null) {
+            return cached;
+        }
+
+        File file = getFile(bookHash, page, variant, extension);
+        CompletableFuture<File> future = new CompletableFuture<>();
+        CompletableFuture<File> running = inProgress.putIfAbsent(file, future);
+        if (running != null) {
+            return running.join();
+        }
+
+        File result = null;
+        try {
+            result = get(bookHash, page, variant, extension);
+            if (result == null) {
+                result = write(file, writer);
+            }
+            return result;
+        } finally {
+            inProgress.remove(file);
+            future.complete(result);
+        }
+    }
+
+    /**
+     * Forgets all known entries. Must be called after cache folder was removed from disk
+     */
+    public static synchronized void reset() {
+        entries.clear();
+        totalSize = 0;
+        loaded = false;
+    }
+
+    @Nullable
+    private static File write(File file, PageWriter writer) {
+        File folder = file.getParentFile();
+        folder.mkdirs();
+
+        // Страница пишется во временный файл, чтобы недописанный файл никогда не попал в кэш
+        File tempFile = new File(folder, file.getName() + "." + Thread.currentThread().getId() + TEMP_EXTENSION);
+        try {
+            boolean written;
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                written = writer.write(outputStream);
+            }
+            if (!written) {
+                tempFile.delete();
+                return null;
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return null;
+        }
+
+        add(file);
+        return file;
+    }
+
+    private static synchronized void add(File file) {
+        loadIfNeeded();
+        long size = file.length();
+        Long previousSize = entries.put(file, size);
+        totalSize += size - (previousSize != null ? previousSize : 0);
+        evictIfNeeded();
+    }
+
+    /**
+     * Evicts least recently used files until cache fits its size. Time of last use is stored as file
+     * modification time, so files used less than {@link #IN_FLIGHT_MILLIS} ago (and all files after them in access
+     * order) are kept until next eviction
+     */
+    private static void evictIfNeeded() {
+        long maxSize = Settings.getPagesCacheSize() * BYTES_IN_MEGABYTE;
+        long inFlightTime = System.currentTimeMillis() - IN_FLIGHT_MILLIS;
+        Iterator<Map.Entry<File, Long>> iterator = entries.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            Map.Entry<File, Long> entry = iterator.next();
+            File file = entry.getKey();
+            if (file.lastModified() > inFlightTime) {
+                break;
+            }
+
+            iterator.remove();
+            totalSize -= entry.getValue();
+            file.delete();
+            // Удаляется только пустая папка книги
+            file.getParentFile().delete();
+        }
+    }
+
+    private static void loadIfNeeded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        Path folder = Paths.get(Workspace.CACHE_DIR + FOLDER);
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(folder, 2)) {
+            List<File> files = paths.filter(Files::isRegularFile)
+                    .map(Path::toFile)
+                    .sorted(Comparator.comparingLong(File::lastModified))
+                    .collect(Collectors.toList());
+
+            for (File file : files) {
+                // Недописанные файлы, оставшиеся с прошлого запуска
+                if (file.getName().endsWith(TEMP_EXTENSION)) {
+                    file.delete();
+                    continue;
+                }
+                entries.put(file, file.length());
+                totalSize += file.length();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        logger.info("Pages cache loaded: " + entries.size() + " files, " + totalSize / BYTES_IN_MEGABYTE + " MB");
+        evictIfNeeded();
+    }
+}
@@ -116,6 +116,17 @@ public class Settings {
         setProperty(KEY_DISABLE_FILE_WATCHER, String.valueOf(value));
     }
 
+    public static final String KEY_FORCE_POLLING_FILE_WATCHER = "force_polling_file_watcher";
+    private static final boolean DEFAULT_FORCE_POLLING_FILE_WATCHER = false;
+
+    public static boolean isForcePollingFileWatcher() {
+        return TypeUtils.getBoolDef(properties.getProperty(KEY_FORCE_POLLING_FILE_WATCHER), DEFAULT_FORCE_POLLING_FILE_WATCHER);
+    }
+
+    public static void putForcePollingFileWatcher(boolean value) {
+        setProperty(KEY_FORCE_POLLING_FILE_WATCHER, String.valueOf(value));
+    }
+
     public static final String KEY_DISABLE_WATCH_FOR_MODIFIED_FILES = "disable_watch_for_modified_files";
     private static final boolean DEFAULT_DISABLE_WATCH_FOR_MODIFIED_FILES = false;
 
@@ -137,4 +148,138 @@ public class Settings {
     public static void putDisableChapters(boolean value) {
         setProperty(KEY_DISABLE_CHAPTERS, String.valueOf(value));
     }
+
+    public static final String KEY_IMPORT_THREADS = "import_threads";
+    private static final int DEFAULT_IMPORT_THREADS = 0;
+
+    /**
+     * Count of threads for parallel reading of archives on import. Zero means count of available processors
+     */
+    public static int getImportThreads() {
+        int threads = TypeUtils.getIntDef(properties.getProperty(KEY_IMPORT_THREADS), DEFAULT_IMPORT_THREADS);
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public static void putImportThreads(int value) {
+        setProperty(KEY_IMPORT_THREADS, String.valueOf(value));
+    }
+
+    public static final String KEY_IMPORT_BATCH_SIZE = "import_batch_size";
+    private static final int DEFAULT_IMPORT_BATCH_SIZE = 500;
+
+    /**
+     * Count of imported archives written into database in one transaction
+     */
+    public static int getImportBatchSize() {
+        return Math.max(1, TypeUtils.getIntDef(properties.getProperty(KEY_IMPORT_BATCH_SIZE), DEFAULT_IMPORT_BATCH_SIZE));
+    }
+
+    public static void putImportBatchSize(int value) {
+        setProperty(KEY_IMPORT_BATCH_SIZE, String.valueOf(value));
+    }
+
+    public static final String KEY_DATABASE_READ_CONNECTIONS = "database_read_connections";
+    private static final int DEFAULT_DATABASE_READ_CONNECTIONS = 4;
+
+    /**
+     * Count of idle read-only database connections kept open. Zero disables separate readers and all queries go
+     * through single writer connection
+     */
+    public static int getDatabaseReadConnections() {
+        // База открывается ещё до загрузки настроек
+        if (properties == null) {
+            return DEFAULT_DATABASE_READ_CONNECTIONS;
+        }
+        return Math.max(0, TypeUtils.getIntDef(properties.getProperty(KEY_DATABASE_READ_CONNECTIONS), DEFAULT_DATABASE_READ_CONNECTIONS));
+    }
+
+    public static void putDatabaseReadConnections(int value) {
+        setProperty(KEY_DATABASE_READ_CONNECTIONS, String.valueOf(value));
+    }
+
+    public static final String KEY_PAGES_CACHE_SIZE = "pages_cache_size";
+    private static final long DEFAULT_PAGES_CACHE_SIZE = 1024;
+
+    /**
+     * Maximum size in megabytes of disk cache for rendered pages. Zero disables cache
+     */
+    public static long getPagesCacheSize() {
+        return Math.max(0, TypeUtils.getLongDef(properties.getProperty(KEY_PAGES_CACHE_SIZE), DEFAULT_PAGES_CACHE_SIZE));
+    }
+
+    public static void putPagesCacheSize(long value) {
+        setProperty(KEY_PAGES_CACHE_SIZE, String.valueOf(value));
+    }
+
+    public static final String KEY_PAGES_PREFETCH_COUNT = "pages_prefetch_count";
+    private static final int DEFAULT_PAGES_PREFETCH_COUNT = 3;
+
+    /**
+     * Count of next pages prepared in background when user reads book sequentially. Zero disables prefetch
+     */
+    public static int getPagesPrefetchCount() {
+        return Math.max(0, TypeUtils.getIntDef(properties.getProperty(KEY_PAGES_PREFETCH_COUNT), DEFAULT_PAGES_PREFETCH_COUNT));
+    }
+
+    public static void putPagesPrefetchCount(int value) {
+        setProperty(KEY_PAGES_PREFETCH_COUNT, String.valueOf(value));
+    }
+
+    public static final String KEY_PAGES_PREFETCH_CACHE_SIZE = "pages_prefetch_cache_size";
+    private static final long DEFAULT_PAGES_PREFETCH_CACHE_SIZE = 64;
+
+    /**
+     * Maximum size in megabytes of memory cache for prefetched archive pages. Applied on server start
+     */
+    public static long getPagesPrefetchCacheSize() {
+        return Math.max(0, TypeUtils.getLongDef(properties.getProperty(KEY_PAGES_PREFETCH_CACHE_SIZE), DEFAULT_PAGES_PREFETCH_CACHE_SIZE));
+    }
+
+    public static void putPagesPrefetchCacheSize(long value) {
+        setProperty(KEY_PAGES_PREFETCH_CACHE_SIZE, String.valueOf(value));
+    }
+
+    public static final String KEY_DOCUMENTS_CACHE_SIZE = "documents_cache_size";
+    private static final long DEFAULT_DOCUMENTS_CACHE_SIZE = 512;
+
+    /**
+     * Approximate heap budget in megabytes for opened PDF and DjVu documents, shared equally between them.
+     * Applied on server start
+     */
+    public static long getDocumentsCacheSize() {
+        return Math.max(1, TypeUtils.getLongDef(properties.getProperty(KEY_DOCUMENTS_CACHE_SIZE), DEFAULT_DOCUMENTS_CACHE_SIZE));
+    }
+
+    public static void putDocumentsCacheSize(long value) {
+        setProperty(KEY_DOCUMENTS_CACHE_SIZE, String.valueOf(value));
+    }
+
+    public static final String KEY_JPEG_QUALITY = "jpeg_quality";
+    private static final int DEFAULT_JPEG_QUALITY = 75;
+
+    /**
+     * Quality (1-100) of JPEG images encoded by server: rendered PDF/DjVu pages and converted WebP pages
+     */
+    public static int getJpegQuality() {
+        return Math.min(100, Math.max(1, TypeUtils.getIntDef(properties.getProperty(KEY_JPEG_QUALITY), DEFAULT_JPEG_QUALITY)));
+    }
+
+    public static void putJpegQuality(int value) {
+        setProperty(KEY_JPEG_QUALITY, String.valueOf(value));
+    }
+
+    public static final String KEY_JPEG_ENCODER = "jpeg_encoder";
+    private static final String DEFAULT_JPEG_ENCODER = "";
+
+    /**
+     * Part of ImageIO JPEG writer class name that should be used for encoding. Empty value means libjpeg-turbo
+     * based writer if it's plugin present, or default writer otherwise
+     */
+    public static String getJpegEncoder() {
+        return properties.getProperty(KEY_JPEG_ENCODER, DEFAULT_JPEG_ENCODER).trim();
+    }
+
+    public static void putJpegEncoder(String value) {
+        setProperty(KEY_JPEG_ENCODER, value);
+    }
 }
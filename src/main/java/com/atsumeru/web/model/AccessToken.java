@@ -0,0 +1,21 @@
+package com.atsumeru.web.model;
+
+import com.google.gson.annotations.Expose;
+import com.google.gson.annotations.SerializedName;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class AccessToken {
+    @Expose
+    private String token;
+
+    @Expose
+    @SerializedName("token_type")
+    private String tokenType;
+
+    @Expose
+    @SerializedName("expires_at")
+    private long expiresAt;
+}
@@ -33,6 +33,9 @@ public class BookArchive extends BaseBook {
     transient String serieHash;
     @DatabaseField(foreign = true, columnName = "SERIE")
     private BookSerie serie;
+    // Загруженная из БД Серия. В поле serie ORMLite кладет объект только с ID
+    @EqualsAndHashCode.Exclude
+    private transient BookSerie loadedSerie;
     @ForeignCollectionField(columnName = "CHAPTERS")
     private ForeignCollection<BookChapter> chapters;
     @Expose
@@ -57,6 +60,8 @@ public class BookArchive extends BaseBook {
     private Float volume;
     @DatabaseField(columnName = "PAGE_ENTRY_NAMES")
     private String pageEntryNames;
+    @DatabaseField(columnName = "PAGE_OFFSETS")
+    private String pageOffsets;
     @DatabaseField(columnName = "IS_BOOK")
     private Boolean isBook;
     @DatabaseField(columnName = "FILE_SIZE")
@@ -159,9 +164,16 @@ public class BookArchive extends BaseBook {
 
     @Override
     public BookSerie getSerie() {
-        return (BookSerie) Optional.ofNullable(serie)
-                .map(bookSerie -> BooksDatabaseRepository.getInstance().getDaoManager().queryById(bookSerie.getDbId(), BookSerie.class))
-                .orElse(null);
+        BookSerie loadedSerie = this.loadedSerie;
+        if (loadedSerie == null && serie != null) {
+            this.loadedSerie = loadedSerie = BooksDatabaseRepository.getInstance().getDaoManager().queryById(serie.getDbId(), BookSerie.class);
+        }
+        return loadedSerie;
+    }
+
+    public void setSerie(BookSerie serie) {
+        this.serie = serie;
+        loadedSerie = null;
     }
 
     @Override
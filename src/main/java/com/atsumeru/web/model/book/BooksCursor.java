@@ -0,0 +1,91 @@
+package com.atsumeru.web.model.book;
+
+import com.atsumeru.web.exception.InvalidCursorException;
+import com.atsumeru.web.util.StringUtils;
+import lombok.Getter;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Position in sorted books list: sort key values and database id of last returned book. Encoded into opaque url-safe
+ * token, that clients pass back to get next page. Next page starts right after this position, so it doesn't shift
+ * when books are added before it and doesn't require skipping of previous pages
+ */
+@Getter
+public class BooksCursor {
+    private static final int VERSION = 1;
+
+    private final List<String> keys;
+    private final long id;
+
+    public BooksCursor(List<String> keys, long id) {
+        this.keys = Collections.unmodifiableList(keys);
+        this.id = id;
+    }
+
+    public String getKey(int index) {
+        return index < keys.size() ? keys.get(index) : "";
+    }
+
+    public long getLongKey(int index) {
+        try {
+            return Long.parseLong(getKey(index));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    public float getFloatKey(int index) {
+        try {
+            return Float.parseFloat(getKey(index));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    public String encode() {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(); DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeByte(keys.size());
+            for (String key : keys) {
+                out.writeUTF(key != null ? key : "");
+            }
+            out.writeLong(id);
+            out.flush();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Decodes token created by {@link #encode()}
+     *
+     * @return decoded cursor or null if token is empty
+     * @throws InvalidCursorException if token is malformed
+     */
+    public static BooksCursor decode(String token) {
+        if (StringUtils.isEmpty(token)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)))) {
+            if (in.readByte() != VERSION) {
+                throw new InvalidCursorException();
+            }
+
+            int count = in.readByte();
+            List<String> keys = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                keys.add(in.readUTF());
+            }
+            return new BooksCursor(keys, in.readLong());
+        } catch (IOException | IllegalArgumentException ex) {
+            throw new InvalidCursorException();
+        }
+    }
+}
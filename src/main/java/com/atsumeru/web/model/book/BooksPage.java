@@ -0,0 +1,22 @@
+package com.atsumeru.web.model.book;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Page of books list with cursor pointing at the last book. Serialized as plain list, cursor is returned
+ * in {@link #NEXT_CURSOR_HEADER} response header
+ */
+public class BooksPage extends ArrayList<IBaseBookItem> {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    @Getter
+    private final String nextCursor;
+
+    public BooksPage(Collection<? extends IBaseBookItem> items, BooksCursor nextCursor) {
+        super(items);
+        this.nextCursor = nextCursor != null ? nextCursor.encode() : null;
+    }
+}
@@ -15,6 +15,7 @@ import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 import kotlin.jvm.Transient;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 
 import java.util.List;
 import java.util.Optional;
@@ -30,6 +31,9 @@ public class BookChapter {
 
     @DatabaseField(foreign = true, columnName = "ARCHIVE")
     private BookArchive archive;
+    // Загруженный из БД Архив. В поле archive ORMLite кладет объект только с ID
+    @EqualsAndHashCode.Exclude
+    private transient BookArchive loadedArchive;
 
     @Expose
     @SerializedName("id")
@@ -154,6 +158,7 @@ public class BookChapter {
 
     public void setArchive(BookArchive archive) {
         this.archive = archive;
+        loadedArchive = null;
         archiveId = archive.getContentId();
     }
 
@@ -167,9 +172,11 @@ public class BookChapter {
     }
 
     public BookArchive getArchive() {
-        return (BookArchive) Optional.ofNullable(archive)
-                .map(bookArchive -> BooksDatabaseRepository.getInstance().getDaoManager().queryById(bookArchive.getDbId(), BookArchive.class))
-                .orElse(null);
+        BookArchive loadedArchive = this.loadedArchive;
+        if (loadedArchive == null && archive != null) {
+            this.loadedArchive = loadedArchive = BooksDatabaseRepository.getInstance().getDaoManager().queryById(archive.getDbId(), BookArchive.class);
+        }
+        return loadedArchive;
     }
 
     public Float getChapter() {
@@ -0,0 +1,43 @@
+package com.atsumeru.web.model.cache;
+
+import com.google.gson.annotations.Expose;
+import com.google.gson.annotations.SerializedName;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+@Data
+@Accessors(chain = true)
+public class CacheStatistics {
+    @Expose
+    private String name;
+
+    @Expose
+    private long size;
+
+    @Expose
+    private long weight;
+
+    @Expose
+    @SerializedName("max_weight")
+    private long maxWeight;
+
+    @Expose
+    @SerializedName("hit_count")
+    private long hitCount;
+
+    @Expose
+    @SerializedName("miss_count")
+    private long missCount;
+
+    @Expose
+    @SerializedName("hit_rate")
+    private double hitRate;
+
+    @Expose
+    @SerializedName("eviction_count")
+    private long evictionCount;
+
+    @Expose
+    @SerializedName("eviction_weight")
+    private long evictionWeight;
+}
@@ -0,0 +1,36 @@
+package com.atsumeru.web.model.database;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Link between book (serie or archive) and {@link MetadataValue}. Position keeps order of values in book field
+ */
+@Data
+@NoArgsConstructor
+@DatabaseTable(tableName = "BOOK_VALUE_LINKS")
+public class BookValueLink {
+    @DatabaseField(generatedId = true)
+    private Long id;
+
+    @DatabaseField(columnName = "BOOK_ID")
+    private Long bookId;
+
+    @DatabaseField(columnName = "IS_ARCHIVE")
+    private boolean isArchive;
+
+    @DatabaseField(columnName = "VALUE_ID")
+    private Long valueId;
+
+    @DatabaseField(columnName = "POSITION")
+    private int position;
+
+    public BookValueLink(Long bookId, boolean isArchive, Long valueId, int position) {
+        this.bookId = bookId;
+        this.isArchive = isArchive;
+        this.valueId = valueId;
+        this.position = position;
+    }
+}
@@ -0,0 +1,34 @@
+package com.atsumeru.web.model.database;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Interned value of multi-value book field (genre, tag, author etc.). Every distinct value is stored once per field
+ * and referenced by {@link BookValueLink} rows
+ */
+@Data
+@NoArgsConstructor
+@DatabaseTable(tableName = "METADATA_VALUES")
+public class MetadataValue {
+    @DatabaseField(generatedId = true)
+    private Long id;
+
+    @DatabaseField(columnName = "FIELD")
+    private String field;
+
+    @DatabaseField(columnName = "VALUE")
+    private String value;
+
+    // Значение в нижнем регистре, по нему выполняется поиск и фильтрация
+    @DatabaseField(columnName = "NORMALIZED")
+    private String normalized;
+
+    public MetadataValue(String field, String value, String normalized) {
+        this.field = field;
+        this.value = value;
+        this.normalized = normalized;
+    }
+}
@@ -10,6 +10,7 @@ import com.google.gson.annotations.SerializedName;
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NonNull;
 
 import java.util.*;
@@ -59,18 +60,62 @@ public class User {
     @DatabaseField(columnName = "DISALLOWED_TAGS")
     private String disallowedTags;
 
+    // Разобранные значения строковых полей. Объект пользователя переиспользуется между запросами
+    @EqualsAndHashCode.Exclude
+    private transient List<String> allowedCategoryIdsList;
+    @EqualsAndHashCode.Exclude
+    private transient Set<String> authoritiesSet;
+    @EqualsAndHashCode.Exclude
+    private transient Set<String> disallowedGenresSet;
+    @EqualsAndHashCode.Exclude
+    private transient Set<String> disallowedTagsSet;
+
+    public void setRoles(String roles) {
+        this.roles = roles;
+        authoritiesSet = null;
+    }
+
+    public void setAuthorities(String authorities) {
+        this.authorities = authorities;
+        authoritiesSet = null;
+    }
+
+    public void setAllowedCategories(String allowedCategories) {
+        this.allowedCategories = allowedCategories;
+        allowedCategoryIdsList = null;
+    }
+
+    public void setDisallowedGenres(String disallowedGenres) {
+        this.disallowedGenres = disallowedGenres;
+        disallowedGenresSet = null;
+    }
+
+    public void setDisallowedTags(String disallowedTags) {
+        this.disallowedTags = disallowedTags;
+        disallowedTagsSet = null;
+    }
+
     public Set<String> getAuthoritiesSet() {
-        Set<String> authorities = new HashSet<>(ArrayUtils.splitString(getAuthorities(), ","));
+        Set<String> authoritiesSet = this.authoritiesSet;
+        if (authoritiesSet == null) {
+            Set<String> authorities = new HashSet<>(ArrayUtils.splitString(getAuthorities(), ","));
 
-        List<String> roles = ArrayUtils.splitString(getRoles(), ",");
-        roles.forEach(role -> authorities.add(role.startsWith("ROLE_") ? role : "ROLE_" + role));
+            List<String> roles = ArrayUtils.splitString(getRoles(), ",");
+            roles.forEach(role -> authorities.add(role.startsWith("ROLE_") ? role : "ROLE_" + role));
 
-        return authorities;
+            this.authoritiesSet = authoritiesSet = Collections.unmodifiableSet(authorities);
+        }
+        return authoritiesSet;
     }
 
     public Map<String, Category> getAllowedCategoriesMap() {
+        List<String> categoryIds = allowedCategoryIdsList;
+        if (categoryIds == null) {
+            allowedCategoryIdsList = categoryIds = Collections.unmodifiableList(ArrayUtils.splitString(getAllowedCategories(), ","));
+        }
+
+        // Категории могут меняться, поэтому берутся из репозитория при каждом вызове
         Map<String, Category> allowedCategories = new HashMap<>();
-        List<String> categoryIds = ArrayUtils.splitString(getAllowedCategories(), ",");
         categoryIds.forEach(id -> {
             Category category = CategoryRepository.getCategoryById(id);
             if (category != null) {
@@ -96,23 +141,29 @@ public class User {
 
     @NonNull
     public Set<String> getDisallowedGenres() {
-        return Optional.ofNullable(disallowedGenres)
-                .filter(StringUtils::isNotEmpty)
-                .map(genres -> ArrayUtils.splitString(genres, ","))
-                .map(genres -> genres.stream()
-                        .map(String::toLowerCase)
-                        .collect(Collectors.toSet()))
-                .orElseGet(HashSet::new);
+        Set<String> genresSet = disallowedGenresSet;
+        if (genresSet == null) {
+            disallowedGenresSet = genresSet = splitLowerCase(disallowedGenres);
+        }
+        return genresSet;
     }
 
     @NonNull
     public Set<String> getDisallowedTags() {
-        return Optional.ofNullable(disallowedTags)
+        Set<String> tagsSet = disallowedTagsSet;
+        if (tagsSet == null) {
+            disallowedTagsSet = tagsSet = splitLowerCase(disallowedTags);
+        }
+        return tagsSet;
+    }
+
+    private static Set<String> splitLowerCase(String values) {
+        return Collections.unmodifiableSet(Optional.ofNullable(values)
                 .filter(StringUtils::isNotEmpty)
-                .map(tags -> ArrayUtils.splitString(tags, ","))
-                .map(tags -> tags.stream()
+                .map(value -> ArrayUtils.splitString(value, ","))
+                .map(list -> list.stream()
                         .map(String::toLowerCase)
                         .collect(Collectors.toSet()))
-                .orElseGet(HashSet::new);
+                .orElseGet(HashSet::new));
     }
 }
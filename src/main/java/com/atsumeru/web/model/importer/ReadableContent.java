@@ -3,7 +3,9 @@ package com.atsumeru.web.model.importer;
 import com.atsumeru.web.metadata.*;
 import com.atsumeru.web.util.*;
 import com.atsumeru.web.archive.ArchiveReader;
+import com.atsumeru.web.archive.ZipPageTable;
 import com.atsumeru.web.archive.iterator.IArchiveIterator;
+import com.atsumeru.web.archive.iterator.ZipIterator;
 import com.atsumeru.web.enums.BookType;
 import com.atsumeru.web.enums.ContentType;
 import com.atsumeru.web.helper.ChapterRecognition;
@@ -78,6 +80,7 @@ public class ReadableContent implements Closeable {
     private String coverFilePath;
     private Images images;
     private List<String> pageEntryNames;
+    private String pageOffsets; // page locations inside ZIP file, see ZipPageTable
     private List<BookChapter> chapters = new ArrayList<>();
 
     private String serieHash;
@@ -391,6 +394,11 @@ public class ReadableContent implements Closeable {
         if (!isBookFile) {
             // Установка путей к страницам в архиве
             setPageEntryNames(pageEntryNames);
+
+            // Запись смещений страниц внутри ZIP для чтения страниц напрямую из файла
+            if (archiveIterator instanceof ZipIterator) {
+                setPageOffsets(ZipPageTable.create(archivePath, pageEntryNames));
+            }
         }
 
         setChapterPages(chapterPages);
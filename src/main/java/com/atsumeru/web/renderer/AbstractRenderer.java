@@ -1,31 +1,45 @@
 package com.atsumeru.web.renderer;
 
 import com.atsumeru.web.exception.DjVuReadingException;
-import com.atsumeru.web.util.FileUtils;
+import com.atsumeru.web.helper.JpegEncoder;
+import com.atsumeru.web.manager.PagesDiskCache;
+import com.atsumeru.web.manager.Settings;
 import org.slf4j.Logger;
 import org.springframework.lang.Nullable;
 
-import javax.imageio.ImageIO;
 import javax.servlet.http.HttpServletResponse;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.Optional;
 
 public abstract class AbstractRenderer {
+    private static final String CACHE_EXTENSION = "jpg";
 
     public abstract BufferedImage renderPage(int pageIndex, double scaleOrDpi);
 
     public abstract double getScaleOrDpi();
 
+    public abstract int getPagesCount();
+
+    /**
+     * Variant of rendered page in {@link PagesDiskCache}. Must change when output size or source file changes
+     */
+    public abstract String getCacheVariant();
+
     public abstract Logger getLogger();
 
+    protected static String createCacheVariant(String filePath, String scale) {
+        return scale + "_q" + Settings.getJpegQuality() + "_" + Long.toHexString(new File(filePath).lastModified());
+    }
+
     public boolean renderPage(OutputStream outputStream, int pageIndex, double scale) {
         BufferedImage bim = renderPage(pageIndex, scale);
         if (bim != null) {
             try {
-                ImageIO.write(bim, "jpeg", outputStream);
+                JpegEncoder.write(null, outputStream, bim);
                 return true;
             } catch (IOException e) {
                 e.printStackTrace();
@@ -41,19 +55,50 @@ public abstract class AbstractRenderer {
                 .orElseThrow(DjVuReadingException::new);
     }
 
-    private boolean writeBufferedImageIntoResponseOrOutputStream(@Nullable HttpServletResponse response, OutputStream outputStream,
-                                                                 BufferedImage bufferedImage, long timeStart) {
-        try {
-            ByteArrayOutputStream tmp = new ByteArrayOutputStream();
-            ImageIO.write(bufferedImage, "jpeg", tmp);
-            FileUtils.closeQuietly(tmp);
+    /**
+     * Writes page from {@link PagesDiskCache}, rendering it into cache first if needed
+     */
+    public void renderPage(@Nullable HttpServletResponse response, OutputStream outputStream, String bookHash, int page) {
+        if (!PagesDiskCache.isEnabled()) {
+            renderPage(response, outputStream, page);
+            return;
+        }
+
+        long time = System.currentTimeMillis();
+        File cachedPage = Optional.ofNullable(renderPageIntoCache(bookHash, page))
+                .orElseThrow(DjVuReadingException::new);
+        writeFileIntoResponseOrOutputStream(response, outputStream, cachedPage, time);
+    }
 
-            int contentLength = tmp.size();
+    /**
+     * Renders page into {@link PagesDiskCache} if it's not there yet
+     */
+    @Nullable
+    public File renderPageIntoCache(String bookHash, int page) {
+        return PagesDiskCache.getOrCreate(bookHash, page, getCacheVariant(), CACHE_EXTENSION,
+                outputStream -> renderPage(outputStream, page, getScaleOrDpi()));
+    }
+
+    private void writeFileIntoResponseOrOutputStream(@Nullable HttpServletResponse response, OutputStream outputStream,
+                                                     File file, long timeStart) {
+        try {
+            if (response != null) {
+                response.setContentType(JpegEncoder.MIME_TYPE);
+                response.setContentLengthLong(file.length());
+            }
+            Files.copy(file.toPath(), outputStream);
             if (response != null) {
-                response.setContentType("image/jpeg");
-                response.setContentLength(contentLength);
+                getLogger().info("Cached image writing time: " + (System.currentTimeMillis() - timeStart) + "ms. Image length: " + file.length() + " bytes");
             }
-            ImageIO.write(bufferedImage, "jpeg", outputStream);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private boolean writeBufferedImageIntoResponseOrOutputStream(@Nullable HttpServletResponse response, OutputStream outputStream,
+                                                                 BufferedImage bufferedImage, long timeStart) {
+        try {
+            int contentLength = JpegEncoder.write(response, outputStream, bufferedImage);
             if (response != null) {
                 getLogger().info("Image unpacking and writing time: " + (System.currentTimeMillis() - timeStart) + "ms. Image length: " + contentLength + " bytes");
             }
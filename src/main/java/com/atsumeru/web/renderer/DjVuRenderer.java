@@ -7,6 +7,7 @@ import com.atsumeru.web.manager.AtsumeruCacheManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -34,14 +35,33 @@ public class DjVuRenderer extends AbstractRenderer {
         return 2.0;
     }
 
+    @Override
+    public int getPagesCount() {
+        return Optional.ofNullable(getBook())
+                .map(DjVuBook::getTotalPages)
+                .orElse(0);
+    }
+
+    @Override
+    public String getCacheVariant() {
+        return createCacheVariant(filePath, getScaleOrDpi() + "x");
+    }
+
     @Override
     public BufferedImage renderPage(int pageIndex, double scale) {
         return Optional.ofNullable(getBook())
-                .map(book -> book.getPageImage(pageIndex, false, scale))
+                .map(book -> renderPage(book, pageIndex, scale))
                 .map(ImageHelper::toBufferedImage)
                 .orElse(null);
     }
 
+    private static Image renderPage(DjVuBook book, int pageIndex, double scale) {
+        // Страницы одной книги могут рендериться одновременно с прогревом кэша
+        synchronized (book) {
+            return book.getPageImage(pageIndex, false, scale);
+        }
+    }
+
     @Override
     public Logger getLogger() {
         return logger;
@@ -1,19 +1,29 @@
 package com.atsumeru.web.renderer;
 
 import com.atsumeru.web.manager.AtsumeruCacheManager;
+import com.atsumeru.web.util.Workspace;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.rendering.ImageType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.Optional;
+import java.util.function.Function;
 
 public class PDFRenderer extends AbstractRenderer {
     private static final Logger logger = LoggerFactory.getLogger(PDFRenderer.class.getSimpleName());
 
+    /**
+     * Maximum size of heap buffers of one document. Decoded streams that don't fit are kept in scratch file
+     * in {@link Workspace#TEMP_DIR}
+     */
+    public static final long MAX_MAIN_MEMORY_BYTES = 16 * 1024 * 1024;
+
     private final String filePath;
 
     public static PDFRenderer create(String filePath) {
@@ -24,8 +34,31 @@ public class PDFRenderer extends AbstractRenderer {
         this.filePath = filePath;
     }
 
-    public PDDocument getDocument() {
-        return AtsumeruCacheManager.PDF_CACHE.get(new File(filePath), PDFRenderer::load);
+    /**
+     * Runs action with cached document. Document is held while action runs, so it isn't closed by eviction
+     * from cache in the middle of rendering
+     *
+     * @return result of action or null if document can't be loaded
+     */
+    @Nullable
+    private <R> R withDocument(Function<PDDocument, R> action) {
+        File file = new File(filePath);
+        while (true) {
+            SharedDocument<PDDocument> sharedDocument = AtsumeruCacheManager.PDF_CACHE.get(file, PDFRenderer::loadShared);
+            if (sharedDocument == null) {
+                return null;
+            }
+            // Документ вытеснен из кэша между получением и захватом, берётся заново
+            if (!sharedDocument.acquire()) {
+                AtsumeruCacheManager.PDF_CACHE.asMap().remove(file, sharedDocument);
+                continue;
+            }
+            try {
+                return action.apply(sharedDocument.getDocument());
+            } finally {
+                sharedDocument.release();
+            }
+        }
     }
 
     public PDDocument getDocumentNonCacheable() {
@@ -37,19 +70,31 @@ public class PDFRenderer extends AbstractRenderer {
         return 300;
     }
 
+    @Override
+    public int getPagesCount() {
+        return Optional.ofNullable(withDocument(PDDocument::getNumberOfPages))
+                .orElse(0);
+    }
+
+    @Override
+    public String getCacheVariant() {
+        return createCacheVariant(filePath, (int) getScaleOrDpi() + "dpi");
+    }
+
     @Override
     public BufferedImage renderPage(int pageIndex, double dpi) {
-        return Optional.ofNullable(getDocument())
-                .map(document -> renderPage(document, pageIndex - 1, dpi))
-                .orElse(null);
+        return withDocument(document -> renderPage(document, pageIndex - 1, dpi));
     }
 
     private BufferedImage renderPage(PDDocument document, int pageIndex, double dpi) {
-        try {
-            org.apache.pdfbox.rendering.PDFRenderer pdfRenderer = new org.apache.pdfbox.rendering.PDFRenderer(document);
-            return pdfRenderer.renderImageWithDPI(pageIndex, (int) dpi, ImageType.RGB);
-        } catch (IOException e) {
-            e.printStackTrace();
+        // PDDocument не потокобезопасен, а страницы одного документа могут рендериться одновременно с упреждающей загрузкой
+        synchronized (document) {
+            try {
+                org.apache.pdfbox.rendering.PDFRenderer pdfRenderer = new org.apache.pdfbox.rendering.PDFRenderer(document);
+                return pdfRenderer.renderImageWithDPI(pageIndex, (int) dpi, ImageType.RGB);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
         return null;
     }
@@ -59,9 +104,16 @@ public class PDFRenderer extends AbstractRenderer {
         return logger;
     }
 
+    @Nullable
+    private static SharedDocument<PDDocument> loadShared(File file) {
+        return Optional.ofNullable(load(file))
+                .map(SharedDocument::new)
+                .orElse(null);
+    }
+
     private static PDDocument load(File file) {
         try {
-            return PDDocument.load(file);
+            return PDDocument.load(file, MemoryUsageSetting.setupMixed(MAX_MAIN_MEMORY_BYTES).setTempDir(new File(Workspace.TEMP_DIR)));
         } catch (IOException e) {
             e.printStackTrace();
             return null;
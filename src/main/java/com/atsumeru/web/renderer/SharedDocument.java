@@ -0,0 +1,48 @@
+package com.atsumeru.web.renderer;
+
+import com.atsumeru.web.util.FileUtils;
+import lombok.Getter;
+
+import java.io.Closeable;
+
+/**
+ * Cached document shared between threads. Document is closed only after it was evicted from cache and the last
+ * thread that uses it released it
+ */
+public class SharedDocument<T extends Closeable> {
+    @Getter
+    private final T document;
+    private int users;
+    private boolean evicted;
+
+    public SharedDocument(T document) {
+        this.document = document;
+    }
+
+    /**
+     * @return false if document was already evicted and must be taken from cache again
+     */
+    public synchronized boolean acquire() {
+        if (evicted) {
+            return false;
+        }
+        users++;
+        return true;
+    }
+
+    public synchronized void release() {
+        users--;
+        closeIfUnused();
+    }
+
+    public synchronized void evict() {
+        evicted = true;
+        closeIfUnused();
+    }
+
+    private void closeIfUnused() {
+        if (evicted && users == 0) {
+            FileUtils.closeQuietly(document);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.atsumeru.web.repository;
+
+import com.atsumeru.web.enums.LibraryPresentation;
+import com.atsumeru.web.model.book.BookArchive;
+import com.atsumeru.web.model.book.BookSerie;
+import com.atsumeru.web.model.book.IBaseBookItem;
+import com.atsumeru.web.repository.dao.BooksDaoManager;
+import com.atsumeru.web.repository.index.BooksIndex;
+import com.atsumeru.web.repository.index.FacetsIndex;
+import com.atsumeru.web.repository.index.SearchIndex;
+import com.atsumeru.web.util.Workspace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.*;
+import java.util.stream.Collectors;
+
+@Component
+public class BooksIndexRepository {
+    private static final Logger logger = LoggerFactory.getLogger(BooksIndexRepository.class.getSimpleName());
+    private static final BooksDaoManager daoManager;
+
+    private static final BooksIndex seriesIndex = new BooksIndex();
+    private static final BooksIndex archivesIndex = new BooksIndex();
+    private static final FacetsIndex seriesFacets = new FacetsIndex();
+    private static final FacetsIndex singlesFacets = new FacetsIndex();
+    private static final FacetsIndex archivesFacets = new FacetsIndex();
+    private static final SearchIndex seriesSearchIndex = new SearchIndex(new File(Workspace.DATABASES_DIR + "search_series.idx"));
+    private static final SearchIndex archivesSearchIndex = new SearchIndex(new File(Workspace.DATABASES_DIR + "search_archives.idx"));
+    private static volatile boolean isIndexed;
+
+    // Изменения индекса, сделанные во время незавершённой сессии записи. Перестроение индекса читает только
+    // закоммиченные данные, поэтому такие изменения применяются повторно после него
+    private static final List<Runnable> uncommittedChanges = new ArrayList<>();
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(12)
+    public void init() {
+        ensureIndexed();
+    }
+
+    public static synchronized void reIndex() {
+        long time = System.currentTimeMillis();
+        List<IBaseBookItem> series = daoManager.queryAll(BookSerie.class, LibraryPresentation.SERIES_AND_SINGLES);
+        List<IBaseBookItem> archives = daoManager.queryAll(BookArchive.class, LibraryPresentation.ARCHIVES);
+        seriesIndex.rebuild(series);
+        archivesIndex.rebuild(archives);
+        seriesFacets.rebuild(series.stream().filter(item -> !item.isSingle()).collect(Collectors.toList()));
+        singlesFacets.rebuild(series.stream().filter(IBaseBookItem::isSingle).collect(Collectors.toList()));
+        archivesFacets.rebuild(archives);
+        logger.info(String.format("Books index created for %d series and %d archives. Took %dms", series.size(), archives.size(), System.currentTimeMillis() - time));
+
+        time = System.currentTimeMillis();
+        boolean isLoaded = loadOrRebuild(seriesSearchIndex, series) & loadOrRebuild(archivesSearchIndex, archives);
+        logger.info(String.format("Search index %s. Took %dms", isLoaded ? "loaded" : "created", System.currentTimeMillis() - time));
+
+        uncommittedChanges.forEach(Runnable::run);
+        if (!daoManager.isWriteSessionActive()) {
+            uncommittedChanges.clear();
+        }
+
+        // Флаг выставляется только после готовности поисковых индексов, до этого запросы выполняются средствами БД
+        isIndexed = true;
+    }
+
+    /**
+     * Builds index if it's not built yet. Requests waiting for index being built at startup don't rebuild it again
+     */
+    private static synchronized void ensureIndexed() {
+        if (!isIndexed) {
+            reIndex();
+        }
+    }
+
+    private static boolean loadOrRebuild(SearchIndex searchIndex, List<IBaseBookItem> items) {
+        if (searchIndex.load(items.size())) {
+            return true;
+        }
+        searchIndex.rebuild(items);
+        searchIndex.save();
+        return false;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        saveSearchIndex();
+    }
+
+    public static void saveSearchIndex() {
+        if (isIndexed) {
+            seriesSearchIndex.save();
+            archivesSearchIndex.save();
+        }
+    }
+
+    public static boolean isIndexed() {
+        return isIndexed;
+    }
+
+    public static BooksIndex getIndex(LibraryPresentation libraryPresentation) {
+        if (!isIndexed) {
+            ensureIndexed();
+        }
+        return libraryPresentation.isArchivesPresentation() ? archivesIndex : seriesIndex;
+    }
+
+    /**
+     * Returns precomputed filter facets for presentation, content type and category. Books with any of
+     * disallowed genres or tags are not counted
+     */
+    public static Map<FacetsIndex.Facet, Map<String, Long>> getFacets(LibraryPresentation libraryPresentation, String contentType, String category,
+                                                                      Collection<String> disallowedGenres, Collection<String> disallowedTags) {
+        if (!isIndexed) {
+            ensureIndexed();
+        }
+
+        List<FacetsIndex> facetsIndexes = new ArrayList<>();
+        if (libraryPresentation.isArchivesPresentation()) {
+            facetsIndexes.add(archivesFacets);
+        }
+        if (libraryPresentation.isSeriesPresentation() || libraryPresentation.isSeriesAndSinglesPresentation()) {
+            facetsIndexes.add(seriesFacets);
+        }
+        if (libraryPresentation.isSinglesPresentation() || libraryPresentation.isSeriesAndSinglesPresentation()) {
+            facetsIndexes.add(singlesFacets);
+        }
+
+        Map<FacetsIndex.Facet, Map<String, Long>> facets = new EnumMap<>(FacetsIndex.Facet.class);
+        facetsIndexes.forEach(index -> index.getFacets(contentType, category, disallowedGenres, disallowedTags)
+                .forEach((facet, counts) -> counts.forEach((value, count) -> facets.computeIfAbsent(facet, key -> new HashMap<>())
+                        .merge(value, count, Long::sum))));
+        return facets;
+    }
+
+    public static SearchIndex getSearchIndex(LibraryPresentation libraryPresentation) {
+        if (!isIndexed) {
+            ensureIndexed();
+        }
+        return libraryPresentation.isArchivesPresentation() ? archivesSearchIndex : seriesSearchIndex;
+    }
+
+    /**
+     * Changes are serialized with {@link #reIndex()}, so they are never lost by rebuilding index from older snapshot
+     */
+    public static synchronized void update(IBaseBookItem item) {
+        applyChange(() -> {
+            Optional.ofNullable(getIndexForItem(item)).ifPresent(index -> index.put(item));
+            Optional.ofNullable(getSearchIndexForItem(item)).ifPresent(index -> index.put(item));
+            putFacets(item);
+            MetacategoryRepository.update(item);
+        });
+    }
+
+    public static synchronized void update(Collection<? extends IBaseBookItem> items) {
+        items.forEach(BooksIndexRepository::update);
+    }
+
+    public static synchronized void remove(IBaseBookItem item) {
+        applyChange(() -> {
+            Optional.ofNullable(getIndexForItem(item)).ifPresent(index -> index.remove(item.getDbId()));
+            Optional.ofNullable(getSearchIndexForItem(item)).ifPresent(index -> index.remove(item.getDbId()));
+            removeFacets(item);
+        });
+    }
+
+    public static synchronized void remove(Collection<? extends IBaseBookItem> items) {
+        items.forEach(BooksIndexRepository::remove);
+    }
+
+    public static synchronized void removeSerie(Long serieDbId) {
+        applyChange(() -> {
+            seriesIndex.remove(serieDbId);
+            seriesSearchIndex.remove(serieDbId);
+            seriesFacets.remove(serieDbId);
+            singlesFacets.remove(serieDbId);
+            MetacategoryRepository.remove(serieDbId);
+        });
+    }
+
+    private static void applyChange(Runnable change) {
+        change.run();
+        if (daoManager.isWriteSessionActive()) {
+            uncommittedChanges.add(change);
+        } else {
+            // Всё, что было сделано в сессии записи, уже закоммичено и попадёт в индекс при перестроении
+            uncommittedChanges.clear();
+        }
+    }
+
+    private static void putFacets(IBaseBookItem item) {
+        if (item instanceof BookSerie) {
+            // Серия могла стать синглом и наоборот
+            (item.isSingle() ? seriesFacets : singlesFacets).remove(item.getDbId());
+            (item.isSingle() ? singlesFacets : seriesFacets).put(item);
+        } else if (item instanceof BookArchive) {
+            archivesFacets.put(item);
+        }
+    }
+
+    private static void removeFacets(IBaseBookItem item) {
+        if (item instanceof BookSerie) {
+            seriesFacets.remove(item.getDbId());
+            singlesFacets.remove(item.getDbId());
+            MetacategoryRepository.remove(item.getDbId());
+        } else if (item instanceof BookArchive) {
+            archivesFacets.remove(item.getDbId());
+        }
+    }
+
+    private static BooksIndex getIndexForItem(IBaseBookItem item) {
+        if (item instanceof BookSerie) {
+            return seriesIndex;
+        } else if (item instanceof BookArchive) {
+            return archivesIndex;
+        }
+        return null;
+    }
+
+    private static SearchIndex getSearchIndexForItem(IBaseBookItem item) {
+        if (item instanceof BookSerie) {
+            return seriesSearchIndex;
+        } else if (item instanceof BookArchive) {
+            return archivesSearchIndex;
+        }
+        return null;
+    }
+
+    static {
+        daoManager = BooksDatabaseRepository.getInstance().getDaoManager();
+    }
+}
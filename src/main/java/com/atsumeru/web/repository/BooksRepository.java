@@ -1,5 +1,6 @@
 package com.atsumeru.web.repository;
 
+import com.atsumeru.web.enums.BookValueField;
 import com.atsumeru.web.enums.ContentType;
 import com.atsumeru.web.enums.LibraryPresentation;
 import com.atsumeru.web.enums.Sort;
@@ -9,12 +10,15 @@ import com.atsumeru.web.helper.Constants;
 import com.atsumeru.web.manager.Settings;
 import com.atsumeru.web.model.book.BookArchive;
 import com.atsumeru.web.model.book.BookSerie;
+import com.atsumeru.web.model.book.BooksCursor;
+import com.atsumeru.web.model.book.BooksPage;
 import com.atsumeru.web.model.book.IBaseBookItem;
 import com.atsumeru.web.model.book.chapter.BookChapter;
 import com.atsumeru.web.model.book.volume.VolumeItem;
 import com.atsumeru.web.model.database.History;
 import com.atsumeru.web.model.database.User;
 import com.atsumeru.web.repository.dao.BooksDaoManager;
+import com.atsumeru.web.repository.dao.BooksQuery;
 import com.atsumeru.web.service.UserDatabaseDetailsService;
 import com.atsumeru.web.util.ArrayUtils;
 import com.atsumeru.web.util.StringUtils;
@@ -23,9 +27,15 @@ import kotlin.Pair;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class BooksRepository {
+    private static final String CONTENT_TYPE_FIELD_NAME = "CONTENT_TYPE";
+    private static final String CATEGORIES_FIELD_NAME = "CATEGORIES";
+
+    private static final int STREAM_CHUNK_SIZE = 200;
+
     private static final BooksDaoManager daoManager;
 
     static {
@@ -35,60 +45,108 @@ public class BooksRepository {
     /* ***************************************** */
     /*                Book List                  */
     /* ***************************************** */
-    public static List<IBaseBookItem> getBooks(User user, LibraryPresentation libraryPresentation, long page, long limit,
-                                               boolean withVolumesAndHistory, boolean withChapters) {
-        return getBooks(user, libraryPresentation, null, null, Sort.TITLE, true, page, limit, withVolumesAndHistory, withChapters, false);
-    }
-
-    public static List<IBaseBookItem> getBooks(User user, LibraryPresentation libraryPresentation, ContentType contentType, String category, Sort sort,
-                                               boolean ascendingOrder, long page, long limit, boolean withVolumesAndHistory, boolean withChapters, boolean getAll) {
-        boolean isGetAll = getAll || sort == Sort.LAST_READ || sort == Sort.PARODY;
-
-        long realOffset = isGetAll ? 0 : (page - 1) * limit;
-        long realLimit = isGetAll ? Integer.MAX_VALUE : limit;
-
-        Set<String> disallowedGenres = user.getDisallowedGenres();
-        Set<String> disallowedTags = user.getDisallowedTags();
-
-        List<IBaseBookItem> list = daoManager.query(
-                        getOrderByColumnNameForSort(sort),
-                        ascendingOrder,
-                        contentType,
-                        category,
-                        user.getAllowedContentTypes(),
-                        user.getAllowedCategoryIds(),
-                        libraryPresentation,
-                        libraryPresentation.getDbClassForPresentation()
-                ).stream()
-                .map(IBaseBookItem.class::cast)
-                .filter(item -> FilteredBooksRepository.isNotInSet(item.getGenres(), disallowedGenres))
-                .filter(item -> FilteredBooksRepository.isNotInSet(item.getTags(), disallowedTags))
-                .skip(realOffset)
-                .limit(realLimit)
-                .peek(BooksRepository::postGetBook)
-                .collect(Collectors.toList());
+    public static BooksPage getBooks(User user, LibraryPresentation libraryPresentation, long page, long limit,
+                                     boolean withVolumesAndHistory, boolean withChapters) {
+        return getBooks(user, libraryPresentation, null, null, Sort.TITLE, true, page, limit, null, withVolumesAndHistory, withChapters);
+    }
 
-        loadVolumesAndChaptersInfo(user, libraryPresentation, list, withVolumesAndHistory, withChapters, getAll);
-
-        if (sort == Sort.LAST_READ || sort == Sort.PARODY || sort == Sort.SERIE) {
-            switch (sort) {
-                case LAST_READ:
-                    list.sort(FilteredBooksRepository.getLastReadComparator());
-                    break;
-                case PARODY:
-                    list.sort(FilteredBooksRepository.getParodyComparator());
-                    break;
-                case SERIE:
-                    list.sort(FilteredBooksRepository.getSerieComparator());
-                    break;
-            }
-            return list.stream()
-                    .skip((page - 1) * limit)
-                    .limit(limit)
+    /**
+     * Returns page of books. Page starts right after {@code cursor} if it is present, otherwise page number is used
+     */
+    public static BooksPage getBooks(User user, LibraryPresentation libraryPresentation, ContentType contentType, String category, Sort sort,
+                                     boolean ascendingOrder, long page, long limit, @Nullable BooksCursor cursor, boolean withVolumesAndHistory,
+                                     boolean withChapters) {
+        Pair<List<Long>, BooksCursor> idsPage = getBooksPage(user, libraryPresentation, contentType, category, sort, ascendingOrder,
+                (page - 1) * limit, limit, cursor);
+        List<IBaseBookItem> list = getBooksByIds(idsPage.getFirst(), libraryPresentation);
+        loadVolumesAndChaptersInfo(user, libraryPresentation, list, withVolumesAndHistory, withChapters, false);
+        return new BooksPage(list, idsPage.getFirst().size() == limit ? idsPage.getSecond() : null);
+    }
+
+    /**
+     * Passes all books to {@code consumer} in requested order. Books are loaded from database in chunks
+     * of {@link #STREAM_CHUNK_SIZE}, so only one chunk is held in memory at a time. {@code onChunkEnd}
+     * is called after each chunk, e.g. to flush already written data
+     */
+    public static void streamBooks(User user, LibraryPresentation libraryPresentation, ContentType contentType, String category, Sort sort,
+                                   boolean ascendingOrder, boolean withVolumesAndHistory, boolean withChapters,
+                                   Consumer<IBaseBookItem> consumer, Runnable onChunkEnd) {
+        List<Long> ids = getBooksPage(user, libraryPresentation, contentType, category, sort, ascendingOrder, 0, Integer.MAX_VALUE, null)
+                .getFirst();
+        streamBooksByIds(user, libraryPresentation, ids, withVolumesAndHistory, withChapters, consumer, onChunkEnd);
+    }
+
+    /**
+     * Same as {@link #streamBooks} for books found by {@code search}. Found ids are ranked once by search index and
+     * books are loaded in chunks, as for whole library
+     */
+    public static void streamSearchResults(User user, LibraryPresentation libraryPresentation, ContentType contentType, String category,
+                                           String search, Sort sort, boolean ascendingOrder, boolean withVolumesAndHistory, boolean withChapters,
+                                           Consumer<IBaseBookItem> consumer, Runnable onChunkEnd) {
+        List<Long> ids = FilteredBooksRepository.getSearchResultIds(user, contentType, category, libraryPresentation, search, sort, ascendingOrder);
+        if (sort == Sort.LAST_READ) {
+            // История чтения хранится отдельно от индекса, поэтому найденные книги упорядочиваются запросом к БД
+            Set<Long> foundIds = new HashSet<>(ids);
+            ids = getBooksPage(user, libraryPresentation, null, null, sort, ascendingOrder, 0, Integer.MAX_VALUE, null)
+                    .getFirst()
+                    .stream()
+                    .filter(foundIds::contains)
                     .collect(Collectors.toList());
         }
+        streamBooksByIds(user, libraryPresentation, ids, withVolumesAndHistory, withChapters, consumer, onChunkEnd);
+    }
+
+    private static void streamBooksByIds(User user, LibraryPresentation libraryPresentation, List<Long> ids, boolean withVolumesAndHistory,
+                                         boolean withChapters, Consumer<IBaseBookItem> consumer, Runnable onChunkEnd) {
+        for (int from = 0; from < ids.size(); from += STREAM_CHUNK_SIZE) {
+            List<IBaseBookItem> chunk = getBooksByIds(ids.subList(from, Math.min(from + STREAM_CHUNK_SIZE, ids.size())), libraryPresentation);
+            // Главы не загружаются, как и при запросе всего списка книг одной страницей
+            loadVolumesAndChaptersInfo(user, libraryPresentation, chunk, withVolumesAndHistory, withChapters, false, true);
+            chunk.forEach(consumer);
+            onChunkEnd.run();
+        }
+    }
+
+    private static Pair<List<Long>, BooksCursor> getBooksPage(User user, LibraryPresentation libraryPresentation, ContentType contentType,
+                                                              String category, Sort sort, boolean ascendingOrder, long offset, long limit,
+                                                              @Nullable BooksCursor cursor) {
+        BooksQuery query = new BooksQuery(libraryPresentation)
+                .whereEquals(CONTENT_TYPE_FIELD_NAME, contentType)
+                .whereIn(CONTENT_TYPE_FIELD_NAME, user.getAllowedContentTypes())
+                .withoutValues(BookValueField.GENRES, user.getDisallowedGenres())
+                .withoutValues(BookValueField.TAGS, user.getDisallowedTags())
+                .orderBy(sort, ascendingOrder)
+                .forUser(user.getId())
+                .page(offset, limit)
+                .after(cursor);
+
+        if (StringUtils.isNotEmpty(category)) {
+            query.withValue(BookValueField.CATEGORIES, category);
+        } else if (contentType != null) {
+            query.whereNull(CATEGORIES_FIELD_NAME);
+        }
 
-        return list;
+        if (sort == Sort.LAST_READ) {
+            HistoryRepository.flush();
+        }
+
+        return daoManager.queryPage(query);
+    }
+
+    /**
+     * Loads books by database ids keeping order of ids
+     */
+    public static List<IBaseBookItem> getBooksByIds(List<Long> ids, LibraryPresentation libraryPresentation) {
+        Map<Long, IBaseBookItem> itemsMap = daoManager.queryByIds(ids, libraryPresentation.getDbClassForPresentation())
+                .stream()
+                .map(IBaseBookItem.class::cast)
+                .collect(Collectors.toMap(IBaseBookItem::getDbId, item -> item));
+
+        return ids.stream()
+                .map(itemsMap::get)
+                .filter(Objects::nonNull)
+                .peek(BooksRepository::postGetBook)
+                .collect(Collectors.toList());
     }
 
     private static void postGetBook(IBaseBookItem item) {
@@ -171,10 +229,12 @@ public class BooksRepository {
     /* ***************************************** */
     /*               Book Deletion               */
     /* ***************************************** */
-    public static void deleteBook(User user, String bookHash) {
+    public static IBaseBookItem deleteBook(User user, String bookHash) {
         IBaseBookItem bookItem = getBookDetails(user, bookHash, false, false);
         bookItem.setRemoved(true);
         daoManager.save(bookItem);
+        BooksIndexRepository.update(bookItem);
+        return bookItem;
     }
 
     /* ***************************************** */
@@ -205,13 +265,19 @@ public class BooksRepository {
 
     public static void loadVolumesAndChaptersInfo(User user, LibraryPresentation libraryPresentation, List<IBaseBookItem> list,
                                                   boolean withVolumesAndHistory, boolean withChapters, boolean getAll) {
+        loadVolumesAndChaptersInfo(user, libraryPresentation, list, withVolumesAndHistory, withChapters, getAll, getAll);
+    }
+
+    private static void loadVolumesAndChaptersInfo(User user, LibraryPresentation libraryPresentation, List<IBaseBookItem> list,
+                                                   boolean withVolumesAndHistory, boolean withChapters, boolean queryAllArchives,
+                                                   boolean skipChapters) {
         if (withVolumesAndHistory || withChapters) {
             boolean isSerieOrSingle = libraryPresentation.isSeriesOrSinglesPresentation();
             List<History> historyList = getHistoryForItem(user, list, isSerieOrSingle);
-            List<IBaseBookItem> archives = getArchivesForItems(list, isSerieOrSingle, getAll);
+            List<IBaseBookItem> archives = getArchivesForItems(list, isSerieOrSingle, queryAllArchives);
             Map<Long, List<IBaseBookItem>> archivesMap = archivesToMap(archives, isSerieOrSingle);
-            Map<String, List<BookChapter>> chaptersMap = !Settings.isDisableChapters() && !getAll
-                    ? getChaptersToMapForArchives(archives, withChapters, isSerieOrSingle, getAll)
+            Map<String, List<BookChapter>> chaptersMap = !Settings.isDisableChapters() && !skipChapters
+                    ? getChaptersToMapForArchives(archives, withChapters, isSerieOrSingle, queryAllArchives)
                     : new HashMap<>();
 
             list.forEach(item -> createVolumesWithHistoryForItem(
@@ -227,13 +293,13 @@ public class BooksRepository {
     }
 
     private static List<History> getHistoryForItem(User user, List<IBaseBookItem> list, boolean isSerieOrSingle) {
-        return daoManager.getHistoryDao().queryByHashesForUser(
+        return HistoryRepository.withPendingHistory(daoManager.getHistoryDao().queryByHashesForUser(
                 list.stream()
                         .map(IBaseBookItem::getContentId)
                         .collect(Collectors.toList()),
                 String.valueOf(user.getId()),
                 isSerieOrSingle ? BookSerie.class : BookArchive.class
-        );
+        ));
     }
 
     private static List<IBaseBookItem> getArchivesForItems(List<IBaseBookItem> list, boolean isSerieOrSingle, boolean getAll) {
@@ -303,16 +369,24 @@ public class BooksRepository {
         )
                 : new ArrayList<>();
 
-        List<History> historyList = daoManager.getHistoryDao().queryByHashForUser(
+        List<History> historyList = HistoryRepository.withPendingHistory(daoManager.getHistoryDao().queryByHashForUser(
                 itemHash,
                 String.valueOf(user.getId()),
                 isSerie ? BookSerie.class : BookArchive.class
-        );
+        ));
 
         createVolumesWithHistoryForItem(contentList, baseItem, chapters, historyList, isSerie, withChapters, includeFileInfo);
     }
 
 
+    /**
+     * Creates volumes without chapters using already loaded History entries of item
+     */
+    public static void createVolumesWithHistoryForItem(List<IBaseBookItem> contentList, IBaseBookItem baseItem, List<History> historyList,
+                                                       boolean isSerie, boolean includeFileInfo) {
+        createVolumesWithHistoryForItem(contentList, baseItem, new ArrayList<>(), historyList, isSerie, false, includeFileInfo);
+    }
+
     private static void createVolumesWithHistoryForItem(List<IBaseBookItem> contentList, IBaseBookItem baseItem, List<BookChapter> chapters,
                                                         List<History> historyList, boolean isSerie, boolean withChapters, boolean includeFileInfo) {
         if (ArrayUtils.isEmpty(contentList)) {
@@ -362,13 +436,4 @@ public class BooksRepository {
     public static boolean isChapterHash(@Nullable String itemHash) {
         return StringUtils.isNotEmpty(itemHash) && !itemHash.startsWith(Constants.ARCHIVE_HASH_TAG);
     }
-
-    private static String getOrderByColumnNameForSort(Sort sort) {
-        if (sort == null || sort == Sort.LAST_READ || sort == Sort.PARODY) {
-            return Sort.CREATED_AT.name();
-        } else if (sort == Sort.POPULARITY) {
-            return "RATING";
-        }
-        return sort.name();
-    }
 }
@@ -60,6 +60,7 @@ public class CategoryRepository {
                 .collect(Collectors.toList());
 
         items.forEach(daoManager::save);
+        BooksIndexRepository.update(items);
 
         daoManager.commit();
         daoManager.setAutoCommit(true);
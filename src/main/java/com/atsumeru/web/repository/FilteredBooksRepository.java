@@ -3,26 +3,35 @@ package com.atsumeru.web.repository;
 import com.atsumeru.web.enums.*;
 import com.atsumeru.web.util.StringUtils;
 import com.atsumeru.web.component.Localizr;
+import com.atsumeru.web.model.book.BooksCursor;
+import com.atsumeru.web.model.book.BooksPage;
 import com.atsumeru.web.model.book.IBaseBookItem;
 import com.atsumeru.web.model.book.volume.VolumeItem;
 import com.atsumeru.web.model.database.Category;
 import com.atsumeru.web.model.database.History;
 import com.atsumeru.web.model.database.User;
 import com.atsumeru.web.model.filter.Filters;
+import com.atsumeru.web.repository.dao.BooksDaoManager;
+import com.atsumeru.web.repository.dao.BooksQuery;
+import com.atsumeru.web.repository.index.BooksIndex;
+import com.atsumeru.web.repository.index.FacetsIndex;
 import com.atsumeru.web.util.ArrayUtils;
 import com.atsumeru.web.util.EnumUtils;
 import com.atsumeru.web.util.comparator.AlphanumComparator;
 import com.atsumeru.web.util.comparator.NaturalStringComparator;
+import kotlin.Pair;
 import org.springframework.util.MultiValueMap;
 
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class FilteredBooksRepository {
     public static final Comparator<IBaseBookItem> TITLE_COMPARATOR = (item1, item2) -> NaturalStringComparator.compareStrings(item1.getTitle(), item2.getTitle());
 
-    public static List<IBaseBookItem> getFilteredList(User user, ContentType contentType, String category, LibraryPresentation libraryPresentation, String search,
-                                                      Sort sort, boolean ascending, MultiValueMap<String, String> filtersMap, int page, int limit, boolean withVolumesAndHistory, boolean withChapters) {
+    public static BooksPage getFilteredList(User user, ContentType contentType, String category, LibraryPresentation libraryPresentation, String search,
+                                            Sort sort, boolean ascending, MultiValueMap<String, String> filtersMap, int page, int limit, BooksCursor cursor,
+                                            boolean withVolumesAndHistory, boolean withChapters) {
         Status status = EnumUtils.valueOfOrNull(Status.class, filtersMap.getFirst("status"));
         TranslationStatus translationStatus = EnumUtils.valueOfOrNull(TranslationStatus.class, filtersMap.getFirst("translation_status"));
         PlotType plotType = EnumUtils.valueOfOrNull(PlotType.class, filtersMap.getFirst("plot_type"));
@@ -60,247 +69,287 @@ public class FilteredBooksRepository {
                 ArrayUtils.splitString(filtersMap.getFirst("parodies"), ","), parodiesMode,
                 ArrayUtils.splitString(filtersMap.getFirst("circles"), ","), circlesMode,
                 ArrayUtils.splitString(filtersMap.getFirst("magazines"), ","), magazinesMode,
-                ArrayUtils.splitString(filtersMap.getFirst("years"), ","), page, limit,
+                ArrayUtils.splitString(filtersMap.getFirst("years"), ","), page, limit, cursor,
                 withVolumesAndHistory, withChapters);
     }
 
-    public static List<IBaseBookItem> getFilteredList(User user, ContentType contentType, String category, LibraryPresentation libraryPresentation, String search,
-                                                      Sort sort, boolean ascending, Status status, TranslationStatus translationStatus,
-                                                      PlotType plotType, Censorship censorship, Color color, AgeRating ageRating,
-                                                      List<String> authors, LogicalMode authorsMode, List<String> artists, LogicalMode artistsMode,
-                                                      List<String> publishers, LogicalMode publishersMode, List<String> translators, LogicalMode translatorsMode,
-                                                      List<String> genres, LogicalMode genresMode, List<String> tags, LogicalMode tagsMode,
-                                                      List<String> countries, LogicalMode countriesMode, List<String> languages, LogicalMode languagesMode,
-                                                      List<String> events, LogicalMode eventsMode, List<String> characters, LogicalMode charactersMode,
-                                                      List<String> series, LogicalMode seriesMode, List<String> parodies, LogicalMode parodiesMode,
-                                                      List<String> circles, LogicalMode circlesMode, List<String> magazines, LogicalMode magazinesMode, List<String> years,
-                                                      int page, int limit, boolean withVolumesAndHistory, boolean withChapters) {
-        List<IBaseBookItem> list = BooksRepository.getBooks(user, libraryPresentation, 1, Integer.MAX_VALUE, false, false);
-
+    /**
+     * Returns page of filtered books. Page starts right after {@code cursor} if it is present, otherwise page number is used
+     */
+    public static BooksPage getFilteredList(User user, ContentType contentType, String category, LibraryPresentation libraryPresentation, String search,
+                                            Sort sort, boolean ascending, Status status, TranslationStatus translationStatus,
+                                            PlotType plotType, Censorship censorship, Color color, AgeRating ageRating,
+                                            List<String> authors, LogicalMode authorsMode, List<String> artists, LogicalMode artistsMode,
+                                            List<String> publishers, LogicalMode publishersMode, List<String> translators, LogicalMode translatorsMode,
+                                            List<String> genres, LogicalMode genresMode, List<String> tags, LogicalMode tagsMode,
+                                            List<String> countries, LogicalMode countriesMode, List<String> languages, LogicalMode languagesMode,
+                                            List<String> events, LogicalMode eventsMode, List<String> characters, LogicalMode charactersMode,
+                                            List<String> series, LogicalMode seriesMode, List<String> parodies, LogicalMode parodiesMode,
+                                            List<String> circles, LogicalMode circlesMode, List<String> magazines, LogicalMode magazinesMode, List<String> years,
+                                            int page, int limit, BooksCursor cursor, boolean withVolumesAndHistory, boolean withChapters) {
         Map<String, Category> allowedCategoriesMap = user.getAllowedCategoriesMap();
-        List<ContentType> allowedContentTypes = allowedCategoriesMap.values().stream()
-                .map(Category::getContentType)
-                .filter(StringUtils::isNotEmpty)
-                .map(type -> EnumUtils.valueOfOrNull(ContentType.class, type))
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
-        List<String> allowedCategories = allowedCategoriesMap.values().stream()
-                .map(Category::getCategoryId)
-                .map(CategoryRepository::createDbIdForCategoryId)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+        List<String> allowedContentTypes = getAllowedContentTypes(allowedCategoriesMap);
+        List<String> allowedCategories = getAllowedCategories(allowedCategoriesMap);
 
         Set<String> disallowedGenres = user.getDisallowedGenres();
         Set<String> disallowedTags = user.getDisallowedTags();
 
         List<String> genreIds = genresToIds(genres);
-        List<IBaseBookItem> filteredList = list.stream().filter(it -> {
-            if (StringUtils.isNotEmpty(search)) {
-                if (!(StringUtils.containsIgnoreCase(it.getTitle(), search)
-                        || StringUtils.containsIgnoreCase(it.getAltTitle(), search)
-                        || StringUtils.containsIgnoreCase(it.getJapTitle(), search)
-                        || StringUtils.containsIgnoreCase(it.getKorTitle(), search)
-                        || StringUtils.containsIgnoreCase(it.getAuthors(), search)
-                        || StringUtils.containsIgnoreCase(it.getArtists(), search)
-                        || StringUtils.containsIgnoreCase(it.getTranslators(), search)
-                        || StringUtils.containsIgnoreCase(it.getPublisher(), search)
-                        || StringUtils.containsIgnoreCase(it.getGenres(), search) // TODO: localized genres support
-                        || StringUtils.containsIgnoreCase(it.getTags(), search)
-                        || StringUtils.containsIgnoreCase(it.getYear(), search)
-                        || StringUtils.containsIgnoreCase(it.getCountry(), search)
-                        || StringUtils.containsIgnoreCase(it.getLanguage(), search)
-                        || StringUtils.containsIgnoreCase(it.getEvent(), search)
-                        || StringUtils.containsIgnoreCase(it.getCharacters(), search)
-                        || StringUtils.containsIgnoreCase(it.getSeries(), search)
-                        || StringUtils.containsIgnoreCase(it.getParodies(), search)
-                        || StringUtils.containsIgnoreCase(it.getCircles(), search)
-                        || StringUtils.containsIgnoreCase(it.getMagazines(), search)
-                        || StringUtils.containsIgnoreCase(it.getDescription(), search))) {
-                    return false;
-                }
+
+        boolean isLastReadSort = sort == Sort.LAST_READ;
+        long offset = (long) (page - 1) * limit;
+
+        if (StringUtils.isEmpty(search) && !BooksIndexRepository.isIndexed()) {
+            // Пока индекс строится, запрос выполняется средствами БД, чтобы не ждать окончания индексации
+            BooksQuery query = new BooksQuery(libraryPresentation)
+                    .whereEquals("CONTENT_TYPE", contentType)
+                    .whereEquals("STATUS", status)
+                    .whereEquals("TRANSLATION_STATUS", translationStatus)
+                    .whereEquals("PLOT_TYPE", plotType)
+                    .whereEquals("CENSORSHIP", censorship)
+                    .whereEquals("COLOR", color)
+                    .whereAgeRating(ageRating)
+                    .withMatching(BookValueField.AUTHORS, authors, authorsMode)
+                    .withMatching(BookValueField.ARTISTS, artists, artistsMode)
+                    .withMatching(BookValueField.PUBLISHERS, publishers, publishersMode)
+                    .withMatching(BookValueField.TRANSLATORS, translators, translatorsMode)
+                    .withMatching(BookValueField.YEARS, years, LogicalMode.OR)
+                    .withMatching(BookValueField.GENRES, genreIds, genresMode)
+                    .withMatching(BookValueField.TAGS, tags, tagsMode)
+                    .withMatching(BookValueField.COUNTRIES, countries, countriesMode)
+                    .withMatching(BookValueField.LANGUAGES, languages, languagesMode)
+                    .withMatching(BookValueField.EVENTS, events, eventsMode)
+                    .withMatching(BookValueField.CHARACTERS, characters, charactersMode)
+                    .withMatching(BookValueField.SERIES, series, seriesMode)
+                    .withMatching(BookValueField.PARODIES, parodies, parodiesMode)
+                    .withMatching(BookValueField.CIRCLES, circles, circlesMode)
+                    .withMatching(BookValueField.MAGAZINES, magazines, magazinesMode)
+                    .withoutValues(BookValueField.GENRES, disallowedGenres)
+                    .withoutValues(BookValueField.TAGS, disallowedTags)
+                    .orderBy(sort, ascending || sort == null)
+                    .forUser(user.getId())
+                    .page(offset, limit)
+                    .after(cursor);
+
+            if (StringUtils.isNotEmpty(category)) {
+                query.withAnyValueOrEmpty(BookValueField.CATEGORIES, Collections.singletonList(category));
+            }
+            if (ArrayUtils.isNotEmpty(allowedCategoriesMap)) {
+                query.whereIn("CONTENT_TYPE", allowedContentTypes);
             }
+            query.withAnyValueOrEmpty(BookValueField.CATEGORIES, allowedCategories);
 
-            if (StringUtils.isNotEmpty(it.getCategories()) && StringUtils.isNotEmpty(category)) {
-                if (!it.getCategories().contains(category)) {
-                    return false;
-                }
+            if (isLastReadSort) {
+                HistoryRepository.flush();
             }
 
-            if (contentType != null && it.getContentType() != contentType
-                    || status != null && it.getStatus() != status
-                    || translationStatus != null && it.getTranslationStatus() != translationStatus
-                    || plotType != null && it.getPlotType() != plotType
-                    || censorship != null && it.getCensorship() != censorship
-                    || color != null && it.getColor() != color
-                    || ageRating != null && it.getAgeRating() != ageRating) {
-                return false;
+            Pair<List<Long>, BooksCursor> idsPage = BooksDatabaseRepository.getInstance().getDaoManager().queryPage(query);
+            List<IBaseBookItem> list = BooksRepository.getBooksByIds(idsPage.getFirst(), libraryPresentation);
+            BooksRepository.loadVolumesAndChaptersInfo(user, libraryPresentation, list, withVolumesAndHistory, withChapters, false);
+            return new BooksPage(list, idsPage.getFirst().size() == limit ? idsPage.getSecond() : null);
+        }
+
+        Map<Long, Float> searchScores = StringUtils.isNotEmpty(search)
+                ? BooksIndexRepository.getSearchIndex(libraryPresentation).search(search)
+                : null;
+        boolean isRelevanceSort = searchScores != null && sort == null;
+
+        BooksIndex index = BooksIndexRepository.getIndex(libraryPresentation);
+        Pair<List<Long>, BooksCursor> idsPage = index.read(() -> {
+            BitSet docs = index.select(libraryPresentation);
+
+            if (StringUtils.isNotEmpty(category)) {
+                index.retainAnyOrEmpty(docs, BooksIndex.Field.CATEGORIES, Collections.singletonList(category));
             }
 
-            if (!itemHasFiltersEntry(authors, ArrayUtils.splitString(it.getAuthors(), ","), authorsMode)
-                    || !itemHasFiltersEntry(artists, ArrayUtils.splitString(it.getArtists(), ","), artistsMode)
-                    || !itemHasFiltersEntry(publishers, ArrayUtils.splitString(it.getPublisher(), ","), publishersMode)
-                    || !itemHasFiltersEntry(translators, ArrayUtils.splitString(it.getTranslators(), ","), translatorsMode)
-                    || !itemHasFiltersEntry(years, ArrayUtils.splitString(it.getYear(), ","), LogicalMode.OR)
-                    || !itemHasFiltersEntry(genreIds, ArrayUtils.splitString(it.getGenres(), ","), genresMode)
-                    || !itemHasFiltersEntry(tags, ArrayUtils.splitString(it.getTags(), ","), tagsMode)
-                    || !itemHasFiltersEntry(countries, ArrayUtils.splitString(it.getCountry(), ","), countriesMode)
-                    || !itemHasFiltersEntry(languages, ArrayUtils.splitString(it.getLanguage(), ","), languagesMode)
-                    || !itemHasFiltersEntry(events, ArrayUtils.splitString(it.getEvent(), ","), eventsMode)
-                    || !itemHasFiltersEntry(characters, ArrayUtils.splitString(it.getCharacters(), ","), charactersMode)
-                    || !itemHasFiltersEntry(series, ArrayUtils.splitString(it.getSeries(), ","), seriesMode)
-                    || !itemHasFiltersEntry(parodies, ArrayUtils.splitString(it.getParodies(), ","), parodiesMode)
-                    || !itemHasFiltersEntry(circles, ArrayUtils.splitString(it.getCircles(), ","), circlesMode)
-                    || !itemHasFiltersEntry(magazines, ArrayUtils.splitString(it.getMagazines(), ","), magazinesMode)) {
-                return false;
+            index.retainEquals(docs, BooksIndex.Field.CONTENT_TYPE, contentType);
+            index.retainEquals(docs, BooksIndex.Field.STATUS, status);
+            index.retainEquals(docs, BooksIndex.Field.TRANSLATION_STATUS, translationStatus);
+            index.retainEquals(docs, BooksIndex.Field.PLOT_TYPE, plotType);
+            index.retainEquals(docs, BooksIndex.Field.CENSORSHIP, censorship);
+            index.retainEquals(docs, BooksIndex.Field.COLOR, color);
+            index.retainEquals(docs, BooksIndex.Field.AGE_RATING, ageRating);
+
+            index.retainMatching(docs, BooksIndex.Field.AUTHORS, authors, authorsMode);
+            index.retainMatching(docs, BooksIndex.Field.ARTISTS, artists, artistsMode);
+            index.retainMatching(docs, BooksIndex.Field.PUBLISHERS, publishers, publishersMode);
+            index.retainMatching(docs, BooksIndex.Field.TRANSLATORS, translators, translatorsMode);
+            index.retainMatching(docs, BooksIndex.Field.YEARS, years, LogicalMode.OR);
+            index.retainMatching(docs, BooksIndex.Field.GENRES, genreIds, genresMode);
+            index.retainMatching(docs, BooksIndex.Field.TAGS, tags, tagsMode);
+            index.retainMatching(docs, BooksIndex.Field.COUNTRIES, countries, countriesMode);
+            index.retainMatching(docs, BooksIndex.Field.LANGUAGES, languages, languagesMode);
+            index.retainMatching(docs, BooksIndex.Field.EVENTS, events, eventsMode);
+            index.retainMatching(docs, BooksIndex.Field.CHARACTERS, characters, charactersMode);
+            index.retainMatching(docs, BooksIndex.Field.SERIES, series, seriesMode);
+            index.retainMatching(docs, BooksIndex.Field.PARODIES, parodies, parodiesMode);
+            index.retainMatching(docs, BooksIndex.Field.CIRCLES, circles, circlesMode);
+            index.retainMatching(docs, BooksIndex.Field.MAGAZINES, magazines, magazinesMode);
+
+            retainAllowedForUser(index, docs, user, allowedCategoriesMap, allowedContentTypes, allowedCategories);
+
+            if (searchScores != null) {
+                index.retainDbIds(docs, searchScores.keySet());
             }
 
-            // TODO: filter by user created categories
-            if (ArrayUtils.isNotEmpty(allowedCategoriesMap) && !allowedContentTypes.contains(it.getContentType())) {
-                return false;
+            if (isRelevanceSort) {
+                // Без явной сортировки выдаем результаты поиска по релевантности
+                List<Long> ids = index.getDbIds(docs, null, true, 0, Integer.MAX_VALUE)
+                        .stream()
+                        .sorted(getRelevanceComparator(searchScores))
+                        .filter(dbId -> cursor == null || isAfterRelevanceCursor(dbId, searchScores.get(dbId), cursor))
+                        .skip(cursor == null ? offset : 0)
+                        .limit(limit)
+                        .collect(Collectors.toList());
+
+                return new Pair<>(ids, !ids.isEmpty()
+                        ? new BooksCursor(Collections.singletonList(String.valueOf(searchScores.get(ids.get(ids.size() - 1)))), ids.get(ids.size() - 1))
+                        : null);
             }
 
-            if (ArrayUtils.isNotEmpty(allowedCategories) && StringUtils.isNotEmpty(it.getCategories())) {
-                List<String> categories = ArrayUtils.splitString(it.getCategories(), ",");
-                boolean noneMatch = categories.stream().noneMatch(allowedCategories::contains);
-                return !noneMatch;
+            if (isLastReadSort) {
+                return new Pair<>(index.getDbIds(docs, null, ascending, 0, Integer.MAX_VALUE), null);
             }
 
-            return true;
-        })
-                .filter(item -> isNotInSet(item.getGenres(), disallowedGenres))
-                .filter(item -> isNotInSet(item.getTags(), disallowedTags))
-                .sorted(getSortComparator(sort))
-                .collect(Collectors.toList());
+            List<Long> ids = cursor != null
+                    ? index.getDbIds(docs, sort, ascending || sort == null, cursor, limit)
+                    : index.getDbIds(docs, sort, ascending || sort == null, offset, limit);
+            return new Pair<>(ids, !ids.isEmpty() ? index.getCursor(ids.get(ids.size() - 1), sort) : null);
+        });
+
+        if (isLastReadSort) {
+            // История чтения хранится отдельно от индекса, поэтому сортируем весь отфильтрованный список
+            List<IBaseBookItem> filteredList = BooksRepository.getBooksByIds(idsPage.getFirst(), libraryPresentation);
+            BooksRepository.loadVolumesAndChaptersInfo(user, libraryPresentation, filteredList, withVolumesAndHistory, withChapters, false);
+            filteredList.sort(getLastReadComparator());
 
-        if (sort != null && !ascending) {
-            Collections.reverse(filteredList);
+            int start = cursor != null ? findLastReadCursorPosition(filteredList, cursor) : (int) Math.min(offset, filteredList.size());
+            List<IBaseBookItem> list = filteredList.subList(start, Math.min(start + limit, filteredList.size()));
+            return new BooksPage(list, list.size() == limit ? createLastReadCursor(list.get(list.size() - 1)) : null);
         }
 
-        int subListFromIndex = (page - 1) * limit;
-        int subListToIndex = page * limit;
+        List<IBaseBookItem> cuttedFilteredList = BooksRepository.getBooksByIds(idsPage.getFirst(), libraryPresentation);
+        BooksRepository.loadVolumesAndChaptersInfo(user, libraryPresentation, cuttedFilteredList, withVolumesAndHistory, withChapters, false);
+        return new BooksPage(cuttedFilteredList, idsPage.getFirst().size() == limit ? idsPage.getSecond() : null);
+    }
 
-        if (subListFromIndex > filteredList.size()) {
-            return new ArrayList<>();
+    /**
+     * Returns ids of all books found by {@code search} and allowed for user. Ids are ranked by relevance if {@code sort}
+     * is not set. Order of ids for {@link Sort#LAST_READ} is undefined, because reading history is not stored in index
+     */
+    public static List<Long> getSearchResultIds(User user, ContentType contentType, String category, LibraryPresentation libraryPresentation,
+                                                String search, Sort sort, boolean ascending) {
+        Map<String, Category> allowedCategoriesMap = user.getAllowedCategoriesMap();
+        List<String> allowedContentTypes = getAllowedContentTypes(allowedCategoriesMap);
+        List<String> allowedCategories = getAllowedCategories(allowedCategoriesMap);
+
+        Map<Long, Float> searchScores = BooksIndexRepository.getSearchIndex(libraryPresentation).search(search);
+
+        BooksIndex index = BooksIndexRepository.getIndex(libraryPresentation);
+        return index.read(() -> {
+            BitSet docs = index.select(libraryPresentation);
+
+            if (StringUtils.isNotEmpty(category)) {
+                index.retainAnyOrEmpty(docs, BooksIndex.Field.CATEGORIES, Collections.singletonList(category));
+            }
+            index.retainEquals(docs, BooksIndex.Field.CONTENT_TYPE, contentType);
+            retainAllowedForUser(index, docs, user, allowedCategoriesMap, allowedContentTypes, allowedCategories);
+            index.retainDbIds(docs, searchScores.keySet());
+
+            if (sort == null) {
+                return index.getDbIds(docs, null, true, 0, Integer.MAX_VALUE)
+                        .stream()
+                        .sorted(getRelevanceComparator(searchScores))
+                        .collect(Collectors.toList());
+            }
+            return index.getDbIds(docs, sort == Sort.LAST_READ ? null : sort, ascending, 0, Integer.MAX_VALUE);
+        });
+    }
+
+    private static void retainAllowedForUser(BooksIndex index, BitSet docs, User user, Map<String, Category> allowedCategoriesMap,
+                                             List<String> allowedContentTypes, List<String> allowedCategories) {
+        // TODO: filter by user created categories
+        if (ArrayUtils.isNotEmpty(allowedCategoriesMap)) {
+            index.retainAny(docs, BooksIndex.Field.CONTENT_TYPE, allowedContentTypes);
         }
-        if (subListToIndex > filteredList.size()) {
-            subListToIndex = filteredList.size();
+        if (ArrayUtils.isNotEmpty(allowedCategories)) {
+            index.retainAnyOrEmpty(docs, BooksIndex.Field.CATEGORIES, allowedCategories);
         }
 
-        List<IBaseBookItem> cuttedFilteredList;
-        if (sort == Sort.LAST_READ) {
-            BooksRepository.loadVolumesAndChaptersInfo(user, libraryPresentation, filteredList, withVolumesAndHistory, withChapters, false);
-            filteredList.sort(getLastReadComparator());
-            cuttedFilteredList = filteredList.subList(subListFromIndex, subListToIndex);
-        } else {
-            cuttedFilteredList = filteredList.subList(subListFromIndex, subListToIndex);
-            BooksRepository.loadVolumesAndChaptersInfo(user, libraryPresentation, cuttedFilteredList, withVolumesAndHistory, withChapters, false);
-        }
+        index.removeAny(docs, BooksIndex.Field.GENRES, user.getDisallowedGenres());
+        index.removeAny(docs, BooksIndex.Field.TAGS, user.getDisallowedTags());
+    }
 
-        return cuttedFilteredList;
+    private static List<String> getAllowedContentTypes(Map<String, Category> allowedCategoriesMap) {
+        return allowedCategoriesMap.values().stream()
+                .map(Category::getContentType)
+                .filter(StringUtils::isNotEmpty)
+                .map(type -> EnumUtils.valueOfOrNull(ContentType.class, type))
+                .filter(Objects::nonNull)
+                .map(ContentType::name)
+                .collect(Collectors.toList());
     }
 
-    private static List<String> genresToIds(List<String> genres) {
-        List<String> genreIds = new ArrayList<>();
-        if (ArrayUtils.isNotEmpty(genres)) {
-            genres.forEach(it -> {
-                Genre genre = Genre.getGenreFromString(it);
-                if (genre != null) {
-                    genreIds.add(String.valueOf(genre.ordinal()));
-                }
-            });
-        }
+    private static List<String> getAllowedCategories(Map<String, Category> allowedCategoriesMap) {
+        return allowedCategoriesMap.values().stream()
+                .map(Category::getCategoryId)
+                .map(CategoryRepository::createDbIdForCategoryId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
 
-        return genreIds;
+    private static Comparator<Long> getRelevanceComparator(Map<Long, Float> searchScores) {
+        return Comparator.<Long, Float>comparing(searchScores::get, Comparator.reverseOrder())
+                .thenComparing(Comparator.naturalOrder());
     }
 
-    private static boolean itemHasFiltersEntry(List<String> filters, List<String> values, LogicalMode logicalMode) {
-        if (ArrayUtils.isNotEmpty(filters)) {
-            if (ArrayUtils.isEmpty(values)) {
-                for (String filter : filters) {
-                    if (!isNegativeFilter(filter)) {
-                        // Positive filter. Condition not met
-                        return false;
-                    }
-                }
+    private static boolean isAfterRelevanceCursor(Long dbId, Float score, BooksCursor cursor) {
+        int result = Float.compare(cursor.getFloatKey(0), score);
+        return result > 0 || result == 0 && dbId > cursor.getId();
+    }
 
-                // All filters is negative, so, condition is met
-                return true;
+    /**
+     * Returns position of first book after cursor in list sorted by {@link #getLastReadComparator()}
+     */
+    private static int findLastReadCursorPosition(List<IBaseBookItem> sortedList, BooksCursor cursor) {
+        int low = 0;
+        int high = sortedList.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            IBaseBookItem item = sortedList.get(middle);
+            int result = Long.compare(getLastReadForBook(item), cursor.getLongKey(0));
+            if (result == 0) {
+                result = NaturalStringComparator.compareStrings(Optional.ofNullable(item.getTitle()).orElse(""), cursor.getKey(1));
             }
-
-            values = values.stream()
-                    .map(String::toLowerCase)
-                    .collect(Collectors.toList());
-
-            boolean containsAny = false;
-            for (String filter : filters) {
-                filter = filter.toLowerCase();
-
-                // Check is filter is negative
-                boolean isNegativeFilter = isNegativeFilter(filter);
-                if (isNegativeFilter) {
-                    // Remove first symbol that is always "-" for negative filter
-                    filter = filter.substring(1);
-
-                    // Checking negative filter
-                    // Negative filters always in AND mode!
-                    if (values.contains(filter)) {
-                        return false;
-                    }
-                } else {
-                    // Checking positive filter
-                    if (logicalMode == LogicalMode.AND && !values.contains(filter)) {
-                        return false;
-                    } else if /* OR mode */ (logicalMode == LogicalMode.OR && values.contains(filter)) {
-                        containsAny = true;
-                        break;
-                    }
-                }
+            if (result == 0) {
+                result = Long.compare(item.getDbId(), cursor.getId());
             }
 
-            return logicalMode != LogicalMode.OR || containsAny;
+            if (result <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
         }
-        return true;
+        return low;
     }
 
-    private static boolean isNegativeFilter(String filter) {
-        return StringUtils.isNotEmpty(filter) && filter.startsWith("-");
+    private static BooksCursor createLastReadCursor(IBaseBookItem item) {
+        return new BooksCursor(Arrays.asList(String.valueOf(getLastReadForBook(item)), Optional.ofNullable(item.getTitle()).orElse("")), item.getDbId());
     }
 
-    private static Comparator<IBaseBookItem> getSortComparator(Sort sort) {
-        if (sort == null) {
-            return Comparator.comparingLong(IBaseBookItem::getDbId);
+    private static List<String> genresToIds(List<String> genres) {
+        List<String> genreIds = new ArrayList<>();
+        if (ArrayUtils.isNotEmpty(genres)) {
+            genres.forEach(it -> {
+                Genre genre = Genre.getGenreFromString(it);
+                if (genre != null) {
+                    genreIds.add(String.valueOf(genre.ordinal()));
+                }
+            });
         }
 
-        switch (sort) {
-            case TITLE:
-                return TITLE_COMPARATOR;
-            case YEAR:
-                return ((Comparator<IBaseBookItem>) (item1, item2) -> AlphanumComparator.compareStrings(item1.getYear(), item2.getYear())).thenComparing(TITLE_COMPARATOR);
-            case COUNTRY:
-                return ((Comparator<IBaseBookItem>) (item1, item2) -> AlphanumComparator.compareStrings(item1.getCountry(), item2.getCountry())).thenComparing(TITLE_COMPARATOR);
-            case LANGUAGE:
-                return ((Comparator<IBaseBookItem>) (item1, item2) -> AlphanumComparator.compareStrings(item1.getLanguage(), item2.getLanguage())).thenComparing(TITLE_COMPARATOR);
-            case PUBLISHER:
-                return ((Comparator<IBaseBookItem>) (item1, item2) -> AlphanumComparator.compareStrings(item1.getPublisher(), item2.getPublisher())).thenComparing(TITLE_COMPARATOR);
-            case SERIE:
-                return getSerieComparator();
-            case PARODY:
-                return getParodyComparator();
-            case VOLUMES_COUNT:
-                return Comparator.comparingLong(IBaseBookItem::getVolumesCount).thenComparing(TITLE_COMPARATOR);
-            case CHAPTERS_COUNT:
-                return Comparator.comparingLong(IBaseBookItem::getChaptersCount).thenComparing(TITLE_COMPARATOR);
-            case SCORE:
-                return ((Comparator<IBaseBookItem>) (item1, item2) -> AlphanumComparator.compareStrings(item1.getScore(), item2.getScore())).thenComparing(TITLE_COMPARATOR);
-            case CREATED_AT:
-                return Comparator.comparingLong(IBaseBookItem::getCreatedAt).thenComparing(TITLE_COMPARATOR);
-            case UPDATED_AT:
-                return Comparator.comparingLong(IBaseBookItem::getUpdatedAt).thenComparing(TITLE_COMPARATOR);
-            case POPULARITY:
-                return Comparator.comparingInt(IBaseBookItem::getRating).thenComparing(TITLE_COMPARATOR);
-            default:
-                return Comparator.comparingLong(IBaseBookItem::getDbId);
-        }
+        return genreIds;
     }
 
     public static Comparator<IBaseBookItem> getSerieComparator() {
@@ -319,7 +368,9 @@ public class FilteredBooksRepository {
     }
 
     public static Comparator<IBaseBookItem> getLastReadComparator() {
-        return Comparator.comparingLong(FilteredBooksRepository::getLastReadForBook).thenComparing(TITLE_COMPARATOR);
+        return Comparator.comparingLong(FilteredBooksRepository::getLastReadForBook)
+                .thenComparing(TITLE_COMPARATOR)
+                .thenComparing(IBaseBookItem::getDbId);
     }
 
     private static long getLastReadForBook(IBaseBookItem bookItem) {
@@ -334,79 +385,70 @@ public class FilteredBooksRepository {
                 .orElse(0L);
     }
 
-    public static List<Filters> getFiltersList(ContentType contentType, String category, LibraryPresentation libraryPresentation) {
-        List<IBaseBookItem> items = BooksDatabaseRepository.getInstance().getDaoManager()
-                .queryAll(libraryPresentation.getDbClassForPresentation(), libraryPresentation);
+    public static List<Filters> getFiltersList(User user, ContentType contentType, String category, LibraryPresentation libraryPresentation) {
+        Set<String> disallowedGenres = user.getDisallowedGenres();
+        Set<String> disallowedTags = user.getDisallowedTags();
 
-        items = items.stream()
-                .filter(item -> contentType != null ? item.getContentType() == contentType && !item.isRemoved() : !item.isRemoved())
-                .filter(item -> StringUtils.isEmpty(category) || Optional.ofNullable(item.getCategories())
-                        .map(categories -> categories.contains(category))
-                        .orElse(false))
-                .collect(Collectors.toList());
+        Map<FacetsIndex.Facet, Map<String, Long>> facets = BooksIndexRepository.isIndexed()
+                ? BooksIndexRepository.getFacets(libraryPresentation, contentType != null ? contentType.name() : null, category, disallowedGenres, disallowedTags)
+                : queryFacets(contentType, category, libraryPresentation, disallowedGenres, disallowedTags);
+        Function<FacetsIndex.Facet, Set<String>> valuesOf = facet -> new TreeSet<>(facets.getOrDefault(facet, Collections.emptyMap()).keySet());
 
         List<Filters> filters = new ArrayList<>();
 
         List<String> sort = new ArrayList<>();
-        Set<String> contentTypes = new TreeSet<>();
-        Set<String> statuses = new TreeSet<>();
-        Set<String> translationStatuses = new TreeSet<>();
-        Set<String> plotTypes = new TreeSet<>();
-        Set<String> censorships = new TreeSet<>();
-        Set<String> colors = new TreeSet<>();
-        Set<String> ageRatings = new TreeSet<>();
-        Set<String> authors = new TreeSet<>();
-        Set<String> artists = new TreeSet<>();
-        Set<String> publishers = new TreeSet<>();
-        Set<String> translators = new TreeSet<>();
-        Set<String> genres = new TreeSet<>();
-        Set<String> tags = new TreeSet<>();
-        Set<String> years = new TreeSet<>();
-        Set<String> countries = new TreeSet<>();
-        Set<String> languages = new TreeSet<>();
-        Set<String> events = new TreeSet<>();
-        Set<String> characters = new TreeSet<>();
-        Set<String> series = new TreeSet<>();
-        Set<String> parodies = new TreeSet<>();
-        Set<String> circles = new TreeSet<>();
-        Set<String> magazines = new TreeSet<>();
-
         fillListWithEnumNames(sort, Sort.class);
 
-        items.forEach(item -> {
-            if (contentType == null) {
-                fillSetWithEnumName(contentTypes, item.getContentType());
-            }
-            fillSetWithEnumName(statuses, item.getStatus());
-            fillSetWithEnumName(translationStatuses, item.getTranslationStatus());
-            fillSetWithEnumName(plotTypes, item.getPlotType());
-            fillSetWithEnumName(censorships, item.getCensorship());
-            fillSetWithEnumName(colors, item.getColor());
-            fillSetWithEnumName(ageRatings, item.getAgeRating());
-
-            ArrayUtils.fillSetWithStringAsArray(authors, item.getAuthors());
-            ArrayUtils.fillSetWithStringAsArray(artists, item.getArtists());
-            ArrayUtils.fillSetWithList(publishers, Collections.singletonList(item.getPublisher()));
-            ArrayUtils.fillSetWithStringAsArray(translators, item.getTranslators());
-            ArrayUtils.fillSetWithStringAsArray(genres, item.getGenres());
-            ArrayUtils.fillSetWithStringAsArray(tags, item.getTags());
-            ArrayUtils.fillSetWithList(years, Collections.singletonList(item.getYear()));
-            ArrayUtils.fillSetWithList(countries, Collections.singletonList(item.getCountry()));
-            ArrayUtils.fillSetWithStringAsArray(languages, item.getLanguage());
-            ArrayUtils.fillSetWithList(events, Collections.singletonList(item.getEvent()));
-            ArrayUtils.fillSetWithStringAsArray(characters, item.getCharacters());
-            ArrayUtils.fillSetWithStringAsArray(series, item.getSeries());
-            ArrayUtils.fillSetWithStringAsArray(parodies, item.getParodies());
-            ArrayUtils.fillSetWithStringAsArray(circles, item.getCircles());
-            ArrayUtils.fillSetWithStringAsArray(magazines, item.getMagazines());
-        });
-
-        createFiltersFromSets(filters, sort, contentTypes, statuses, translationStatuses, plotTypes, censorships, colors, ageRatings, authors, artists,
-                publishers, translators, genres, tags, years, countries, languages, events, characters, series, parodies, circles, magazines);
+        createFiltersFromSets(filters, sort, contentType == null ? valuesOf.apply(FacetsIndex.Facet.CONTENT_TYPE) : new TreeSet<>(),
+                valuesOf.apply(FacetsIndex.Facet.STATUS), valuesOf.apply(FacetsIndex.Facet.TRANSLATION_STATUS), valuesOf.apply(FacetsIndex.Facet.PLOT_TYPE),
+                valuesOf.apply(FacetsIndex.Facet.CENSORSHIP), valuesOf.apply(FacetsIndex.Facet.COLOR), valuesOf.apply(FacetsIndex.Facet.AGE_RATING),
+                valuesOf.apply(FacetsIndex.Facet.AUTHORS), valuesOf.apply(FacetsIndex.Facet.ARTISTS), valuesOf.apply(FacetsIndex.Facet.PUBLISHERS),
+                valuesOf.apply(FacetsIndex.Facet.TRANSLATORS), valuesOf.apply(FacetsIndex.Facet.GENRES), valuesOf.apply(FacetsIndex.Facet.TAGS),
+                valuesOf.apply(FacetsIndex.Facet.YEARS), valuesOf.apply(FacetsIndex.Facet.COUNTRIES), valuesOf.apply(FacetsIndex.Facet.LANGUAGES),
+                valuesOf.apply(FacetsIndex.Facet.EVENTS), valuesOf.apply(FacetsIndex.Facet.CHARACTERS), valuesOf.apply(FacetsIndex.Facet.SERIES),
+                valuesOf.apply(FacetsIndex.Facet.PARODIES), valuesOf.apply(FacetsIndex.Facet.CIRCLES), valuesOf.apply(FacetsIndex.Facet.MAGAZINES));
 
         return filters;
     }
 
+    /**
+     * Computes facets with database queries. Used only until books index is built
+     */
+    private static Map<FacetsIndex.Facet, Map<String, Long>> queryFacets(ContentType contentType, String category, LibraryPresentation libraryPresentation,
+                                                                         Set<String> disallowedGenres, Set<String> disallowedTags) {
+        BooksDaoManager daoManager = BooksDatabaseRepository.getInstance().getDaoManager();
+        BooksQuery query = new BooksQuery(libraryPresentation)
+                .whereNotRemoved()
+                .whereEquals("CONTENT_TYPE", contentType)
+                .withValue(BookValueField.CATEGORIES, category)
+                .withoutValues(BookValueField.GENRES, disallowedGenres)
+                .withoutValues(BookValueField.TAGS, disallowedTags);
+
+        Map<FacetsIndex.Facet, Map<String, Long>> facets = new EnumMap<>(FacetsIndex.Facet.class);
+        facets.put(FacetsIndex.Facet.CONTENT_TYPE, queryEnumCounts(daoManager, query, "CONTENT_TYPE", ContentType.class));
+        facets.put(FacetsIndex.Facet.STATUS, queryEnumCounts(daoManager, query, "STATUS", Status.class));
+        facets.put(FacetsIndex.Facet.TRANSLATION_STATUS, queryEnumCounts(daoManager, query, "TRANSLATION_STATUS", TranslationStatus.class));
+        facets.put(FacetsIndex.Facet.PLOT_TYPE, queryEnumCounts(daoManager, query, "PLOT_TYPE", PlotType.class));
+        facets.put(FacetsIndex.Facet.CENSORSHIP, queryEnumCounts(daoManager, query, "CENSORSHIP", Censorship.class));
+        facets.put(FacetsIndex.Facet.COLOR, queryEnumCounts(daoManager, query, "COLOR", Color.class));
+        facets.put(FacetsIndex.Facet.AGE_RATING, queryEnumCounts(daoManager, query, BooksQuery.AGE_RATING_COLUMN, AgeRating.class));
+
+        daoManager.queryValueCounts(query, BookValueField.values())
+                .forEach((field, counts) -> Optional.ofNullable(EnumUtils.valueOfOrNull(FacetsIndex.Facet.class, field.name()))
+                        .ifPresent(facet -> facets.put(facet, counts)));
+        return facets;
+    }
+
+    /**
+     * Counts books by enum column. Empty and unknown values are read as first enum constant
+     */
+    private static <E extends Enum<E>> Map<String, Long> queryEnumCounts(BooksDaoManager daoManager, BooksQuery query, String columnName, Class<E> enumClass) {
+        Map<String, Long> counts = new HashMap<>();
+        daoManager.queryColumnCounts(query, columnName)
+                .forEach((value, count) -> counts.merge(EnumUtils.valueOf(enumClass, value).name(), count, Long::sum));
+        return counts;
+    }
+
     private static void createFiltersFromSets(List<Filters> filters, List<String> sort, Set<String> contentTypes, Set<String> statuses,
                                               Set<String> translationStatuses, Set<String> plotTypes, Set<String> censorships, Set<String> colors,
                                               Set<String> ageRatings, Set<String> authors, Set<String> artists, Set<String> publishers,
@@ -465,24 +507,6 @@ public class FilteredBooksRepository {
         set.add(enumName);
     }
 
-    private static void fillSetWithEnumNames(Set<String> set, Class<? extends Enum<?>> e) {
-        String[] names = EnumUtils.getNames(e);
-        for (String name : names) {
-            fillSetWithEnumName(set, name);
-        }
-    }
-
-    private static void fillSetWithEnumName(Set<String> set, Enum<?> enumValue) {
-        fillSetWithEnumName(set, enumValue.name());
-    }
-
-    private static void fillSetWithEnumName(Set<String> set, String enumName) {
-        if (StringUtils.isEmpty(enumName)) {
-            return;
-        }
-        set.add(enumName);
-    }
-
     public static boolean isNotInSet(String itemsStr, Set<String> set) {
         return Optional.ofNullable(itemsStr)
                 .filter(StringUtils::isNotEmpty)
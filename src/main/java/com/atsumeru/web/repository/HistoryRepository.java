@@ -2,6 +2,8 @@ package com.atsumeru.web.repository;
 
 import com.atsumeru.web.model.book.BookArchive;
 import com.atsumeru.web.model.book.BookSerie;
+import com.atsumeru.web.model.book.BooksCursor;
+import com.atsumeru.web.model.book.BooksPage;
 import com.atsumeru.web.model.book.IBaseBookItem;
 import com.atsumeru.web.repository.dao.BooksDaoManager;
 import com.atsumeru.web.util.StringUtils;
@@ -14,19 +16,27 @@ import com.atsumeru.web.model.database.User;
 import kotlin.Triple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+@Component
 public class HistoryRepository {
     private static final Logger logger = LoggerFactory.getLogger(HistoryRepository.class.getSimpleName());
     private static final BooksDaoManager daoManager;
     private static final BooksDaoManager.HistoryDao historyDao;
 
+    // Измененные, но еще не записанные в БД записи Истории. Хранится только последнее состояние записи
+    private static final Map<String, History> pendingHistory = new ConcurrentHashMap<>();
+
     private static final BiPredicate<LibraryPresentation, IBaseBookItem> NOT_ARCHIVE_PREDICATE = (presentation, bookItem) ->
             presentation.isSeriesAndSinglesPresentation()
                     || presentation.isSeriesPresentation() && !bookItem.isSingle()
@@ -34,16 +44,17 @@ public class HistoryRepository {
 
     private static final BiPredicate<LibraryPresentation, IBaseBookItem> ARCHIVE_PREDICATE = (presentation, bookItem) -> presentation.isArchivesPresentation();
 
-    public static List<IBaseBookItem> getBooksHistory(User user, LibraryPresentation libraryPresentation, int page, long limit) {
+    public static BooksPage getBooksHistory(User user, LibraryPresentation libraryPresentation, int page, long limit, BooksCursor cursor) {
         long time = System.currentTimeMillis();
         boolean isSeries = libraryPresentation.isSeriesOrSinglesPresentation();
 
-        // Запрашиваем записи Истории для текущего пользователя
-        List<History> historyList = getHistoryForUser(user, page, limit, isSeries);
+        // Запрашиваем хеши прочитанных книг для текущего пользователя
+        flush();
+        List<String[]> lastReadRows = historyDao.queryLastRead(user.getId(), isSeries, cursor, (page - 1) * limit, limit);
 
         // Собираем список хешей книг
-        List<String> bookHashes = historyList.stream()
-                .map(history -> history.getBookHash(isSeries))
+        List<String> bookHashes = lastReadRows.stream()
+                .map(row -> row[0])
                 .collect(Collectors.toList());
 
         // Запрашиваем Книги из базы по списку хешей книг
@@ -71,14 +82,21 @@ public class HistoryRepository {
                 .stream()
                 .collect(Collectors.groupingBy(IBaseBookItem::getSerieDbId, Collectors.mapping(Function.identity(), Collectors.toList())));
 
+        // История всех книг страницы запрашивается одним запросом, а не отдельно для каждой книги
+        Map<String, List<History>> historyByHash = getBooksHistory(user, bookHashes, isSeries);
+
         // Собираем все Серии для записей Истории и создаем каждой серии Тома
         boolean includeFileInfo = UserDatabaseDetailsService.isIncludeFileInfoIntoResponse();
-        List<IBaseBookItem> items = historyList.stream()
-                .map(history -> history.getBookHash(isSeries))
+        List<IBaseBookItem> items = bookHashes.stream()
                 .filter(bookItems::containsKey)
                 .map(bookItems::get)
                 .filter(bookItem -> isSeries ? NOT_ARCHIVE_PREDICATE.test(libraryPresentation, bookItem) : ARCHIVE_PREDICATE.test(libraryPresentation, bookItem))
-                .peek(bookItem -> BooksRepository.createVolumesWithHistoryForItem(user, archives.get(isSeries ? bookItem.getDbId() : bookItem.getSerieDbId()), bookItem, bookItem.getContentId(), isSeries, false, includeFileInfo))
+                .peek(bookItem -> BooksRepository.createVolumesWithHistoryForItem(
+                        archives.get(isSeries ? bookItem.getDbId() : bookItem.getSerieDbId()),
+                        bookItem,
+                        historyByHash.getOrDefault(bookItem.getContentId(), Collections.emptyList()),
+                        isSeries,
+                        includeFileInfo))
                 .collect(Collectors.toList());
 
         if (isSeries) {
@@ -99,22 +117,31 @@ public class HistoryRepository {
                 .filter(item -> FilteredBooksRepository.isNotInSet(item.getTags(), disallowedTags))
                 .collect(Collectors.toList());
 
+        // Курсор указывает на последнюю запись Истории, а не на последнюю отфильтрованную книгу
+        BooksCursor nextCursor = lastReadRows.size() == limit
+                ? createCursor(lastReadRows.get(lastReadRows.size() - 1))
+                : null;
+
         logger.info("History querying finished. Took: " + (System.currentTimeMillis() - time) + "ms");
-        return items;
+        return new BooksPage(items, nextCursor);
+    }
+
+    /**
+     * Returns History entries of books (not chapters) grouped by book hash
+     */
+    private static Map<String, List<History>> getBooksHistory(User user, List<String> bookHashes, boolean isSeries) {
+        if (ArrayUtils.isEmpty(bookHashes)) {
+            return new HashMap<>();
+        }
+
+        return ArrayUtils.getNotNullList(withPendingHistory(historyDao.queryByHashesForUser(bookHashes, String.valueOf(user.getId()), getHistoryClass(isSeries))))
+                .stream()
+                .filter(history -> StringUtils.isEmpty(history.getChapterHash()))
+                .collect(Collectors.groupingBy(history -> history.getBookHash(isSeries)));
     }
 
-    private static List<History> getHistoryForUser(User user, int page, long limit, boolean isSeries) {
-        return historyDao.query(
-                "USER_ID",
-                String.valueOf(user.getId()),
-                "LAST_READ_AT",
-                user.getAllowedContentTypes(),
-                user.getAllowedCategoryIds(),
-                false,
-                (page - 1) * limit,
-                limit,
-                isSeries ? "SERIE_HASH" : "ARCHIVE_HASH"
-        );
+    private static BooksCursor createCursor(String[] lastReadRow) {
+        return new BooksCursor(Collections.singletonList(lastReadRow[1]), Long.parseLong(lastReadRow[2]));
     }
 
     private static Triple<AtomicLong, AtomicBoolean, IBaseBookItem> setVolumesHistoryAndMapToTriple(IBaseBookItem bookItem) {
@@ -141,27 +168,91 @@ public class HistoryRepository {
     }
 
     public static List<History> getBookHistory(User user, String bookOrArchiveHash) {
-        return historyDao.queryByHashForUser(bookOrArchiveHash, String.valueOf(user.getId()), getHistoryClass(bookOrArchiveHash));
+        return withPendingHistory(historyDao.queryByHashForUser(bookOrArchiveHash, String.valueOf(user.getId()), getHistoryClass(bookOrArchiveHash)));
     }
 
     public static List<History> getBookHistory(String itemHash, Class<? extends IBaseBookItem> clazz) {
-        return historyDao.queryByHash(itemHash, clazz);
+        return withPendingHistory(historyDao.queryByHash(itemHash, clazz));
+    }
+
+    /**
+     * Saves read page into write-behind buffer. Only new History entries are written into database immediately,
+     * updates of existing ones are coalesced and written by {@link #flush()}
+     */
+    public static History saveReadedPage(User user, String archiveHash, String chapterHash, int currentPage) {
+        String key = user.getId() + "|" + archiveHash + "|" + chapterHash;
+        return pendingHistory.compute(key, (k, pending) -> {
+            History historyItem = pending;
+            if (historyItem == null) {
+                List<History> historyList = historyDao.queryByHashForUser(
+                        StringUtils.isNotEmpty(chapterHash) ? chapterHash : archiveHash,
+                        String.valueOf(user.getId()),
+                        StringUtils.isNotEmpty(chapterHash) ? BookChapter.class : BookArchive.class
+                );
+
+                historyItem = ArrayUtils.isEmpty(historyList)
+                        ? createHistoryItem(user, archiveHash, chapterHash)
+                        : historyList.get(0);
+            }
+
+            historyItem.setCurrentPage(currentPage);
+            historyItem.setLastReadAt(System.currentTimeMillis());
+
+            // Новая запись сохраняется сразу, чтобы получить ID и быть видимой в запросах Истории
+            if (historyItem.getDbId() == null) {
+                historyDao.save(historyItem);
+            }
+            return historyItem;
+        });
+    }
+
+    /**
+     * Replaces History entries loaded from database with their pending versions
+     */
+    public static List<History> withPendingHistory(List<History> historyList) {
+        if (historyList == null || pendingHistory.isEmpty()) {
+            return historyList;
+        }
+
+        Map<Long, History> pendingById = pendingHistory.values()
+                .stream()
+                .filter(history -> history.getDbId() != null)
+                .collect(Collectors.toMap(History::getDbId, Function.identity(), (first, second) -> second));
+
+        return historyList.stream()
+                .map(history -> pendingById.getOrDefault(history.getDbId(), history))
+                .collect(Collectors.toList());
     }
 
-    public static void saveReadedPage(User user, String archiveHash, String chapterHash, int currentPage) {
-        List<History> historyList = historyDao.queryByHashForUser(
-                StringUtils.isNotEmpty(chapterHash) ? chapterHash : archiveHash,
-                String.valueOf(user.getId()),
-                StringUtils.isNotEmpty(chapterHash) ? BookChapter.class : BookArchive.class
-        );
+    /**
+     * Writes all pending History entries into database in one transaction
+     */
+    public static synchronized void flush() {
+        if (pendingHistory.isEmpty()) {
+            return;
+        }
+
+        Map<String, Long> flushedTimes = new HashMap<>();
+        pendingHistory.forEach((key, history) -> flushedTimes.put(key, history.getLastReadAt()));
+        historyDao.saveAll(flushedTimes.keySet()
+                .stream()
+                .map(pendingHistory::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
 
-        History historyItem = ArrayUtils.isEmpty(historyList)
-                ? createHistoryItem(user, archiveHash, chapterHash)
-                : historyList.get(0);
+        // Запись остается в буфере, если была изменена во время сохранения
+        flushedTimes.forEach((key, lastReadAt) -> pendingHistory.computeIfPresent(key,
+                (k, history) -> Objects.equals(history.getLastReadAt(), lastReadAt) ? null : history));
+    }
+
+    @Scheduled(fixedDelay = 3000, initialDelay = 3000)
+    public void flushPendingHistory() {
+        flush();
+    }
 
-        historyItem.setCurrentPage(currentPage);
-        historyItem.setLastReadAt(System.currentTimeMillis());
-        historyDao.save(historyItem);
+    @PreDestroy
+    public void destroy() {
+        flush();
     }
 
     private static History createHistoryItem(User user, String archiveHash, String chapterHash) {
@@ -1,18 +1,24 @@
 package com.atsumeru.web.repository;
 
+import com.atsumeru.web.enums.BookValueField;
+import com.atsumeru.web.enums.Censorship;
+import com.atsumeru.web.enums.Color;
 import com.atsumeru.web.model.book.BaseBook;
 import com.atsumeru.web.model.book.BookSerie;
+import com.atsumeru.web.model.book.BooksCursor;
+import com.atsumeru.web.model.book.BooksPage;
 import com.atsumeru.web.model.book.IBaseBookItem;
-import com.atsumeru.web.util.StringUtils;
-import com.atsumeru.web.helper.ValuesMapper;
+import com.atsumeru.web.repository.dao.BooksQuery;
+import com.atsumeru.web.repository.index.MetacategoryIndex;
+import com.atsumeru.web.util.EnumUtils;
 import com.atsumeru.web.util.ArrayUtils;
+import com.atsumeru.web.util.Workspace;
 import com.atsumeru.web.util.comparator.AlphanumComparator;
 import com.atsumeru.web.component.Localizr;
 import com.atsumeru.web.enums.LibraryPresentation;
 import com.atsumeru.web.enums.Sort;
 import com.atsumeru.web.model.category.Metacategory;
 import com.atsumeru.web.model.database.User;
-import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
@@ -22,6 +28,8 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 
+import javax.annotation.PreDestroy;
+import java.io.File;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -30,90 +38,138 @@ import java.util.stream.Collectors;
 public class MetacategoryRepository {
     private static final Logger logger = LoggerFactory.getLogger(MetacategoryRepository.class.getSimpleName());
 
-    @Getter
-    private static Set<Metacategory> metacategories;
-    private static final Map<String, List<Metacategory>> metacategoryEntries = new HashMap<>();
+    // Идентификатор метакатегории -> ключ локализации
+    private static final Map<String, String> NAMES = new LinkedHashMap<>();
+    // Значения полей-перечислений без явно указанного значения
+    private static final Map<String, Enum<?>> EMPTY_ENUM_VALUES = new HashMap<>();
+
+    private static final MetacategoryIndex index;
 
     @EventListener(ApplicationReadyEvent.class)
     @Order(11)
     public void init() {
         long time = System.currentTimeMillis();
-        createMetacategories();
-        logger.info("Metacategories indexed. Took " + (System.currentTimeMillis() - time) + "ms");
+        long seriesCount = BooksDatabaseRepository.getInstance().getDaoManager().count(new BooksQuery(LibraryPresentation.SERIES_AND_SINGLES));
+        if (index.load(seriesCount)) {
+            logger.info("Metacategories loaded. Took " + (System.currentTimeMillis() - time) + "ms");
+        } else {
+            reIndex();
+            save();
+            logger.info("Metacategories indexed. Took " + (System.currentTimeMillis() - time) + "ms");
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        save();
+    }
+
+    public static Set<Metacategory> getMetacategories() {
+        Set<Metacategory> metacategories = new TreeSet<>((item1, item2) -> AlphanumComparator.compareStrings(item1.getName(), item2.getName()));
+        NAMES.forEach((metacategoryId, name) -> {
+            Map<String, Long> counts = getCounts(metacategoryId);
+            if (ArrayUtils.isNotEmpty(counts)) {
+                metacategories.add(new Metacategory(metacategoryId, Localizr.toLocale("metacategory." + name), counts.size()));
+            }
+        });
+        return metacategories;
     }
 
     public static List<Metacategory> getEntries(String metacategoryId) {
-        return metacategoryEntries.get(metacategoryId.toLowerCase())
+        return getCounts(metacategoryId.toLowerCase())
+                .entrySet()
                 .stream()
+                .map(entry -> new Metacategory(entry.getKey(), entry.getKey(), entry.getValue()))
                 .sorted((metacategory1, metacategory2) -> AlphanumComparator.compareStrings(metacategory1.getName(), metacategory2.getName()))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Rebuilds index with single pass over all series
+     */
     public static void reIndex() {
-        metacategoryEntries.clear();
-        createMetacategories();
+        index.rebuild(BooksDatabaseRepository.getInstance().getDaoManager().queryAll(BookSerie.class, LibraryPresentation.SERIES_AND_SINGLES));
     }
 
-    private static void createMetacategories() {
-        metacategories = new TreeSet<>((item1, item2) -> AlphanumComparator.compareStrings(item1.getName(), item2.getName()));
-        createMetacategory(metacategories, "PUBLISHER", "publishers");
-        createMetacategory(metacategories, "AUTHORS");
-        createMetacategory(metacategories, "ARTISTS");
-        createMetacategory(metacategories, "TRANSLATORS");
-        createMetacategory(metacategories, "GENRES");
-        createMetacategory(metacategories, "TAGS");
-        createMetacategory(metacategories, "YEAR", "years");
-        createMetacategory(metacategories, "CENSORSHIP");
-        createMetacategory(metacategories, "PARODIES");
-        createMetacategory(metacategories, "CIRCLES");
-        createMetacategory(metacategories, "MAGAZINES");
-        createMetacategory(metacategories, "CHARACTERS");
-        createMetacategory(metacategories, "COLOR");
-        createMetacategory(metacategories, "COUNTRY", "countries");
-        createMetacategory(metacategories, "LANGUAGE", "languages");
-        createMetacategory(metacategories, "EVENT", "events");
+    public static void update(IBaseBookItem item) {
+        if (item instanceof BookSerie) {
+            index.put(item);
+        }
     }
 
-    private static void createMetacategory(Set<Metacategory> set, String columnName) {
-        createMetacategory(set, columnName, columnName);
+    public static void remove(Long serieDbId) {
+        index.remove(serieDbId);
     }
 
-    private static void createMetacategory(Set<Metacategory> set, String columnName, String metacategoryId) {
-        if (BooksDatabaseRepository.getInstance().getDaoManager().countNotEmpty(columnName.toUpperCase(), BookSerie.class) > 0) {
-            List<Metacategory> entries = getEntriesFromDb(metacategoryId);
-            set.add(new Metacategory(
-                    metacategoryId.toLowerCase(),
-                    Localizr.toLocale("metacategory." + columnName.toLowerCase()),
-                    entries.size()
-            ));
+    public static void save() {
+        index.save();
+    }
 
-            metacategoryEntries.putIfAbsent(metacategoryId.toLowerCase(), entries);
+    /**
+     * Returns values of metacategory with series count. Series without value in enum field are counted as default
+     * enum value, but only when at least one serie has value in this field
+     */
+    private static Map<String, Long> getCounts(String metacategoryId) {
+        Map<String, Long> counts = index.getCounts(metacategoryId);
+        Enum<?> emptyValue = EMPTY_ENUM_VALUES.get(metacategoryId);
+        if (emptyValue != null) {
+            Long emptyCount = counts.remove("");
+            if (!counts.isEmpty() && emptyCount != null) {
+                counts.merge(emptyValue.toString(), emptyCount, Long::sum);
+            }
         }
+        return counts;
     }
 
-    private static List<Metacategory> getEntriesFromDb(String metacategoryId) {
-        Map<String, Long> tags = BooksDatabaseRepository.getInstance().getDaoManager()
-                .queryAll(BookSerie.class, LibraryPresentation.SERIES_AND_SINGLES)
-                .stream()
-                .map(BookSerie.class::cast)
-                .filter(BaseBook::notRemoved)
-                .map(item -> ValuesMapper.getMangaValue(item, metacategoryId.toLowerCase(), false))
-                .map(StringUtils::trimSquareBrackets)
-                .map(ArrayUtils::splitString)
-                .flatMap(Collection::stream)
-                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
-
-        return tags.keySet()
-                .stream()
-                .map(key -> new Metacategory(key, key, tags.get(key)))
-                .collect(Collectors.toList());
+    private static void addField(LinkedHashMap<String, Function<IBaseBookItem, List<String>>> fields, String metacategoryId, String name, BookValueField field) {
+        NAMES.put(metacategoryId, name);
+        fields.put(metacategoryId, field::getValues);
     }
 
-    public static List<IBaseBookItem> getFilteredList(User user, String metacategoryId, String filter, int page,
-                                                      int limit, boolean withVolumesAndHistory, boolean withChapters) {
+    private static <E extends Enum<E>> void addEnumField(LinkedHashMap<String, Function<IBaseBookItem, List<String>>> fields, String metacategoryId,
+                                                         Class<E> enumClass, Function<BaseBook, E> valueExtractor) {
+        NAMES.put(metacategoryId, metacategoryId);
+        EMPTY_ENUM_VALUES.put(metacategoryId, EnumUtils.valueOf(enumClass, null));
+        fields.put(metacategoryId, item -> Collections.singletonList(getEnumValue((BaseBook) item, valueExtractor)));
+    }
+
+    private static <E extends Enum<E>> String getEnumValue(BaseBook book, Function<BaseBook, E> valueExtractor) {
+        try {
+            return Optional.ofNullable(valueExtractor.apply(book))
+                    .map(Enum::toString)
+                    .orElse("");
+        } catch (IllegalArgumentException ex) {
+            // Пустое или неизвестное значение в БД
+            return "";
+        }
+    }
+
+    public static BooksPage getFilteredList(User user, String metacategoryId, String filter, int page, int limit,
+                                            BooksCursor cursor, boolean withVolumesAndHistory, boolean withChapters) {
         MultiValueMap<String, String> filtersMap = new LinkedMultiValueMap<>();
         filtersMap.add(metacategoryId.toLowerCase(), filter);
         return FilteredBooksRepository.getFilteredList(user, null, null, LibraryPresentation.SERIES_AND_SINGLES,
-                null, Sort.CREATED_AT, true, filtersMap, page, limit, withVolumesAndHistory, withChapters);
+                null, Sort.CREATED_AT, true, filtersMap, page, limit, cursor, withVolumesAndHistory, withChapters);
+    }
+
+    static {
+        LinkedHashMap<String, Function<IBaseBookItem, List<String>>> fields = new LinkedHashMap<>();
+        addField(fields, "publishers", "publisher", BookValueField.PUBLISHERS);
+        addField(fields, "authors", "authors", BookValueField.AUTHORS);
+        addField(fields, "artists", "artists", BookValueField.ARTISTS);
+        addField(fields, "translators", "translators", BookValueField.TRANSLATORS);
+        addField(fields, "genres", "genres", BookValueField.GENRES);
+        addField(fields, "tags", "tags", BookValueField.TAGS);
+        addField(fields, "years", "year", BookValueField.YEARS);
+        addEnumField(fields, "censorship", Censorship.class, BaseBook::getMangaCensorship);
+        addField(fields, "parodies", "parodies", BookValueField.PARODIES);
+        addField(fields, "circles", "circles", BookValueField.CIRCLES);
+        addField(fields, "magazines", "magazines", BookValueField.MAGAZINES);
+        addField(fields, "characters", "characters", BookValueField.CHARACTERS);
+        addEnumField(fields, "color", Color.class, BaseBook::getMangaColor);
+        addField(fields, "countries", "country", BookValueField.COUNTRIES);
+        addField(fields, "languages", "language", BookValueField.LANGUAGES);
+        addField(fields, "events", "event", BookValueField.EVENTS);
+        index = new MetacategoryIndex(new File(Workspace.DATABASES_DIR + "metacategories.idx"), fields);
     }
 }
@@ -4,6 +4,7 @@ import com.atsumeru.web.exception.UserNotFoundException;
 import com.atsumeru.web.helper.PasswordGenerator;
 import com.atsumeru.web.model.database.User;
 import com.atsumeru.web.repository.dao.UsersDaoManager;
+import com.atsumeru.web.security.CachingAuthenticationProvider;
 import com.atsumeru.web.util.FileUtils;
 import com.atsumeru.web.util.StringUtils;
 import com.atsumeru.web.util.Workspace;
@@ -20,7 +21,9 @@ import javax.servlet.http.HttpServletRequest;
 import java.security.Principal;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Repository
 public class UserDatabaseRepository {
@@ -29,6 +32,9 @@ public class UserDatabaseRepository {
 
     private UsersDaoManager usersDaoManager;
 
+    // Пользователи запрашиваются на каждый запрос, поэтому держатся в памяти до изменения
+    private final Map<String, User> usersCache = new ConcurrentHashMap<>();
+
     @Autowired
     private ApplicationContext context;
 
@@ -69,7 +75,18 @@ public class UserDatabaseRepository {
     }
 
     public User getUserByUsername(String userName) {
-        return usersDaoManager.query(userName);
+        if (userName == null) {
+            return null;
+        }
+
+        User user = usersCache.get(userName);
+        if (user == null) {
+            user = usersDaoManager.query(userName);
+            if (user != null) {
+                usersCache.put(userName, user);
+            }
+        }
+        return user;
     }
 
     public User getUserById(long id) {
@@ -95,13 +112,24 @@ public class UserDatabaseRepository {
         if (isRawPassword) {
             user.setPassword(encodePassword(user.getPassword()));
         }
+
+        Optional.ofNullable(user.getId())
+                .map(usersDaoManager::query)
+                .ifPresent(this::invalidateUser);
         usersDaoManager.save(user);
+        invalidateUser(user);
     }
 
     public boolean deleteUser(long id) {
+        Optional.ofNullable(usersDaoManager.query(id)).ifPresent(this::invalidateUser);
         return usersDaoManager.deleteById(id);
     }
 
+    private void invalidateUser(User user) {
+        usersCache.remove(user.getUserName());
+        CachingAuthenticationProvider.invalidate(user.getUserName());
+    }
+
     private String encodePassword(String rawPassword) {
         return context.getBean(PasswordEncoder.class).encode(rawPassword);
     }
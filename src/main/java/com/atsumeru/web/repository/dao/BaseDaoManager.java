@@ -1,13 +1,12 @@
 package com.atsumeru.web.repository.dao;
 
 import com.atsumeru.web.helper.OrmLiteUpgradeTable;
+import com.atsumeru.web.manager.Settings;
 import com.atsumeru.web.model.database.DatabaseVersion;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
-import com.j256.ormlite.jdbc.JdbcConnectionSource;
 import com.j256.ormlite.stmt.QueryBuilder;
 import com.j256.ormlite.stmt.SelectArg;
-import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 import org.sqlite.SQLiteException;
 
@@ -19,11 +18,11 @@ import java.util.List;
 
 public class BaseDaoManager implements Closeable {
     protected String databaseUrl;
-    protected ConnectionSource connectionSource;
+    protected SqliteConnectionSource connectionSource;
 
     public BaseDaoManager(String dbName) throws SQLException {
         databaseUrl = "jdbc:sqlite:" + dbName;
-        connectionSource = new JdbcConnectionSource(databaseUrl);
+        connectionSource = new SqliteConnectionSource(databaseUrl, Settings::getDatabaseReadConnections);
     }
 
     public <T> void clearTable(Class<T> clazz) {
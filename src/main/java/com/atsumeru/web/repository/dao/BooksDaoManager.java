@@ -2,8 +2,12 @@ package com.atsumeru.web.repository.dao;
 
 import com.atsumeru.web.model.book.BookArchive;
 import com.atsumeru.web.model.book.BookSerie;
+import com.atsumeru.web.model.book.BooksCursor;
 import com.atsumeru.web.model.book.IBaseBookItem;
+import com.atsumeru.web.model.database.BookValueLink;
+import com.atsumeru.web.model.database.MetadataValue;
 import com.atsumeru.web.util.StringUtils;
+import com.atsumeru.web.enums.BookValueField;
 import com.atsumeru.web.enums.ContentType;
 import com.atsumeru.web.enums.LibraryPresentation;
 import com.atsumeru.web.helper.OrmLiteUpgradeTable;
@@ -13,11 +17,13 @@ import com.atsumeru.web.model.database.History;
 import com.atsumeru.web.util.ArrayUtils;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.dao.GenericRawResults;
 import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.stmt.QueryBuilder;
 import com.j256.ormlite.stmt.Where;
 import com.j256.ormlite.table.TableUtils;
 import kotlin.NotImplementedError;
+import kotlin.Pair;
 import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,13 +34,38 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 public class BooksDaoManager extends BaseDaoManager {
-    public static final long DB_VERSION = 2;
+    public static final long DB_VERSION = 5;
     private static final Logger logger = LoggerFactory.getLogger(BooksDaoManager.class.getSimpleName());
 
     private static final String REMOVED_FIELD_NAME = "REMOVED";
     private static final String IS_SINGLE_FIELD_NAME = "IS_SINGLE";
     private static final String VACUUM_STATEMENT = "VACUUM";
 
+    private static final String BOOK_ID_FIELD_NAME = "BOOK_ID";
+    private static final String IS_ARCHIVE_FIELD_NAME = "IS_ARCHIVE";
+
+    // Индексы пересоздаются при каждом запуске, т.к. миграция таблиц их не переносит
+    private static final List<String> INDEX_STATEMENTS = Arrays.asList(
+            "CREATE UNIQUE INDEX IF NOT EXISTS METADATA_VALUES_LOOKUP_IDX ON METADATA_VALUES (FIELD, NORMALIZED)",
+            "CREATE INDEX IF NOT EXISTS BOOK_VALUE_LINKS_VALUE_IDX ON BOOK_VALUE_LINKS (VALUE_ID, IS_ARCHIVE, BOOK_ID)",
+            "CREATE INDEX IF NOT EXISTS BOOK_VALUE_LINKS_BOOK_IDX ON BOOK_VALUE_LINKS (IS_ARCHIVE, BOOK_ID, POSITION)",
+            "CREATE INDEX IF NOT EXISTS BOOK_SERIES_PRESENTATION_IDX ON BOOK_SERIES (REMOVED, IS_SINGLE, CONTENT_TYPE)",
+            "CREATE INDEX IF NOT EXISTS BOOK_SERIES_SERIE_ID_IDX ON BOOK_SERIES (SERIE_ID)",
+            "CREATE INDEX IF NOT EXISTS BOOK_SERIES_FOLDER_IDX ON BOOK_SERIES (FOLDER)",
+            "CREATE INDEX IF NOT EXISTS BOOK_SERIES_TITLE_IDX ON BOOK_SERIES (TITLE COLLATE NOCASE)",
+            "CREATE INDEX IF NOT EXISTS BOOK_SERIES_CREATED_AT_IDX ON BOOK_SERIES (CREATED_AT)",
+            "CREATE INDEX IF NOT EXISTS BOOK_SERIES_UPDATED_AT_IDX ON BOOK_SERIES (UPDATED_AT)",
+            "CREATE INDEX IF NOT EXISTS BOOK_SERIES_RATING_IDX ON BOOK_SERIES (RATING)",
+            "CREATE INDEX IF NOT EXISTS BOOK_ARCHIVES_MANGA_ID_IDX ON BOOK_ARCHIVES (MANGA_ID)",
+            "CREATE INDEX IF NOT EXISTS BOOK_ARCHIVES_SERIE_IDX ON BOOK_ARCHIVES (SERIE)",
+            "CREATE INDEX IF NOT EXISTS BOOK_ARCHIVES_FOLDER_IDX ON BOOK_ARCHIVES (FOLDER)",
+            "CREATE INDEX IF NOT EXISTS BOOK_ARCHIVES_CONTENT_TYPE_IDX ON BOOK_ARCHIVES (CONTENT_TYPE)",
+            "CREATE INDEX IF NOT EXISTS BOOK_ARCHIVES_TITLE_IDX ON BOOK_ARCHIVES (TITLE COLLATE NOCASE)",
+            "CREATE INDEX IF NOT EXISTS BOOK_ARCHIVES_CREATED_AT_IDX ON BOOK_ARCHIVES (CREATED_AT)",
+            "CREATE INDEX IF NOT EXISTS HISTORY_USER_SERIE_IDX ON HISTORY (USER_ID, SERIE_HASH)",
+            "CREATE INDEX IF NOT EXISTS HISTORY_USER_ARCHIVE_IDX ON HISTORY (USER_ID, ARCHIVE_HASH)"
+    );
+
     @Getter
     private final Dao<BookArchive, String> archivesDao;
     private final Dao<BookSerie, String> seriesDao;
@@ -42,6 +73,11 @@ public class BooksDaoManager extends BaseDaoManager {
     private final Dao<BookChapter, String> chaptersDao;
     private final Dao<Category, String> categoryDao;
     private final Dao<History, String> historyDao;
+    private final Dao<MetadataValue, String> metadataValuesDao;
+    private final Dao<BookValueLink, String> bookValueLinksDao;
+
+    // Словарь значений: FIELD + NORMALIZED -> ID в METADATA_VALUES
+    private final Map<String, Long> metadataValueIds = new HashMap<>();
 
     @SuppressWarnings("rawtypes")
     private final Map<Dao<?, String>, Class> daoMap = new HashMap<>();
@@ -57,10 +93,14 @@ public class BooksDaoManager extends BaseDaoManager {
         daoMap.put(chaptersDao = createDao(BookChapter.class), BookChapter.class);
         daoMap.put(categoryDao = createDao(Category.class), Category.class);
         daoMap.put(historyDao = createDao(History.class), History.class);
+        daoMap.put(metadataValuesDao = createDao(MetadataValue.class), MetadataValue.class);
+        daoMap.put(bookValueLinksDao = createDao(BookValueLink.class), BookValueLink.class);
 
         HistoryDao = new HistoryDao();
 
         migrateSchema();
+        createIndexes();
+        loadMetadataValueIds();
     }
 
     @SuppressWarnings({"unchecked", "rawtypes"})
@@ -69,8 +109,22 @@ public class BooksDaoManager extends BaseDaoManager {
             for (Map.Entry<Dao<?, String>, Class> entry : daoMap.entrySet()) {
                 migrateTable(entry.getKey(), entry.getValue());
             }
+            // Таблица поиска BOOK_VALUES из версии 4 заменена словарем значений и таблицей связей
+            seriesDao.executeRawNoArgs("DROP TABLE IF EXISTS BOOK_VALUES");
+            createIndexes();
 
             fixIsSerieList();
+            rebuildBookValues();
+        }
+    }
+
+    private void createIndexes() {
+        for (String statement : INDEX_STATEMENTS) {
+            try {
+                seriesDao.executeRawNoArgs(statement);
+            } catch (SQLException ex) {
+                logger.warn("Unable to create index: " + ex.getMessage());
+            }
         }
     }
 
@@ -81,11 +135,24 @@ public class BooksDaoManager extends BaseDaoManager {
         }
     }
 
+    /**
+     * @return true if changes are written in manual commit mode and not visible for read-only connections yet
+     */
+    public boolean isWriteSessionActive() {
+        return connectionSource.isWriteSessionActive();
+    }
+
     @SuppressWarnings("rawtypes")
     public void setAutoCommit(boolean autoCommit) {
+        if (!autoCommit) {
+            connectionSource.beginWriteSession();
+        }
         for (Map.Entry<Dao<?, String>, Class> entry : daoMap.entrySet()) {
             setAutoCommit(entry.getKey(), autoCommit);
         }
+        if (autoCommit) {
+            connectionSource.endWriteSession();
+        }
     }
 
     @SuppressWarnings("rawtypes")
@@ -131,7 +198,6 @@ public class BooksDaoManager extends BaseDaoManager {
     private <T> Dao<T, String> createDao(Class<T> clazz) throws SQLException {
         Dao<T, String> dao = DaoManager.createDao(connectionSource, clazz);
         TableUtils.createTableIfNotExists(connectionSource, clazz);
-        dao.queryRaw("PRAGMA journal_mode=WAL;").getResults();
         return dao;
     }
 
@@ -175,14 +241,14 @@ public class BooksDaoManager extends BaseDaoManager {
     }
 
     public synchronized boolean save(BookSerie item) {
-        return createOrUpdate(seriesDao, item, item.getDbId() != null) > 0;
+        return createOrUpdate(seriesDao, item, item.getDbId() != null) > 0 && saveBookValues(item);
     }
 
     public synchronized <T> boolean save(T item) {
         if (item instanceof BookSerie) {
-            return createOrUpdate(seriesDao, (BookSerie) item, ((BookSerie) item).getDbId() != null) > 0;
+            return createOrUpdate(seriesDao, (BookSerie) item, ((BookSerie) item).getDbId() != null) > 0 && saveBookValues((BookSerie) item);
         } else if (item instanceof BookArchive) {
-            return createOrUpdate(archivesDao, (BookArchive) item, ((BookArchive) item).getDbId() != null) > 0;
+            return createOrUpdate(archivesDao, (BookArchive) item, ((BookArchive) item).getDbId() != null) > 0 && saveBookValues((BookArchive) item);
         } else if (item instanceof BookChapter) {
             return createOrUpdate(chaptersDao, (BookChapter) item, ((BookChapter) item).getId() != null) > 0;
         } else if (item instanceof Category) {
@@ -192,6 +258,160 @@ public class BooksDaoManager extends BaseDaoManager {
         }
     }
 
+    //**********************//
+    //      Book Values     //
+    //**********************//
+
+    /**
+     * Replaces links of book with values of its multi-value fields. New values are interned into dictionary
+     */
+    private synchronized boolean saveBookValues(IBaseBookItem item) {
+        return saveBookValues(item, true);
+    }
+
+    private synchronized boolean saveBookValues(IBaseBookItem item, boolean removeOldLinks) {
+        boolean isArchive = item instanceof BookArchive;
+        try {
+            return bookValueLinksDao.callBatchTasks(() -> {
+                if (removeOldLinks) {
+                    DeleteBuilder<BookValueLink, String> deleteBuilder = bookValueLinksDao.deleteBuilder();
+                    deleteBuilder.where()
+                            .eq(BOOK_ID_FIELD_NAME, item.getDbId())
+                            .and()
+                            .eq(IS_ARCHIVE_FIELD_NAME, isArchive);
+                    deleteBuilder.delete();
+                }
+
+                List<BookValueLink> links = new ArrayList<>();
+                for (BookValueField field : BookValueField.values()) {
+                    List<String> values = field.getValues(item);
+                    for (int i = 0; i < values.size(); i++) {
+                        links.add(new BookValueLink(item.getDbId(), isArchive, internMetadataValue(field, values.get(i)), i));
+                    }
+                }
+                if (!links.isEmpty()) {
+                    bookValueLinksDao.create(links);
+                }
+                return true;
+            });
+        } catch (Exception ex) {
+            logger.error("Unable to save metadata values for book with id = " + item.getDbId());
+            ex.printStackTrace();
+            // Значения, созданные в отмененной транзакции, не должны остаться в словаре
+            loadMetadataValueIds();
+            return false;
+        }
+    }
+
+    private Long internMetadataValue(BookValueField field, String value) throws SQLException {
+        String normalized = BookValueField.normalize(value);
+        String key = field.name() + "|" + normalized;
+        Long id = metadataValueIds.get(key);
+        if (id == null) {
+            MetadataValue metadataValue = new MetadataValue(field.name(), value, normalized);
+            metadataValuesDao.create(metadataValue);
+            metadataValueIds.put(key, id = metadataValue.getId());
+        }
+        return id;
+    }
+
+    private synchronized void loadMetadataValueIds() {
+        metadataValueIds.clear();
+        try {
+            metadataValuesDao.queryForAll().forEach(value -> metadataValueIds.put(value.getField() + "|" + value.getNormalized(), value.getId()));
+        } catch (SQLException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes links of books that are no longer exists and values that are no longer used by any book
+     */
+    private synchronized void pruneBookValues() {
+        try {
+            bookValueLinksDao.executeRawNoArgs("DELETE FROM BOOK_VALUE_LINKS WHERE IS_ARCHIVE = 0 AND BOOK_ID NOT IN (SELECT id FROM BOOK_SERIES)");
+            bookValueLinksDao.executeRawNoArgs("DELETE FROM BOOK_VALUE_LINKS WHERE IS_ARCHIVE = 1 AND BOOK_ID NOT IN (SELECT id FROM BOOK_ARCHIVES)");
+            if (metadataValuesDao.executeRawNoArgs("DELETE FROM METADATA_VALUES WHERE id NOT IN (SELECT VALUE_ID FROM BOOK_VALUE_LINKS)") > 0) {
+                loadMetadataValueIds();
+            }
+        } catch (SQLException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private synchronized void rebuildBookValues() throws SQLException {
+        long time = System.currentTimeMillis();
+        TableUtils.clearTable(connectionSource, BookValueLink.class);
+        TableUtils.clearTable(connectionSource, MetadataValue.class);
+        metadataValueIds.clear();
+        seriesDao.queryForAll().forEach(serie -> saveBookValues(serie, false));
+        archivesDao.queryForAll().forEach(archive -> saveBookValues(archive, false));
+        logger.info(String.format("Metadata values dictionary rebuilt with %d values. Took %dms", metadataValueIds.size(), System.currentTimeMillis() - time));
+    }
+
+    /**
+     * Returns ids of books page with cursor pointing at the last of them. Cursor is null for empty page
+     */
+    public Pair<List<Long>, BooksCursor> queryPage(BooksQuery query) {
+        Dao<?, String> dao = query.isArchives() ? archivesDao : seriesDao;
+        try (GenericRawResults<String[]> results = dao.queryRaw(query.getStatement(), query.getArguments())) {
+            List<String[]> rows = results.getResults();
+            List<Long> ids = rows.stream()
+                    .map(row -> Long.parseLong(row[0]))
+                    .collect(Collectors.toList());
+            return new Pair<>(ids, !rows.isEmpty() ? query.createCursor(rows.get(rows.size() - 1)) : null);
+        } catch (Exception ex) {
+            logger.error("Unable to execute books query: " + query.getStatement());
+            ex.printStackTrace();
+        }
+        return new Pair<>(new ArrayList<>(), null);
+    }
+
+    public long count(BooksQuery query) {
+        Dao<?, String> dao = query.isArchives() ? archivesDao : seriesDao;
+        try {
+            return dao.queryRawValue(query.getCountStatement(), query.getFilterArguments());
+        } catch (SQLException ex) {
+            ex.printStackTrace();
+            return -1L;
+        }
+    }
+
+    /**
+     * Counts books matching {@link BooksQuery} for every value of given fields
+     *
+     * @return map of field -> value -> books count
+     */
+    public Map<BookValueField, Map<String, Long>> queryValueCounts(BooksQuery query, BookValueField... fields) {
+        Map<BookValueField, Map<String, Long>> counts = new EnumMap<>(BookValueField.class);
+        Dao<?, String> dao = query.isArchives() ? archivesDao : seriesDao;
+        try (GenericRawResults<String[]> results = dao.queryRaw(query.getValueCountsStatement(fields), query.getFilterArguments())) {
+            for (String[] row : results) {
+                counts.computeIfAbsent(BookValueField.valueOf(row[0]), field -> new HashMap<>())
+                        .put(row[1], Long.parseLong(row[2]));
+            }
+        } catch (Exception ex) {
+            logger.error("Unable to count metadata values: " + ex.getMessage());
+        }
+        return counts;
+    }
+
+    /**
+     * Counts books matching {@link BooksQuery} for every distinct value of column. Null values are returned with null key
+     */
+    public Map<String, Long> queryColumnCounts(BooksQuery query, String columnName) {
+        Map<String, Long> counts = new HashMap<>();
+        Dao<?, String> dao = query.isArchives() ? archivesDao : seriesDao;
+        try (GenericRawResults<String[]> results = dao.queryRaw(query.getColumnCountsStatement(columnName), query.getFilterArguments())) {
+            for (String[] row : results) {
+                counts.merge(row[0], Long.parseLong(row[1]), Long::sum);
+            }
+        } catch (Exception ex) {
+            logger.error("Unable to count column values: " + ex.getMessage());
+        }
+        return counts;
+    }
+
     @SuppressWarnings("unchecked")
     private <T> QueryBuilder<T, String> getQueryBuilder(Class<T> clazz) {
         if (clazz.isAssignableFrom(BookArchive.class)) {
@@ -223,28 +443,21 @@ public class BooksDaoManager extends BaseDaoManager {
     }
 
     public <T> Long countForCategory(Class<T> clazz, String dbCategoryId, ContentType contentType) {
-        QueryBuilder<?, String> queryBuilder;
+        BooksQuery query;
         if (clazz.isAssignableFrom(BookArchive.class)) {
-            queryBuilder = archivesDao.queryBuilder();
+            query = new BooksQuery(LibraryPresentation.ARCHIVES).whereNotRemoved();
         } else if (clazz.isAssignableFrom(BookSerie.class)) {
-            queryBuilder = seriesDao.queryBuilder();
+            query = new BooksQuery(LibraryPresentation.SERIES_AND_SINGLES);
         } else {
             throw new NotImplementedError();
         }
 
-        try {
-            Where<?, String> where = queryBuilder.where();
-            if (StringUtils.isNotEmpty(dbCategoryId)) {
-                where.like("CATEGORIES", "%" + dbCategoryId + "%");
-            } else if (contentType != null) {
-                where.isNull("CATEGORIES").and().eq("CONTENT_TYPE", contentType.name());
-            }
-
-            return where.and().ne("REMOVED", true).countOf();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            return -1L;
+        if (StringUtils.isNotEmpty(dbCategoryId)) {
+            query.withValue(BookValueField.CATEGORIES, dbCategoryId);
+        } else if (contentType != null) {
+            query.whereNull("CATEGORIES").whereEquals("CONTENT_TYPE", contentType);
         }
+        return count(query);
     }
 
     public <T> Long countForContentType(ContentType contentType, Class<T> clazz) {
@@ -365,6 +578,23 @@ public class BooksDaoManager extends BaseDaoManager {
         return null;
     }
 
+    @SuppressWarnings("unchecked")
+    public <T, C> List<C> queryByIds(Collection<Long> ids, Class<T> clazz) {
+        if (ArrayUtils.isEmpty(ids)) {
+            return new ArrayList<>();
+        }
+        try {
+            if (clazz.isAssignableFrom(BookArchive.class)) {
+                return (List<C>) archivesDao.queryBuilder().where().in("id", ids).query();
+            } else if (clazz.isAssignableFrom(BookSerie.class)) {
+                return (List<C>) seriesDao.queryBuilder().where().in("id", ids).query();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
     @SuppressWarnings("unchecked")
     public <T, C> C queryItem(String itemHash, Class<T> clazz) {
         try {
@@ -645,11 +875,15 @@ public class BooksDaoManager extends BaseDaoManager {
             if (clazz.isAssignableFrom(BookArchive.class)) {
                 DeleteBuilder<BookArchive, String> deleteBuilder = archivesDao.deleteBuilder();
                 deleteBuilder.where().like(columnName,  "%" + columnValue + "%");
-                return archivesDao.delete(deleteBuilder.prepare());
+                int removed = archivesDao.delete(deleteBuilder.prepare());
+                pruneBookValues();
+                return removed;
             } else if (clazz.isAssignableFrom(BookSerie.class)) {
                 DeleteBuilder<BookSerie, String> deleteBuilder = seriesDao.deleteBuilder();
                 deleteBuilder.where().like(columnName,  "%" + columnValue + "%");
-                return seriesDao.delete(deleteBuilder.prepare());
+                int removed = seriesDao.delete(deleteBuilder.prepare());
+                pruneBookValues();
+                return removed;
             } else if (clazz.isAssignableFrom(BookChapter.class)) {
                 DeleteBuilder<BookChapter, String> deleteBuilder = chaptersDao.deleteBuilder();
                 deleteBuilder.where().like(columnName,  "%" + columnValue + "%");
@@ -671,11 +905,15 @@ public class BooksDaoManager extends BaseDaoManager {
             if (clazz.isAssignableFrom(BookArchive.class)) {
                 DeleteBuilder<BookArchive, String> deleteBuilder = archivesDao.deleteBuilder();
                 deleteBuilder.where().in(columnName, inValues);
-                return archivesDao.delete(deleteBuilder.prepare());
+                int removed = archivesDao.delete(deleteBuilder.prepare());
+                pruneBookValues();
+                return removed;
             } else if (clazz.isAssignableFrom(BookSerie.class)) {
                 DeleteBuilder<BookSerie, String> deleteBuilder = seriesDao.deleteBuilder();
                 deleteBuilder.where().in(columnName, inValues);
-                return seriesDao.delete(deleteBuilder.prepare());
+                int removed = seriesDao.delete(deleteBuilder.prepare());
+                pruneBookValues();
+                return removed;
             } else if (clazz.isAssignableFrom(BookChapter.class)) {
                 DeleteBuilder<BookChapter, String> deleteBuilder = chaptersDao.deleteBuilder();
                 deleteBuilder.where().in(columnName, inValues);
@@ -698,6 +936,20 @@ public class BooksDaoManager extends BaseDaoManager {
             return createOrUpdate(historyDao, item, item.getDbId() != null) > 0;
         }
 
+        /**
+         * Saves all items in one transaction. If transaction is already opened (import), items will be committed with it
+         */
+        public void saveAll(Collection<History> items) {
+            try {
+                historyDao.callBatchTasks(() -> {
+                    items.forEach(this::save);
+                    return null;
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
         public List<History> queryByHash(String hash, Class<? extends IBaseBookItem> clazz) {
             try {
                 String fieldName = clazz.isAssignableFrom(BookSerie.class) ? "SERIE_HASH" : "ARCHIVE_HASH";
@@ -771,6 +1023,37 @@ public class BooksDaoManager extends BaseDaoManager {
             return null;
         }
 
+        /**
+         * Returns page of books that user read, ordered by last read time descending. Rows consist of book hash,
+         * last read time and book id. Page may be requested by offset or by cursor that points at last row of
+         * previous page
+         */
+        public List<String[]> queryLastRead(long userId, boolean isSeries, BooksCursor cursor, long offset, long limit) {
+            String hashColumn = isSeries ? "h.SERIE_HASH" : "h.ARCHIVE_HASH";
+            StringBuilder statement = new StringBuilder("SELECT ").append(hashColumn).append(", MAX(h.LAST_READ_AT) AS t, b.id FROM HISTORY h")
+                    .append(isSeries ? " JOIN BOOK_SERIES b ON b.SERIE_ID = h.SERIE_HASH" : " JOIN BOOK_ARCHIVES b ON b.MANGA_ID = h.ARCHIVE_HASH")
+                    .append(" WHERE h.USER_ID = ? GROUP BY ").append(hashColumn);
+
+            List<String> arguments = new ArrayList<>();
+            arguments.add(String.valueOf(userId));
+            if (cursor != null) {
+                statement.append(" HAVING (t, b.id) < (CAST(? AS INTEGER), CAST(? AS INTEGER))");
+                arguments.add(cursor.getKey(0));
+                arguments.add(String.valueOf(cursor.getId()));
+            }
+            statement.append(" ORDER BY t DESC, b.id DESC LIMIT ").append(limit);
+            if (cursor == null) {
+                statement.append(" OFFSET ").append(Math.max(offset, 0));
+            }
+
+            try (GenericRawResults<String[]> results = historyDao.queryRaw(statement.toString(), arguments.toArray(new String[0]))) {
+                return results.getResults();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+            return new ArrayList<>();
+        }
+
         public boolean removeById(long id) {
             try {
                 DeleteBuilder<History, String> deleteBuilder = historyDao.deleteBuilder();
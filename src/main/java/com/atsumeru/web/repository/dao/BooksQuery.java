@@ -0,0 +1,481 @@
+package com.atsumeru.web.repository.dao;
+
+import com.atsumeru.web.enums.AgeRating;
+import com.atsumeru.web.enums.BookValueField;
+import com.atsumeru.web.enums.LibraryPresentation;
+import com.atsumeru.web.enums.LogicalMode;
+import com.atsumeru.web.enums.Sort;
+import com.atsumeru.web.model.book.BooksCursor;
+import com.atsumeru.web.util.ArrayUtils;
+import com.atsumeru.web.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Builds single parameterized SQL statement that selects ids of one page of books. Multi-value fields are matched
+ * through indexed BOOK_VALUE_LINKS and METADATA_VALUES tables, so SQLite returns only requested page.
+ * Page may be requested by offset or by {@link BooksCursor}: sort keys are selected along with ids, so cursor
+ * for next page is created from last row. Same conditions are used for counting books and their field values
+ */
+public class BooksQuery {
+    // Возрастной рейтинг не хранится в БД и вычисляется из IS_ADULT и IS_MATURE
+    public static final String AGE_RATING_COLUMN = "AGE_RATING";
+    private static final String BOOK_ALIAS = "b";
+
+    private final LibraryPresentation libraryPresentation;
+    private final boolean isArchives;
+
+    private final List<String> conditions = new ArrayList<>();
+    private final List<String> arguments = new ArrayList<>();
+
+    private Sort sort;
+    private boolean ascending = true;
+    private Long userId;
+    private BooksCursor cursor;
+    private long offset;
+    private long limit = Integer.MAX_VALUE;
+
+    public BooksQuery(LibraryPresentation libraryPresentation) {
+        this.libraryPresentation = libraryPresentation;
+        this.isArchives = libraryPresentation.isArchivesPresentation();
+
+        if (libraryPresentation.isSeriesOrSinglesPresentation()) {
+            conditions.add(column("REMOVED") + " = 0");
+            if (!libraryPresentation.isSeriesAndSinglesPresentation()) {
+                conditions.add(column("IS_SINGLE") + " = " + (libraryPresentation.isSinglesPresentation() ? 1 : 0));
+            }
+        }
+    }
+
+    public boolean isArchives() {
+        return isArchives;
+    }
+
+    public LibraryPresentation getLibraryPresentation() {
+        return libraryPresentation;
+    }
+
+    /* ***************************************** */
+    /*                 Filters                   */
+    /* ***************************************** */
+
+    /**
+     * Keeps books which column equals to enum name. Null value means no filtering. Books read empty or unknown
+     * values as first enum constant (see {@link com.atsumeru.web.util.EnumUtils#valueOf(Class, String)}),
+     * so for it all values except names of other constants are matched
+     */
+    public BooksQuery whereEquals(String columnName, Enum<?> value) {
+        if (value == null) {
+            return this;
+        }
+
+        if (value.ordinal() > 0) {
+            conditions.add(column(columnName) + " = ?");
+            arguments.add(value.name());
+        } else {
+            List<String> otherNames = Arrays.stream(value.getDeclaringClass().getEnumConstants())
+                    .filter(constant -> constant != value)
+                    .map(Enum::name)
+                    .collect(Collectors.toList());
+            conditions.add("(" + column(columnName) + " IS NULL OR UPPER(" + column(columnName) + ") NOT IN (" + placeholders(otherNames.size()) + "))");
+            arguments.addAll(otherNames);
+        }
+        return this;
+    }
+
+    /**
+     * Keeps books with age rating computed in the same way as {@link com.atsumeru.web.model.book.BaseBook#getAgeRating()}
+     */
+    public BooksQuery whereAgeRating(AgeRating ageRating) {
+        if (ageRating != null) {
+            conditions.add(ageRatingExpression() + " = ?");
+            arguments.add(ageRating.name());
+        }
+        return this;
+    }
+
+    public BooksQuery whereIn(String columnName, Collection<String> values) {
+        if (ArrayUtils.isNotEmpty(values)) {
+            conditions.add(column(columnName) + " IN (" + placeholders(values.size()) + ")");
+            arguments.addAll(values);
+        }
+        return this;
+    }
+
+    public BooksQuery whereNull(String columnName) {
+        conditions.add(column(columnName) + " IS NULL");
+        return this;
+    }
+
+    /**
+     * Removed books are excluded for series presentations by default, archives are excluded only by request
+     */
+    public BooksQuery whereNotRemoved() {
+        if (isArchives) {
+            conditions.add(column("REMOVED") + " = 0");
+        }
+        return this;
+    }
+
+    /**
+     * Keeps books that have value in field
+     */
+    public BooksQuery withValue(BookValueField field, String value) {
+        if (StringUtils.isNotEmpty(value)) {
+            List<String> values = normalize(value);
+            conditions.add(exists(field, values));
+            addValueArguments(field, values);
+        }
+        return this;
+    }
+
+    /**
+     * Keeps books that have any of values in field or have no values in field at all
+     */
+    public BooksQuery withAnyValueOrEmpty(BookValueField field, Collection<String> values) {
+        if (ArrayUtils.isNotEmpty(values)) {
+            List<String> normalized = normalize(values);
+            if (normalized.isEmpty()) {
+                conditions.add("NOT " + exists(field, null));
+            } else {
+                conditions.add("(" + exists(field, normalized) + " OR NOT " + exists(field, null) + ")");
+                addValueArguments(field, normalized);
+            }
+            arguments.add(field.name());
+        }
+        return this;
+    }
+
+    /**
+     * Removes books that have any of values in field
+     */
+    public BooksQuery withoutValues(BookValueField field, Collection<String> values) {
+        if (ArrayUtils.isNotEmpty(values)) {
+            List<String> normalized = normalize(values);
+            if (!normalized.isEmpty()) {
+                conditions.add("NOT " + exists(field, normalized));
+                addValueArguments(field, normalized);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Applies filters in the same way as user expects from filters sheet. Filters prefixed with "-" are negative
+     * and always work in AND mode. Books without values pass only if there are no positive filters
+     */
+    public BooksQuery withMatching(BookValueField field, List<String> filters, LogicalMode logicalMode) {
+        if (ArrayUtils.isEmpty(filters)) {
+            return this;
+        }
+
+        List<String> positive = new ArrayList<>();
+        List<String> negative = new ArrayList<>();
+        for (String filter : filters) {
+            if (StringUtils.isNotEmpty(filter) && filter.startsWith("-")) {
+                negative.add(filter.substring(1));
+            } else if (filter != null) {
+                positive.add(filter);
+            }
+        }
+
+        if (!positive.isEmpty()) {
+            if (logicalMode == LogicalMode.OR) {
+                withAnyValue(field, positive);
+            } else {
+                positive.forEach(value -> withValue(field, value));
+            }
+        }
+        return withoutValues(field, negative);
+    }
+
+    private void withAnyValue(BookValueField field, Collection<String> values) {
+        List<String> normalized = normalize(values);
+        if (normalized.isEmpty()) {
+            // Пустые значения ни с чем не совпадают
+            conditions.add("0");
+            return;
+        }
+        conditions.add(exists(field, normalized));
+        addValueArguments(field, normalized);
+    }
+
+    /* ***************************************** */
+    /*             Sorting and paging            */
+    /* ***************************************** */
+    public BooksQuery orderBy(Sort sort, boolean ascending) {
+        this.sort = sort;
+        this.ascending = ascending;
+        return this;
+    }
+
+    /**
+     * User which reading history is used for {@link Sort#LAST_READ} ordering
+     */
+    public BooksQuery forUser(Long userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    public BooksQuery page(long offset, long limit) {
+        this.offset = Math.max(offset, 0);
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Selects books that go after cursor in current order instead of skipping offset
+     */
+    public BooksQuery after(BooksCursor cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    /**
+     * Statement that selects id and sort keys of books. Uses {@link #getArguments()}
+     */
+    public String getStatement() {
+        List<SortKey> sortKeys = getSortKeys();
+        boolean isAscending = isAscending();
+
+        StringBuilder builder = new StringBuilder("SELECT ").append(column("id"));
+        for (int i = 0; i < sortKeys.size(); i++) {
+            builder.append(", ").append(sortKeys.get(i).expression).append(" AS k").append(i);
+        }
+        builder.append(" FROM ").append(getTableName()).append(" ").append(BOOK_ALIAS);
+
+        List<String> allConditions = new ArrayList<>(conditions);
+        if (cursor != null) {
+            // Сравнение row values: (k0, k1, id) > (?, ?, ?)
+            List<String> keys = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            for (int i = 0; i < sortKeys.size(); i++) {
+                keys.add("k" + i);
+                values.add(sortKeys.get(i).isNumeric ? "CAST(? AS INTEGER)" : "?");
+            }
+            keys.add(column("id"));
+            values.add("CAST(? AS INTEGER)");
+            allConditions.add("(" + String.join(", ", keys) + ") " + (isAscending ? ">" : "<") + " (" + String.join(", ", values) + ")");
+        }
+        if (!allConditions.isEmpty()) {
+            builder.append(" WHERE ").append(String.join(" AND ", allConditions));
+        }
+
+        String direction = isAscending ? " ASC" : " DESC";
+        builder.append(" ORDER BY ");
+        for (int i = 0; i < sortKeys.size(); i++) {
+            builder.append("k").append(i).append(direction).append(", ");
+        }
+        builder.append(column("id")).append(direction);
+
+        builder.append(" LIMIT ").append(limit);
+        if (cursor == null) {
+            builder.append(" OFFSET ").append(offset);
+        }
+        return builder.toString();
+    }
+
+    public String[] getArguments() {
+        List<String> allArguments = new ArrayList<>();
+        if (sort == Sort.LAST_READ) {
+            allArguments.add(String.valueOf(userId));
+        }
+        allArguments.addAll(arguments);
+        if (cursor != null) {
+            int keysCount = getSortKeys().size();
+            for (int i = 0; i < keysCount; i++) {
+                allArguments.add(cursor.getKey(i));
+            }
+            allArguments.add(String.valueOf(cursor.getId()));
+        }
+        return allArguments.toArray(new String[0]);
+    }
+
+    /**
+     * Creates cursor pointing at row returned by {@link #getStatement()}
+     */
+    public BooksCursor createCursor(String[] row) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 1; i < row.length; i++) {
+            keys.add(row[i] != null ? row[i] : "");
+        }
+        return new BooksCursor(keys, Long.parseLong(row[0]));
+    }
+
+    /**
+     * Statement that counts books matching conditions. Uses {@link #getFilterArguments()}
+     */
+    public String getCountStatement() {
+        return "SELECT COUNT(*) FROM " + getTableName() + " " + BOOK_ALIAS + getWhere();
+    }
+
+    /**
+     * Statement that selects FIELD, VALUE and books count for every value of given fields in books matching
+     * conditions. Uses {@link #getFilterArguments()}
+     */
+    public String getValueCountsStatement(BookValueField... fields) {
+        String fieldNames = Arrays.stream(fields)
+                .map(field -> "'" + field.name() + "'")
+                .collect(Collectors.joining(", "));
+
+        return "SELECT m.FIELD, m.VALUE, COUNT(*) FROM " + getTableName() + " " + BOOK_ALIAS
+                + " JOIN BOOK_VALUE_LINKS l ON l.IS_ARCHIVE = " + (isArchives ? 1 : 0) + " AND l.BOOK_ID = " + column("id")
+                + " JOIN METADATA_VALUES m ON m.id = l.VALUE_ID AND m.FIELD IN (" + fieldNames + ")"
+                + getWhere()
+                + " GROUP BY m.id";
+    }
+
+    /**
+     * Statement that selects distinct values of column with books count in books matching conditions.
+     * Uses {@link #getFilterArguments()}
+     */
+    public String getColumnCountsStatement(String columnName) {
+        String expression = AGE_RATING_COLUMN.equals(columnName) ? ageRatingExpression() : column(columnName);
+        return "SELECT " + expression + ", COUNT(*) FROM " + getTableName() + " " + BOOK_ALIAS + getWhere()
+                + " GROUP BY " + expression;
+    }
+
+    public String[] getFilterArguments() {
+        return arguments.toArray(new String[0]);
+    }
+
+    private String getWhere() {
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    private boolean isAscending() {
+        // Как и прежде, книги по дате последнего чтения всегда сортируются по возрастанию
+        return ascending || sort == Sort.LAST_READ;
+    }
+
+    /**
+     * Expressions that books are ordered by. Books with equal keys are ordered by id
+     */
+    private List<SortKey> getSortKeys() {
+        SortKey title = SortKey.text(column("TITLE"));
+        List<SortKey> sortKeys = new ArrayList<>();
+        if (sort == null) {
+            return sortKeys;
+        }
+
+        switch (sort) {
+            case TITLE:
+                break;
+            case YEAR:
+            case COUNTRY:
+            case LANGUAGE:
+            case PUBLISHER:
+            case SCORE:
+                sortKeys.add(SortKey.text(column(sort.name())));
+                break;
+            case VOLUMES_COUNT:
+            case CHAPTERS_COUNT:
+            case CREATED_AT:
+            case UPDATED_AT:
+                sortKeys.add(SortKey.number(column(sort.name())));
+                break;
+            case POPULARITY:
+                sortKeys.add(SortKey.number(column("RATING")));
+                break;
+            case SERIE:
+                sortKeys.add(SortKey.text(firstValue(BookValueField.SERIES)));
+                sortKeys.add(SortKey.text(column("YEAR")));
+                break;
+            case PARODY:
+                sortKeys.add(SortKey.text(firstValue(BookValueField.PARODIES)));
+                break;
+            case LAST_READ:
+                sortKeys.add(SortKey.number(lastReadAt()));
+                break;
+        }
+        sortKeys.add(title);
+        return sortKeys;
+    }
+
+    /* ***************************************** */
+    /*              SQL fragments                */
+    /* ***************************************** */
+    private String getTableName() {
+        return isArchives ? "BOOK_ARCHIVES" : "BOOK_SERIES";
+    }
+
+    private String exists(BookValueField field, Collection<String> values) {
+        String statement = "EXISTS (SELECT 1 FROM BOOK_VALUE_LINKS l JOIN METADATA_VALUES m ON m.id = l.VALUE_ID WHERE m.FIELD = ?";
+        if (values != null) {
+            statement += " AND m.NORMALIZED " + (values.size() == 1 ? "= ?" : "IN (" + placeholders(values.size()) + ")");
+        }
+        return statement + " AND l.IS_ARCHIVE = " + (isArchives ? 1 : 0) + " AND l.BOOK_ID = " + column("id") + ")";
+    }
+
+    private String firstValue(BookValueField field) {
+        return "COALESCE((SELECT m.NORMALIZED FROM BOOK_VALUE_LINKS l JOIN METADATA_VALUES m ON m.id = l.VALUE_ID WHERE m.FIELD = '"
+                + field.name() + "' AND l.IS_ARCHIVE = " + (isArchives ? 1 : 0) + " AND l.BOOK_ID = " + column("id")
+                + " AND l.POSITION = 0), '')";
+    }
+
+    private static String ageRatingExpression() {
+        return "(CASE WHEN COALESCE(" + column("IS_ADULT") + ", 0) = 1 THEN '" + AgeRating.ADULTS_ONLY.name()
+                + "' WHEN COALESCE(" + column("IS_MATURE") + ", 0) = 1 THEN '" + AgeRating.MATURE.name()
+                + "' ELSE '" + AgeRating.EVERYONE.name() + "' END)";
+    }
+
+    private String lastReadAt() {
+        return "(SELECT MAX(h.LAST_READ_AT) FROM HISTORY h WHERE h.USER_ID = ? AND "
+                + (isArchives ? "h.ARCHIVE_HASH = " + column("MANGA_ID") : "h.SERIE_HASH = " + column("SERIE_ID"))
+                + " AND h.CHAPTER_HASH IS NULL)";
+    }
+
+    private void addValueArguments(BookValueField field, List<String> values) {
+        arguments.add(field.name());
+        arguments.addAll(values);
+    }
+
+    private static String column(String columnName) {
+        return BOOK_ALIAS + "." + columnName;
+    }
+
+    /**
+     * Sort key expression. Keys are never NULL, so they can be compared with cursor values
+     */
+    private static class SortKey {
+        private final String expression;
+        private final boolean isNumeric;
+
+        private SortKey(String expression, boolean isNumeric) {
+            this.expression = expression;
+            this.isNumeric = isNumeric;
+        }
+
+        private static SortKey text(String expression) {
+            return new SortKey("COALESCE(" + expression + ", '') COLLATE NOCASE", false);
+        }
+
+        private static SortKey number(String expression) {
+            return new SortKey("COALESCE(" + expression + ", 0)", true);
+        }
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static List<String> normalize(String value) {
+        List<String> values = new ArrayList<>();
+        values.add(BookValueField.normalize(value));
+        return values;
+    }
+
+    private static List<String> normalize(Collection<String> values) {
+        return values.stream()
+                .filter(StringUtils::isNotEmpty)
+                .map(BookValueField::normalize)
+                .filter(StringUtils::isNotEmpty)
+                .distinct()
+                .collect(Collectors.toList());
+    }
+}
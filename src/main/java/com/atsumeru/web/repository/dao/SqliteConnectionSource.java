@@ -0,0 +1,209 @@
+package com.atsumeru.web.repository.dao;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.logger.Logger;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * SQLite connection source with single writer connection and pool of read-only connections. Database works in WAL
+ * mode, so readers don't wait for writer and see last committed state of database.
+ * <p>
+ * Reads go through writer connection when thread holds OrmLite transaction or takes part in write session
+ * (see {@link #beginWriteSession()}), so such threads still see their own uncommitted changes.
+ * <p>
+ * Number of readers in use is limited by read connections setting. When all of them are busy, read waits
+ * for a short time and then goes through writer connection
+ */
+public class SqliteConnectionSource extends JdbcConnectionSource {
+    private static final int BUSY_TIMEOUT_MS = 5000;
+    private static final int READER_WAIT_TIMEOUT_MS = 50;
+
+    private static final String[] COMMON_PRAGMAS = {
+            "PRAGMA busy_timeout=" + BUSY_TIMEOUT_MS,
+            "PRAGMA temp_store=MEMORY",
+            "PRAGMA cache_size=-16000",
+            "PRAGMA mmap_size=268435456"
+    };
+    private static final String[] WRITER_PRAGMAS = {
+            "PRAGMA journal_mode=WAL",
+            "PRAGMA synchronous=NORMAL"
+    };
+    private static final String[] READER_PRAGMAS = {
+            "PRAGMA query_only=1"
+    };
+
+    private final IntSupplier readConnectionsSupplier;
+
+    private final Deque<DatabaseConnection> idleReaders = new ConcurrentLinkedDeque<>();
+    private final Set<DatabaseConnection> readers = ConcurrentHashMap.newKeySet();
+    private final ReaderPermits readerPermits = new ReaderPermits();
+    private final Set<Thread> writeSessionThreads = ConcurrentHashMap.newKeySet();
+    private volatile boolean writeSessionActive;
+    private volatile boolean closed;
+
+    public SqliteConnectionSource(String url, IntSupplier readConnectionsSupplier) throws SQLException {
+        super(url);
+        this.readConnectionsSupplier = readConnectionsSupplier;
+        // Writer открывается сразу, чтобы база была переведена в WAL до появления первого reader
+        releaseConnection(getReadWriteConnection(null));
+    }
+
+    /**
+     * Marks start of long write session (writer switched into manual commit mode). Every thread that writes during
+     * session reads through writer until {@link #endWriteSession()}
+     */
+    public void beginWriteSession() {
+        writeSessionActive = true;
+        writeSessionThreads.add(Thread.currentThread());
+    }
+
+    public void endWriteSession() {
+        writeSessionActive = false;
+        writeSessionThreads.clear();
+    }
+
+    public boolean isWriteSessionActive() {
+        return writeSessionActive;
+    }
+
+    @Override
+    public DatabaseConnection getReadOnlyConnection(String tableName) throws SQLException {
+        if (!canUseReader() || !acquireReaderPermit()) {
+            return getReadWriteConnection(tableName);
+        }
+
+        try {
+            DatabaseConnection reader = idleReaders.pollFirst();
+            return reader != null ? reader : makeReader();
+        } catch (SQLException ex) {
+            readerPermits.release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public DatabaseConnection getReadWriteConnection(String tableName) throws SQLException {
+        DatabaseConnection saved = getSavedConnection();
+        if (saved != null) {
+            return saved;
+        }
+        if (writeSessionActive) {
+            writeSessionThreads.add(Thread.currentThread());
+        }
+        return super.getReadWriteConnection(tableName);
+    }
+
+    @Override
+    public void releaseConnection(DatabaseConnection connection) throws SQLException {
+        if (!readers.contains(connection)) {
+            super.releaseConnection(connection);
+            return;
+        }
+
+        readerPermits.release();
+        if (!closed && idleReaders.size() < readConnectionsSupplier.getAsInt()) {
+            idleReaders.offerFirst(connection);
+        } else {
+            closeReader(connection);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        idleReaders.clear();
+        readers.forEach(this::closeReader);
+        super.close();
+    }
+
+    @Override
+    protected DatabaseConnection makeConnection(Logger logger) throws SQLException {
+        DatabaseConnection connection = super.makeConnection(logger);
+        if (connection instanceof JdbcDatabaseConnection) {
+            Connection internalConnection = ((JdbcDatabaseConnection) connection).getInternalConnection();
+            applyPragmas(internalConnection, COMMON_PRAGMAS);
+            applyPragmas(internalConnection, WRITER_PRAGMAS);
+        }
+        return connection;
+    }
+
+    private boolean canUseReader() {
+        return !closed
+                && getSavedConnection() == null
+                && !(writeSessionActive && writeSessionThreads.contains(Thread.currentThread()))
+                && readConnectionsSupplier.getAsInt() > 0;
+    }
+
+    private boolean acquireReaderPermit() {
+        readerPermits.resize(readConnectionsSupplier.getAsInt());
+        try {
+            return readerPermits.tryAcquire(READER_WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private DatabaseConnection makeReader() throws SQLException {
+        Connection connection = DriverManager.getConnection(getUrl());
+        try {
+            applyPragmas(connection, COMMON_PRAGMAS);
+            applyPragmas(connection, READER_PRAGMAS);
+        } catch (SQLException ex) {
+            connection.close();
+            throw ex;
+        }
+
+        DatabaseConnection reader = new JdbcDatabaseConnection(connection);
+        readers.add(reader);
+        return reader;
+    }
+
+    private void closeReader(DatabaseConnection reader) {
+        readers.remove(reader);
+        reader.closeQuietly();
+    }
+
+    private static void applyPragmas(Connection connection, String... pragmas) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String pragma : pragmas) {
+                statement.execute(pragma);
+            }
+        }
+    }
+
+    /**
+     * Permits for readers in use. Number of permits follows read connections setting, which may change after
+     * connection source was created
+     */
+    private static class ReaderPermits extends Semaphore {
+        private int size;
+
+        ReaderPermits() {
+            super(0);
+        }
+
+        synchronized void resize(int newSize) {
+            if (newSize > size) {
+                release(newSize - size);
+            } else if (newSize < size) {
+                reducePermits(size - newSize);
+            }
+            size = newSize;
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package com.atsumeru.web.repository.index;
+
+import com.atsumeru.web.enums.LibraryPresentation;
+import com.atsumeru.web.enums.LogicalMode;
+import com.atsumeru.web.enums.Sort;
+import com.atsumeru.web.model.book.BooksCursor;
+import com.atsumeru.web.model.book.IBaseBookItem;
+import com.atsumeru.web.util.ArrayUtils;
+import com.atsumeru.web.util.StringUtils;
+import com.atsumeru.web.util.comparator.AlphanumComparator;
+import com.atsumeru.web.util.comparator.NaturalStringComparator;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Resident columnar index of book metadata. Every multi-value field is dictionary-encoded and has a {@link BitSet}
+ * per value, so filters become bitmap operations. Sort orders are computed lazily and reused until next change
+ */
+public class BooksIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    public enum Field {
+        CONTENT_TYPE(item -> enumName(item.getContentType()), false),
+        STATUS(item -> enumName(item.getStatus()), false),
+        TRANSLATION_STATUS(item -> enumName(item.getTranslationStatus()), false),
+        PLOT_TYPE(item -> enumName(item.getPlotType()), false),
+        CENSORSHIP(item -> enumName(item.getCensorship()), false),
+        COLOR(item -> enumName(item.getColor()), false),
+        AGE_RATING(item -> enumName(item.getAgeRating()), false),
+        AUTHORS(IBaseBookItem::getAuthors, true),
+        ARTISTS(IBaseBookItem::getArtists, true),
+        PUBLISHERS(IBaseBookItem::getPublisher, true),
+        TRANSLATORS(IBaseBookItem::getTranslators, true),
+        GENRES(IBaseBookItem::getGenres, true),
+        TAGS(IBaseBookItem::getTags, true),
+        YEARS(IBaseBookItem::getYear, true),
+        COUNTRIES(IBaseBookItem::getCountry, true),
+        LANGUAGES(IBaseBookItem::getLanguage, true),
+        EVENTS(IBaseBookItem::getEvent, true),
+        CHARACTERS(IBaseBookItem::getCharacters, true),
+        SERIES(IBaseBookItem::getSeries, true),
+        PARODIES(IBaseBookItem::getParodies, true),
+        CIRCLES(IBaseBookItem::getCircles, true),
+        MAGAZINES(IBaseBookItem::getMagazines, true),
+        CATEGORIES(IBaseBookItem::getCategories, true);
+
+        private final Function<IBaseBookItem, String> extractor;
+        private final boolean multiValue;
+
+        Field(Function<IBaseBookItem, String> extractor, boolean multiValue) {
+            this.extractor = extractor;
+            this.multiValue = multiValue;
+        }
+
+        private List<String> getValues(IBaseBookItem item) {
+            String value = extractor.apply(item);
+            if (StringUtils.isEmpty(value)) {
+                return Collections.emptyList();
+            }
+            return multiValue
+                    ? ArrayUtils.splitString(value, ",")
+                    : Collections.singletonList(value);
+        }
+
+        private static String enumName(Enum<?> value) {
+            return value != null ? value.name() : null;
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Long, Integer> docIds = new HashMap<>();
+    private final Deque<Integer> freeDocs = new ArrayDeque<>();
+    private final Column[] columns = new Column[Field.values().length];
+
+    private final BitSet alive = new BitSet();
+    private final BitSet singles = new BitSet();
+    private final BitSet removed = new BitSet();
+
+    private int capacity = INITIAL_CAPACITY;
+    private int size;
+
+    private long[] dbIds = new long[capacity];
+    private String[] titles = new String[capacity];
+    private String[] years = new String[capacity];
+    private String[] countries = new String[capacity];
+    private String[] languages = new String[capacity];
+    private String[] publishers = new String[capacity];
+    private String[] scores = new String[capacity];
+    private String[] firstSeries = new String[capacity];
+    private String[] firstParodies = new String[capacity];
+    private long[] volumesCounts = new long[capacity];
+    private long[] chaptersCounts = new long[capacity];
+    private long[] createdAts = new long[capacity];
+    private long[] updatedAts = new long[capacity];
+    private long[] ratings = new long[capacity];
+
+    private final Map<Sort, int[]> sortOrders = new HashMap<>();
+
+    public BooksIndex() {
+        for (Field field : Field.values()) {
+            columns[field.ordinal()] = new Column(capacity);
+        }
+    }
+
+    /* ***************************************** */
+    /*                 Mutation                  */
+    /* ***************************************** */
+    public void rebuild(List<? extends IBaseBookItem> items) {
+        lock.writeLock().lock();
+        try {
+            docIds.clear();
+            freeDocs.clear();
+            alive.clear();
+            singles.clear();
+            removed.clear();
+            sortOrders.clear();
+            size = 0;
+            for (Field field : Field.values()) {
+                columns[field.ordinal()] = new Column(capacity);
+            }
+            items.forEach(this::putInternal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void put(IBaseBookItem item) {
+        lock.writeLock().lock();
+        try {
+            putInternal(item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long dbId) {
+        lock.writeLock().lock();
+        try {
+            Integer doc = docIds.remove(dbId);
+            if (doc != null) {
+                clearDoc(doc);
+                freeDocs.push(doc);
+                sortOrders.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void putInternal(IBaseBookItem item) {
+        if (item == null || item.getDbId() == null) {
+            return;
+        }
+
+        Integer doc = docIds.get(item.getDbId());
+        if (doc != null) {
+            clearDoc(doc);
+        } else {
+            doc = !freeDocs.isEmpty() ? freeDocs.pop() : size++;
+            ensureCapacity(size);
+            docIds.put(item.getDbId(), doc);
+        }
+
+        dbIds[doc] = item.getDbId();
+        titles[doc] = item.getTitle();
+        years[doc] = item.getYear();
+        countries[doc] = item.getCountry();
+        languages[doc] = item.getLanguage();
+        publishers[doc] = item.getPublisher();
+        scores[doc] = item.getScore();
+        firstSeries[doc] = ArrayUtils.safeGetString(ArrayUtils.splitString(item.getSeries()), 0, "");
+        firstParodies[doc] = ArrayUtils.safeGetString(ArrayUtils.splitString(item.getParodies()), 0, "");
+        volumesCounts[doc] = Optional.ofNullable(item.getVolumesCount()).orElse(0L);
+        chaptersCounts[doc] = Optional.ofNullable(item.getChaptersCount()).orElse(0L);
+        createdAts[doc] = Optional.ofNullable(item.getCreatedAt()).orElse(0L);
+        updatedAts[doc] = Optional.ofNullable(item.getUpdatedAt()).orElse(0L);
+        ratings[doc] = Optional.ofNullable(item.getRating()).orElse(0);
+
+        for (Field field : Field.values()) {
+            columns[field.ordinal()].put(doc, field.getValues(item));
+        }
+
+        alive.set(doc);
+        singles.set(doc, Boolean.TRUE.equals(item.isSingle()));
+        removed.set(doc, item.isRemoved());
+        sortOrders.clear();
+    }
+
+    private void clearDoc(int doc) {
+        for (Column column : columns) {
+            column.clear(doc);
+        }
+        alive.clear(doc);
+        singles.clear(doc);
+        removed.clear(doc);
+        titles[doc] = null;
+        years[doc] = null;
+        countries[doc] = null;
+        languages[doc] = null;
+        publishers[doc] = null;
+        scores[doc] = null;
+        firstSeries[doc] = null;
+        firstParodies[doc] = null;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= capacity) {
+            return;
+        }
+        capacity = Math.max(capacity * 2, required);
+        dbIds = Arrays.copyOf(dbIds, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        years = Arrays.copyOf(years, capacity);
+        countries = Arrays.copyOf(countries, capacity);
+        languages = Arrays.copyOf(languages, capacity);
+        publishers = Arrays.copyOf(publishers, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        firstSeries = Arrays.copyOf(firstSeries, capacity);
+        firstParodies = Arrays.copyOf(firstParodies, capacity);
+        volumesCounts = Arrays.copyOf(volumesCounts, capacity);
+        chaptersCounts = Arrays.copyOf(chaptersCounts, capacity);
+        createdAts = Arrays.copyOf(createdAts, capacity);
+        updatedAts = Arrays.copyOf(updatedAts, capacity);
+        ratings = Arrays.copyOf(ratings, capacity);
+        for (Column column : columns) {
+            column.ensureCapacity(capacity);
+        }
+    }
+
+    /* ***************************************** */
+    /*                  Query                    */
+    /* ***************************************** */
+
+    /**
+     * Executes whole query under read lock, so all selection/sorting calls inside see consistent state
+     */
+    public <R> R read(Supplier<R> query) {
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        return docIds.size();
+    }
+
+    public BitSet select(LibraryPresentation libraryPresentation) {
+        BitSet docs = (BitSet) alive.clone();
+        if (libraryPresentation != null && libraryPresentation.isSeriesOrSinglesPresentation()) {
+            docs.andNot(removed);
+            if (libraryPresentation.isSeriesPresentation()) {
+                docs.andNot(singles);
+            } else if (libraryPresentation.isSinglesPresentation()) {
+                docs.and(singles);
+            }
+        }
+        return docs;
+    }
+
+    public void retainEquals(BitSet docs, Field field, Enum<?> value) {
+        if (value != null) {
+            docs.and(columns[field.ordinal()].get(value.name()));
+        }
+    }
+
+    public void retainAny(BitSet docs, Field field, Collection<String> values) {
+        docs.and(columns[field.ordinal()].union(values));
+    }
+
+    public void removeAny(BitSet docs, Field field, Collection<String> values) {
+        if (ArrayUtils.isNotEmpty(values)) {
+            docs.andNot(columns[field.ordinal()].union(values));
+        }
+    }
+
+    /**
+     * Keeps docs that contains any of values or that have no values in field at all
+     */
+    public void retainAnyOrEmpty(BitSet docs, Field field, Collection<String> values) {
+        Column column = columns[field.ordinal()];
+        BitSet matched = column.union(values);
+        BitSet empty = (BitSet) alive.clone();
+        empty.andNot(column.withValues);
+        matched.or(empty);
+        docs.and(matched);
+    }
+
+    /**
+     * Applies filters in the same way as user expects from filters sheet. Filters prefixed with "-" are negative
+     * and always work in AND mode. Items without values pass only if there are no positive filters
+     */
+    public void retainMatching(BitSet docs, Field field, List<String> filters, LogicalMode logicalMode) {
+        if (ArrayUtils.isEmpty(filters)) {
+            return;
+        }
+
+        List<String> positive = new ArrayList<>();
+        List<String> negative = new ArrayList<>();
+        for (String filter : filters) {
+            if (StringUtils.isNotEmpty(filter) && filter.startsWith("-")) {
+                negative.add(filter.substring(1));
+            } else {
+                positive.add(filter);
+            }
+        }
+
+        Column column = columns[field.ordinal()];
+        BitSet withValues = (BitSet) docs.clone();
+        withValues.and(column.withValues);
+
+        if (!positive.isEmpty()) {
+            if (logicalMode == LogicalMode.OR) {
+                withValues.and(column.union(positive));
+            } else {
+                positive.forEach(value -> withValues.and(column.get(value)));
+            }
+        }
+        withValues.andNot(column.union(negative));
+
+        if (!positive.isEmpty()) {
+            docs.and(withValues);
+        } else {
+            docs.andNot(column.withValues);
+            docs.or(withValues);
+        }
+    }
+
+    public void retainDbIds(BitSet docs, Collection<Long> dbIds) {
+        BitSet matched = new BitSet();
+        for (Long dbId : dbIds) {
+            Integer doc = docIds.get(dbId);
+            if (doc != null) {
+                matched.set(doc);
+            }
+        }
+        docs.and(matched);
+    }
+
+    /**
+     * Returns database ids of selected docs in requested order. Iterates over cached sort order,
+     * so only {@code offset + limit} matched docs are visited
+     */
+    public List<Long> getDbIds(BitSet docs, Sort sort, boolean ascending, long offset, long limit) {
+        return getDbIds(docs, getSortOrder(sort), ascending, 0, offset, limit);
+    }
+
+    /**
+     * Returns database ids of selected docs that follow {@code cursor} in requested order. Start position is found
+     * by binary search in cached sort order, so previous pages are not visited at all
+     */
+    public List<Long> getDbIds(BitSet docs, Sort sort, boolean ascending, BooksCursor cursor, long limit) {
+        if (cursor == null) {
+            return getDbIds(docs, getSortOrder(sort), ascending, 0, 0, limit);
+        }
+
+        int[] order = getSortOrder(sort);
+        List<SortKey> keys = getSortKeys(sort);
+
+        // Первая позиция в порядке возрастания, которая идет после курсора
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareToCursor(keys, order[middle], cursor) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        if (ascending) {
+            return getDbIds(docs, order, true, low, 0, limit);
+        }
+
+        // При обратном порядке начинаем с последней позиции перед курсором
+        int end = low > 0 && compareToCursor(keys, order[low - 1], cursor) == 0 ? low - 1 : low;
+        return getDbIds(docs, order, false, order.length - end, 0, limit);
+    }
+
+    private List<Long> getDbIds(BitSet docs, int[] order, boolean ascending, int start, long offset, long limit) {
+        List<Long> ids = new ArrayList<>();
+        long skipped = 0;
+        for (int i = start; i < order.length && ids.size() < limit; i++) {
+            int doc = order[ascending ? i : order.length - 1 - i];
+            if (docs.get(doc)) {
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    ids.add(dbIds[doc]);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Creates cursor that points at book with given database id in given sort
+     */
+    public BooksCursor getCursor(long dbId, Sort sort) {
+        Integer doc = docIds.get(dbId);
+        if (doc == null) {
+            return null;
+        }
+        return new BooksCursor(getSortKeys(sort).stream()
+                .map(key -> key.getValue(doc))
+                .collect(Collectors.toList()), dbId);
+    }
+
+    private int compareToCursor(List<SortKey> keys, int doc, BooksCursor cursor) {
+        for (int i = 0; i < keys.size(); i++) {
+            int result = keys.get(i).compareToKey(doc, cursor.getKey(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Long.compare(dbIds[doc], cursor.getId());
+    }
+
+    private int[] getSortOrder(Sort sort) {
+        synchronized (sortOrders) {
+            return sortOrders.computeIfAbsent(sort, key -> IntStream.range(0, size)
+                    .filter(alive::get)
+                    .boxed()
+                    .sorted(getComparator(key))
+                    .mapToInt(Integer::intValue)
+                    .toArray());
+        }
+    }
+
+    private Comparator<Integer> getComparator(Sort sort) {
+        List<SortKey> keys = getSortKeys(sort);
+        return (doc1, doc2) -> {
+            for (SortKey key : keys) {
+                int result = key.compare(doc1, doc2);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            // Одинаковые книги упорядочиваются по id, чтобы курсор однозначно указывал на позицию
+            return Long.compare(dbIds[doc1], dbIds[doc2]);
+        };
+    }
+
+    private List<SortKey> getSortKeys(Sort sort) {
+        SortKey byTitle = SortKey.natural(titles);
+        if (sort == null) {
+            return Collections.emptyList();
+        }
+
+        switch (sort) {
+            case TITLE:
+                return Collections.singletonList(byTitle);
+            case YEAR:
+                return Arrays.asList(SortKey.alphanum(years), byTitle);
+            case COUNTRY:
+                return Arrays.asList(SortKey.alphanum(countries), byTitle);
+            case LANGUAGE:
+                return Arrays.asList(SortKey.alphanum(languages), byTitle);
+            case PUBLISHER:
+                return Arrays.asList(SortKey.alphanum(publishers), byTitle);
+            case SERIE:
+                return Arrays.asList(SortKey.alphanum(firstSeries), SortKey.alphanum(years), byTitle);
+            case PARODY:
+                return Arrays.asList(SortKey.alphanum(firstParodies), byTitle);
+            case VOLUMES_COUNT:
+                return Arrays.asList(SortKey.numeric(volumesCounts), byTitle);
+            case CHAPTERS_COUNT:
+                return Arrays.asList(SortKey.numeric(chaptersCounts), byTitle);
+            case SCORE:
+                return Arrays.asList(SortKey.alphanum(scores), byTitle);
+            case CREATED_AT:
+                return Arrays.asList(SortKey.numeric(createdAts), byTitle);
+            case UPDATED_AT:
+                return Arrays.asList(SortKey.numeric(updatedAts), byTitle);
+            case POPULARITY:
+                return Arrays.asList(SortKey.numeric(ratings), byTitle);
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Sort key over text or numeric column. Keys are created for current column arrays, so they must be used under lock
+     */
+    private static class SortKey {
+        private final String[] texts;
+        private final Comparator<String> textComparator;
+        private final long[] numbers;
+
+        private SortKey(String[] texts, Comparator<String> textComparator, long[] numbers) {
+            this.texts = texts;
+            this.textComparator = textComparator;
+            this.numbers = numbers;
+        }
+
+        private static SortKey natural(String[] column) {
+            return new SortKey(column, NaturalStringComparator::compareStrings, null);
+        }
+
+        private static SortKey alphanum(String[] column) {
+            return new SortKey(column, AlphanumComparator::compareStrings, null);
+        }
+
+        private static SortKey numeric(long[] column) {
+            return new SortKey(null, null, column);
+        }
+
+        private String getValue(int doc) {
+            return numbers != null
+                    ? String.valueOf(numbers[doc])
+                    : Optional.ofNullable(texts[doc]).orElse("");
+        }
+
+        private int compare(int doc1, int doc2) {
+            return numbers != null
+                    ? Long.compare(numbers[doc1], numbers[doc2])
+                    : textComparator.compare(getValue(doc1), getValue(doc2));
+        }
+
+        private int compareToKey(int doc, String key) {
+            if (numbers != null) {
+                long value;
+                try {
+                    value = Long.parseLong(key);
+                } catch (NumberFormatException ex) {
+                    value = 0;
+                }
+                return Long.compare(numbers[doc], value);
+            }
+            return textComparator.compare(getValue(doc), key);
+        }
+    }
+
+    /**
+     * Dictionary-encoded column: value -> code, code -> docs bitmap, doc -> codes
+     */
+    private static class Column {
+        private static final BitSet EMPTY = new BitSet();
+
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<BitSet> postings = new ArrayList<>();
+        private final BitSet withValues = new BitSet();
+        private int[][] docCodes;
+
+        private Column(int capacity) {
+            docCodes = new int[capacity][];
+        }
+
+        private void ensureCapacity(int capacity) {
+            docCodes = Arrays.copyOf(docCodes, capacity);
+        }
+
+        private void put(int doc, List<String> values) {
+            int[] codes = values.stream()
+                    .map(String::toLowerCase)
+                    .distinct()
+                    .mapToInt(value -> dictionary.computeIfAbsent(value, key -> {
+                        postings.add(new BitSet());
+                        return postings.size() - 1;
+                    }))
+                    .toArray();
+
+            for (int code : codes) {
+                postings.get(code).set(doc);
+            }
+            docCodes[doc] = codes;
+            withValues.set(doc, codes.length > 0);
+        }
+
+        private void clear(int doc) {
+            int[] codes = docCodes[doc];
+            if (codes != null) {
+                for (int code : codes) {
+                    postings.get(code).clear(doc);
+                }
+                docCodes[doc] = null;
+            }
+            withValues.clear(doc);
+        }
+
+        private BitSet get(String value) {
+            Integer code = value != null ? dictionary.get(value.toLowerCase()) : null;
+            return code != null ? postings.get(code) : EMPTY;
+        }
+
+        private BitSet union(Collection<String> values) {
+            BitSet result = new BitSet();
+            if (values != null) {
+                values.forEach(value -> result.or(get(value)));
+            }
+            return result;
+        }
+    }
+}
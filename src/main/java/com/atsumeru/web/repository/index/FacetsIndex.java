@@ -0,0 +1,278 @@
+package com.atsumeru.web.repository.index;
+
+import com.atsumeru.web.enums.BookValueField;
+import com.atsumeru.web.model.book.IBaseBookItem;
+import com.atsumeru.web.util.ArrayUtils;
+import com.atsumeru.web.util.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Materialized filter facets: every value of every filterable field with count of books that have it, grouped by
+ * content type and category. Counts are maintained by applying per-book deltas on put/remove, so reading facets never
+ * touches books. Facets for user with disallowed genres/tags are derived by subtracting contributions of hidden books
+ */
+public class FacetsIndex {
+    private static final String ANY = "";
+
+    public enum Facet {
+        CONTENT_TYPE(item -> enumValue(item.getContentType())),
+        STATUS(item -> enumValue(item.getStatus())),
+        TRANSLATION_STATUS(item -> enumValue(item.getTranslationStatus())),
+        PLOT_TYPE(item -> enumValue(item.getPlotType())),
+        CENSORSHIP(item -> enumValue(item.getCensorship())),
+        COLOR(item -> enumValue(item.getColor())),
+        AGE_RATING(item -> enumValue(item.getAgeRating())),
+        AUTHORS(BookValueField.AUTHORS::getValues),
+        ARTISTS(BookValueField.ARTISTS::getValues),
+        PUBLISHERS(BookValueField.PUBLISHERS::getValues),
+        TRANSLATORS(BookValueField.TRANSLATORS::getValues),
+        GENRES(BookValueField.GENRES::getValues),
+        TAGS(BookValueField.TAGS::getValues),
+        YEARS(BookValueField.YEARS::getValues),
+        COUNTRIES(BookValueField.COUNTRIES::getValues),
+        LANGUAGES(BookValueField.LANGUAGES::getValues),
+        EVENTS(BookValueField.EVENTS::getValues),
+        CHARACTERS(BookValueField.CHARACTERS::getValues),
+        SERIES(BookValueField.SERIES::getValues),
+        PARODIES(BookValueField.PARODIES::getValues),
+        CIRCLES(BookValueField.CIRCLES::getValues),
+        MAGAZINES(BookValueField.MAGAZINES::getValues);
+
+        private final Function<IBaseBookItem, List<String>> extractor;
+
+        Facet(Function<IBaseBookItem, List<String>> extractor) {
+            this.extractor = extractor;
+        }
+
+        private static List<String> enumValue(Enum<?> value) {
+            return value != null ? Collections.singletonList(value.name()) : Collections.emptyList();
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, ScopeFacets> scopes = new HashMap<>();
+    private final Map<Long, DocFacets> docs = new HashMap<>();
+    // Книги по значениям жанров и тегов, чтобы быстро найти книги, скрытые от пользователя
+    private final Map<String, Set<Long>> genreDocs = new HashMap<>();
+    private final Map<String, Set<Long>> tagDocs = new HashMap<>();
+
+    /* ***************************************** */
+    /*                 Mutation                  */
+    /* ***************************************** */
+    public void rebuild(List<? extends IBaseBookItem> items) {
+        lock.writeLock().lock();
+        try {
+            scopes.clear();
+            docs.clear();
+            genreDocs.clear();
+            tagDocs.clear();
+            items.forEach(this::putInternal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void put(IBaseBookItem item) {
+        lock.writeLock().lock();
+        try {
+            putInternal(item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long dbId) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(dbId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void putInternal(IBaseBookItem item) {
+        if (item == null || item.getDbId() == null) {
+            return;
+        }
+
+        removeInternal(item.getDbId());
+        if (item.isRemoved()) {
+            return;
+        }
+
+        DocFacets doc = new DocFacets(item);
+        docs.put(item.getDbId(), doc);
+        doc.scopes.forEach(scope -> scopes.computeIfAbsent(scope, key -> new ScopeFacets()).add(doc, 1));
+        addPostings(genreDocs, doc.values.get(Facet.GENRES), item.getDbId());
+        addPostings(tagDocs, doc.values.get(Facet.TAGS), item.getDbId());
+    }
+
+    private void removeInternal(Long dbId) {
+        DocFacets doc = docs.remove(dbId);
+        if (doc == null) {
+            return;
+        }
+
+        doc.scopes.forEach(scope -> {
+            ScopeFacets facets = scopes.get(scope);
+            if (facets != null && facets.add(doc, -1)) {
+                scopes.remove(scope);
+            }
+        });
+        removePostings(genreDocs, doc.values.get(Facet.GENRES), dbId);
+        removePostings(tagDocs, doc.values.get(Facet.TAGS), dbId);
+    }
+
+    private static void addPostings(Map<String, Set<Long>> postings, List<String> values, Long dbId) {
+        values.forEach(value -> postings.computeIfAbsent(BookValueField.normalize(value), key -> new HashSet<>()).add(dbId));
+    }
+
+    private static void removePostings(Map<String, Set<Long>> postings, List<String> values, Long dbId) {
+        values.forEach(value -> {
+            String normalized = BookValueField.normalize(value);
+            Set<Long> dbIds = postings.get(normalized);
+            if (dbIds != null && dbIds.remove(dbId) && dbIds.isEmpty()) {
+                postings.remove(normalized);
+            }
+        });
+    }
+
+    /* ***************************************** */
+    /*                  Query                    */
+    /* ***************************************** */
+
+    /**
+     * Returns facets of books with given content type and category (null means any) without books that have any of
+     * disallowed genres or tags. Result maps facet to its values with books count
+     */
+    public Map<Facet, Map<String, Long>> getFacets(String contentType, String category, Collection<String> disallowedGenres, Collection<String> disallowedTags) {
+        String scope = createScope(contentType, category);
+
+        lock.readLock().lock();
+        try {
+            ScopeFacets facets = scopes.getOrDefault(scope, new ScopeFacets());
+
+            Set<Long> hiddenDocs = new HashSet<>();
+            collectPostings(hiddenDocs, genreDocs, disallowedGenres);
+            collectPostings(hiddenDocs, tagDocs, disallowedTags);
+            hiddenDocs.removeIf(dbId -> !docs.get(dbId).scopes.contains(scope));
+
+            // Копируем счетчики только когда есть что вычесть
+            if (!hiddenDocs.isEmpty()) {
+                facets = facets.copy();
+                for (Long dbId : hiddenDocs) {
+                    facets.add(docs.get(dbId), -1);
+                }
+            }
+
+            return facets.toCounts();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void collectPostings(Set<Long> dbIds, Map<String, Set<Long>> postings, Collection<String> values) {
+        if (ArrayUtils.isNotEmpty(values)) {
+            values.stream()
+                    .filter(StringUtils::isNotEmpty)
+                    .map(BookValueField::normalize)
+                    .map(postings::get)
+                    .filter(Objects::nonNull)
+                    .forEach(dbIds::addAll);
+        }
+    }
+
+    private static String createScope(String contentType, String category) {
+        return Optional.ofNullable(contentType).orElse(ANY) + "\n" + Optional.ofNullable(category).map(BookValueField::normalize).orElse(ANY);
+    }
+
+    /**
+     * Facet values of single book and scopes it is counted in: any/own content type combined with any/each own category
+     */
+    private static class DocFacets {
+        private final Map<Facet, List<String>> values = new EnumMap<>(Facet.class);
+        private final Set<String> scopes = new HashSet<>();
+
+        private DocFacets(IBaseBookItem item) {
+            for (Facet facet : Facet.values()) {
+                values.put(facet, facet.extractor.apply(item));
+            }
+
+            List<String> contentTypes = new ArrayList<>(values.get(Facet.CONTENT_TYPE));
+            contentTypes.add(null);
+
+            List<String> categories = new ArrayList<>(BookValueField.CATEGORIES.getValues(item));
+            categories.add(null);
+
+            contentTypes.forEach(contentType -> categories.forEach(category -> scopes.add(createScope(contentType, category))));
+        }
+    }
+
+    /**
+     * Values with books counts for each facet. Values are compared in normalized form, but returned as first seen
+     */
+    private static class ScopeFacets {
+        private final Map<Facet, Map<String, ValueCount>> facets = new EnumMap<>(Facet.class);
+        private long docsCount;
+
+        /**
+         * Adds (or subtracts with negative delta) book values. Returns true if no books left
+         */
+        private boolean add(DocFacets doc, int delta) {
+            doc.values.forEach((facet, values) -> {
+                Map<String, ValueCount> counts = facets.computeIfAbsent(facet, key -> new HashMap<>());
+                values.forEach(value -> {
+                    String normalized = BookValueField.normalize(value);
+                    ValueCount count = counts.computeIfAbsent(normalized, key -> new ValueCount(value));
+                    count.count += delta;
+                    if (count.count <= 0) {
+                        counts.remove(normalized);
+                    }
+                });
+            });
+            docsCount += delta;
+            return docsCount <= 0;
+        }
+
+        private ScopeFacets copy() {
+            ScopeFacets copy = new ScopeFacets();
+            facets.forEach((facet, counts) -> {
+                Map<String, ValueCount> countsCopy = new HashMap<>();
+                counts.forEach((normalized, count) -> countsCopy.put(normalized, count.copy()));
+                copy.facets.put(facet, countsCopy);
+            });
+            copy.docsCount = docsCount;
+            return copy;
+        }
+
+        private Map<Facet, Map<String, Long>> toCounts() {
+            Map<Facet, Map<String, Long>> result = new EnumMap<>(Facet.class);
+            facets.forEach((facet, counts) -> {
+                Map<String, Long> values = new HashMap<>();
+                counts.values().forEach(count -> values.merge(count.value, count.count, Long::sum));
+                result.put(facet, values);
+            });
+            return result;
+        }
+    }
+
+    private static class ValueCount {
+        private final String value;
+        private long count;
+
+        private ValueCount(String value) {
+            this.value = value;
+        }
+
+        private ValueCount copy() {
+            ValueCount copy = new ValueCount(value);
+            copy.count = count;
+            return copy;
+        }
+    }
+}
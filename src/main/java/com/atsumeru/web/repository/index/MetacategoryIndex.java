@@ -0,0 +1,245 @@
+package com.atsumeru.web.repository.index;
+
+import com.atsumeru.web.enums.BookValueField;
+import com.atsumeru.web.model.book.IBaseBookItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Counts of books by values of metacategory fields. Built in single pass over books and then maintained by applying
+ * contribution of added, changed or removed book. Contributions are saved into file, so index may be restored on next
+ * start without reading books
+ */
+public class MetacategoryIndex {
+    private static final Logger logger = LoggerFactory.getLogger(MetacategoryIndex.class.getSimpleName());
+
+    private static final int FILE_MAGIC = 0x41544d43;
+    private static final int FILE_VERSION = 1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final File file;
+
+    private final Map<String, Function<IBaseBookItem, List<String>>> fields;
+    private final Map<String, Map<String, ValueCount>> counts = new HashMap<>();
+    private final Map<Long, Map<String, List<String>>> contributions = new HashMap<>();
+
+    private boolean isSaved;
+
+    /**
+     * @param fields metacategory ids with functions that return values of book in metacategory
+     */
+    public MetacategoryIndex(File file, LinkedHashMap<String, Function<IBaseBookItem, List<String>>> fields) {
+        this.file = file;
+        this.fields = fields;
+    }
+
+    /* ***************************************** */
+    /*                 Mutation                  */
+    /* ***************************************** */
+    public void rebuild(List<? extends IBaseBookItem> items) {
+        lock.writeLock().lock();
+        try {
+            counts.clear();
+            contributions.clear();
+            items.forEach(this::putInternal);
+            markChanged();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void put(IBaseBookItem item) {
+        lock.writeLock().lock();
+        try {
+            putInternal(item);
+            markChanged();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long dbId) {
+        lock.writeLock().lock();
+        try {
+            if (removeInternal(dbId)) {
+                markChanged();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void putInternal(IBaseBookItem item) {
+        if (item == null || item.getDbId() == null) {
+            return;
+        }
+
+        removeInternal(item.getDbId());
+        if (!item.isRemoved()) {
+            Map<String, List<String>> contribution = new HashMap<>();
+            fields.forEach((fieldId, extractor) -> contribution.put(fieldId, extractor.apply(item)));
+            addContribution(item.getDbId(), contribution);
+        }
+    }
+
+    private void addContribution(Long dbId, Map<String, List<String>> contribution) {
+        contributions.put(dbId, contribution);
+        contribution.forEach((fieldId, values) -> {
+            Map<String, ValueCount> fieldCounts = counts.computeIfAbsent(fieldId, key -> new HashMap<>());
+            values.forEach(value -> fieldCounts.computeIfAbsent(BookValueField.normalize(value), key -> new ValueCount(value)).count++);
+        });
+    }
+
+    private boolean removeInternal(Long dbId) {
+        Map<String, List<String>> contribution = contributions.remove(dbId);
+        if (contribution == null) {
+            return false;
+        }
+
+        contribution.forEach((fieldId, values) -> {
+            Map<String, ValueCount> fieldCounts = counts.get(fieldId);
+            values.forEach(value -> {
+                String normalized = BookValueField.normalize(value);
+                ValueCount count = fieldCounts.get(normalized);
+                if (count != null && --count.count <= 0) {
+                    fieldCounts.remove(normalized);
+                }
+            });
+        });
+        return true;
+    }
+
+    private void markChanged() {
+        if (isSaved) {
+            // Устаревший снапшот не должен быть загружен после падения сервера
+            file.delete();
+            isSaved = false;
+        }
+    }
+
+    /* ***************************************** */
+    /*                  Query                    */
+    /* ***************************************** */
+
+    /**
+     * Returns values of metacategory with count of books that have them
+     */
+    public Map<String, Long> getCounts(String fieldId) {
+        lock.readLock().lock();
+        try {
+            Map<String, Long> result = new HashMap<>();
+            Optional.ofNullable(counts.get(fieldId))
+                    .ifPresent(fieldCounts -> fieldCounts.values().forEach(count -> result.put(count.value, count.count)));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* ***************************************** */
+    /*               Persistence                 */
+    /* ***************************************** */
+    public void save() {
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(fields.size());
+            for (String fieldId : fields.keySet()) {
+                out.writeUTF(fieldId);
+            }
+
+            out.writeInt(contributions.size());
+            for (Map.Entry<Long, Map<String, List<String>>> entry : contributions.entrySet()) {
+                out.writeLong(entry.getKey());
+                for (String fieldId : fields.keySet()) {
+                    List<String> values = entry.getValue().getOrDefault(fieldId, Collections.emptyList());
+                    out.writeInt(values.size());
+                    for (String value : values) {
+                        out.writeUTF(value);
+                    }
+                }
+            }
+            isSaved = true;
+        } catch (IOException ex) {
+            logger.error("Unable to save metacategory index into " + file + ": " + ex.getMessage());
+            file.delete();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Loads index from file saved by {@link #save()}
+     *
+     * @return true if index loaded and contains exactly {@code expectedCount} books
+     */
+    public boolean load(long expectedCount) {
+        if (!file.exists()) {
+            return false;
+        }
+
+        lock.writeLock().lock();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            counts.clear();
+            contributions.clear();
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                return false;
+            }
+
+            // Набор метакатегорий мог измениться
+            int fieldsCount = in.readInt();
+            List<String> fieldIds = new ArrayList<>(fields.keySet());
+            if (fieldsCount != fieldIds.size()) {
+                return false;
+            }
+            for (String fieldId : fieldIds) {
+                if (!fieldId.equals(in.readUTF())) {
+                    return false;
+                }
+            }
+
+            int count = in.readInt();
+            if (count != expectedCount) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                long dbId = in.readLong();
+                Map<String, List<String>> contribution = new HashMap<>();
+                for (String fieldId : fieldIds) {
+                    int size = in.readInt();
+                    List<String> values = new ArrayList<>(size);
+                    for (int j = 0; j < size; j++) {
+                        values.add(in.readUTF());
+                    }
+                    contribution.put(fieldId, values);
+                }
+                addContribution(dbId, contribution);
+            }
+            isSaved = true;
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Unable to load metacategory index from " + file + ": " + ex.getMessage());
+            counts.clear();
+            contributions.clear();
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static class ValueCount {
+        private final String value;
+        private long count;
+
+        private ValueCount(String value) {
+            this.value = value;
+        }
+    }
+}
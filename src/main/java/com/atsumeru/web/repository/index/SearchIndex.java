@@ -0,0 +1,455 @@
+package com.atsumeru.web.repository.index;
+
+import com.atsumeru.web.model.book.IBaseBookItem;
+import com.atsumeru.web.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted full-text index with BM25 ranking. Text is Unicode-normalized and split into words, CJK text is split
+ * into character unigrams and bigrams. Query words match indexed terms by prefix
+ */
+public class SearchIndex {
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class.getSimpleName());
+
+    private static final int FILE_MAGIC = 0x41545349;
+    private static final int FILE_VERSION = 1;
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final float PREFIX_BOOST = 0.7f;
+    private static final int MIN_PREFIX_LENGTH = 2;
+
+    private static final Pattern DIACRITICS_PATTERN = Pattern.compile("\\p{M}+");
+
+    private static final List<SearchField> FIELDS = Arrays.asList(
+            new SearchField(IBaseBookItem::getTitle, 3f),
+            new SearchField(IBaseBookItem::getAltTitle, 2f),
+            new SearchField(IBaseBookItem::getJapTitle, 2f),
+            new SearchField(IBaseBookItem::getKorTitle, 2f),
+            new SearchField(IBaseBookItem::getAuthors, 1.5f),
+            new SearchField(IBaseBookItem::getArtists, 1.5f),
+            new SearchField(IBaseBookItem::getCharacters, 1.2f),
+            new SearchField(IBaseBookItem::getSeries, 1.2f),
+            new SearchField(IBaseBookItem::getParodies, 1.2f),
+            new SearchField(IBaseBookItem::getTranslators, 1f),
+            new SearchField(IBaseBookItem::getPublisher, 1f),
+            new SearchField(IBaseBookItem::getTags, 1f),
+            new SearchField(IBaseBookItem::getYear, 1f),
+            new SearchField(IBaseBookItem::getCountry, 1f),
+            new SearchField(IBaseBookItem::getLanguage, 1f),
+            new SearchField(IBaseBookItem::getEvent, 1f),
+            new SearchField(IBaseBookItem::getCircles, 1f),
+            new SearchField(IBaseBookItem::getMagazines, 1f),
+            new SearchField(IBaseBookItem::getDescription, 0.5f)
+    );
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final File file;
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final Map<Long, Integer> slotsByDbId = new HashMap<>();
+    private final BitSet alive = new BitSet();
+    private long[] dbIds = new long[1024];
+    private float[] lengths = new float[1024];
+    private int slots;
+    private double totalLength;
+
+    private boolean isSaved;
+
+    public SearchIndex(File file) {
+        this.file = file;
+    }
+
+    /* ***************************************** */
+    /*                 Mutation                  */
+    /* ***************************************** */
+    public void rebuild(List<? extends IBaseBookItem> items) {
+        lock.writeLock().lock();
+        try {
+            clear();
+            items.forEach(this::putInternal);
+            markChanged();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void put(IBaseBookItem item) {
+        lock.writeLock().lock();
+        try {
+            putInternal(item);
+            markChanged();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long dbId) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(dbId);
+            markChanged();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void clear() {
+        terms.clear();
+        slotsByDbId.clear();
+        alive.clear();
+        slots = 0;
+        totalLength = 0;
+    }
+
+    private void putInternal(IBaseBookItem item) {
+        if (item == null || item.getDbId() == null) {
+            return;
+        }
+        removeInternal(item.getDbId());
+
+        Map<String, Float> frequencies = new HashMap<>();
+        float length = 0;
+        for (SearchField field : FIELDS) {
+            for (String token : tokenize(field.extractor.apply(item))) {
+                frequencies.merge(token, field.weight, Float::sum);
+                length += field.weight;
+            }
+        }
+
+        int slot = addSlot(item.getDbId(), length);
+        frequencies.forEach((term, frequency) -> terms.computeIfAbsent(term, key -> new Postings()).add(slot, frequency));
+    }
+
+    private int addSlot(long dbId, float length) {
+        if (slots == dbIds.length) {
+            dbIds = Arrays.copyOf(dbIds, slots * 2);
+            lengths = Arrays.copyOf(lengths, slots * 2);
+        }
+        int slot = slots++;
+        dbIds[slot] = dbId;
+        lengths[slot] = length;
+        alive.set(slot);
+        slotsByDbId.put(dbId, slot);
+        totalLength += length;
+        return slot;
+    }
+
+    private void removeInternal(Long dbId) {
+        Integer slot = slotsByDbId.remove(dbId);
+        if (slot != null) {
+            // Постинги не трогаем, мертвые слоты вычищаются при компактизации
+            alive.clear(slot);
+            totalLength -= lengths[slot];
+            if (slots > 1024 && alive.cardinality() < slots / 2) {
+                compact();
+            }
+        }
+    }
+
+    private void compact() {
+        int[] newSlots = new int[slots];
+        int count = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (alive.get(slot)) {
+                newSlots[slot] = count;
+                dbIds[count] = dbIds[slot];
+                lengths[count] = lengths[slot];
+                slotsByDbId.put(dbIds[count], count);
+                count++;
+            } else {
+                newSlots[slot] = -1;
+            }
+        }
+
+        Iterator<Postings> iterator = terms.values().iterator();
+        while (iterator.hasNext()) {
+            Postings postings = iterator.next();
+            postings.remap(newSlots);
+            if (postings.size == 0) {
+                iterator.remove();
+            }
+        }
+
+        alive.clear();
+        alive.set(0, count);
+        slots = count;
+    }
+
+    private void markChanged() {
+        if (isSaved) {
+            // Устаревший снапшот не должен быть загружен после падения сервера
+            file.delete();
+            isSaved = false;
+        }
+    }
+
+    /* ***************************************** */
+    /*                  Search                   */
+    /* ***************************************** */
+
+    /**
+     * Searches index for documents that matches every word of query
+     *
+     * @param query user query
+     * @return map of database id to relevance score
+     */
+    public Map<Long, Float> search(String query) {
+        List<String> tokens = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        Map<Long, Float> result = new HashMap<>();
+        if (tokens.isEmpty()) {
+            return result;
+        }
+
+        lock.readLock().lock();
+        try {
+            int docsCount = slotsByDbId.size();
+            float averageLength = docsCount > 0 ? (float) (totalLength / docsCount) : 1f;
+
+            Map<Integer, Float> scores = null;
+            for (String token : tokens) {
+                Map<Integer, Float> tokenScores = new HashMap<>();
+                Map<String, Postings> matchedTerms = token.length() >= MIN_PREFIX_LENGTH
+                        ? terms.subMap(token, true, token + Character.MAX_VALUE, false)
+                        : Optional.ofNullable(terms.get(token))
+                        .map(postings -> Collections.singletonMap(token, postings))
+                        .orElse(Collections.emptyMap());
+
+                matchedTerms.forEach((term, postings) -> {
+                    float boost = term.equals(token) ? 1f : PREFIX_BOOST;
+                    double idf = Math.log(1 + (docsCount - postings.size + 0.5) / (postings.size + 0.5));
+                    for (int i = 0; i < postings.size; i++) {
+                        int slot = postings.slots[i];
+                        if (alive.get(slot)) {
+                            float frequency = postings.frequencies[i];
+                            float norm = K1 * (1 - B + B * lengths[slot] / averageLength);
+                            float score = (float) (idf * frequency * (K1 + 1) / (frequency + norm)) * boost;
+                            tokenScores.merge(slot, score, Math::max);
+                        }
+                    }
+                });
+
+                if (scores == null) {
+                    scores = tokenScores;
+                } else {
+                    scores.keySet().retainAll(tokenScores.keySet());
+                    scores.replaceAll((slot, score) -> score + tokenScores.get(slot));
+                }
+
+                if (scores.isEmpty()) {
+                    return result;
+                }
+            }
+
+            scores.forEach((slot, score) -> result.put(dbIds[slot], score));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (StringUtils.isEmpty(text)) {
+            return tokens;
+        }
+
+        String normalized = DIACRITICS_PATTERN.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD))
+                .replaceAll("")
+                .toLowerCase(Locale.ROOT)
+                .replace('ё', 'е');
+
+        StringBuilder word = new StringBuilder();
+        int previousCjk = -1;
+        for (int i = 0; i < normalized.length(); ) {
+            int codePoint = normalized.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            if (isCjk(codePoint)) {
+                flushWord(tokens, word);
+                tokens.add(new String(Character.toChars(codePoint)));
+                if (previousCjk >= 0) {
+                    tokens.add(new String(Character.toChars(previousCjk)) + new String(Character.toChars(codePoint)));
+                }
+                previousCjk = codePoint;
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                word.appendCodePoint(codePoint);
+                previousCjk = -1;
+            } else {
+                flushWord(tokens, word);
+                previousCjk = -1;
+            }
+        }
+        flushWord(tokens, word);
+        return tokens;
+    }
+
+    private static void flushWord(List<String> tokens, StringBuilder word) {
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    /* ***************************************** */
+    /*               Persistence                 */
+    /* ***************************************** */
+    public void save() {
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            int[] newSlots = new int[slots];
+            int count = 0;
+            for (int slot = 0; slot < slots; slot++) {
+                newSlots[slot] = alive.get(slot) ? count++ : -1;
+            }
+
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(count);
+            for (int slot = 0; slot < slots; slot++) {
+                if (newSlots[slot] >= 0) {
+                    out.writeLong(dbIds[slot]);
+                    out.writeFloat(lengths[slot]);
+                }
+            }
+
+            out.writeInt(terms.size());
+            for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                Postings postings = entry.getValue();
+                int alivePostings = 0;
+                for (int i = 0; i < postings.size; i++) {
+                    if (newSlots[postings.slots[i]] >= 0) {
+                        alivePostings++;
+                    }
+                }
+
+                out.writeUTF(entry.getKey());
+                out.writeInt(alivePostings);
+                for (int i = 0; i < postings.size; i++) {
+                    int slot = newSlots[postings.slots[i]];
+                    if (slot >= 0) {
+                        out.writeInt(slot);
+                        out.writeFloat(postings.frequencies[i]);
+                    }
+                }
+            }
+            isSaved = true;
+        } catch (IOException ex) {
+            logger.error("Unable to save search index into " + file + ": " + ex.getMessage());
+            file.delete();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Loads index from file saved by {@link #save()}
+     *
+     * @return true if index loaded and contains exactly {@code expectedCount} documents
+     */
+    public boolean load(int expectedCount) {
+        if (!file.exists()) {
+            return false;
+        }
+
+        lock.writeLock().lock();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            clear();
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                return false;
+            }
+
+            int count = in.readInt();
+            if (count != expectedCount) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                addSlot(in.readLong(), in.readFloat());
+            }
+
+            int termsCount = in.readInt();
+            for (int i = 0; i < termsCount; i++) {
+                String term = in.readUTF();
+                int size = in.readInt();
+                Postings postings = new Postings(size);
+                for (int j = 0; j < size; j++) {
+                    postings.add(in.readInt(), in.readFloat());
+                }
+                terms.put(term, postings);
+            }
+            isSaved = true;
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Unable to load search index from " + file + ": " + ex.getMessage());
+            clear();
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static class SearchField {
+        private final Function<IBaseBookItem, String> extractor;
+        private final float weight;
+
+        private SearchField(Function<IBaseBookItem, String> extractor, float weight) {
+            this.extractor = extractor;
+            this.weight = weight;
+        }
+    }
+
+    private static class Postings {
+        private int[] slots;
+        private float[] frequencies;
+        private int size;
+
+        private Postings() {
+            this(4);
+        }
+
+        private Postings(int capacity) {
+            slots = new int[Math.max(capacity, 1)];
+            frequencies = new float[slots.length];
+        }
+
+        private void add(int slot, float frequency) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            slots[size] = slot;
+            frequencies[size] = frequency;
+            size++;
+        }
+
+        private void remap(int[] newSlots) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int slot = newSlots[slots[i]];
+                if (slot >= 0) {
+                    slots[count] = slot;
+                    frequencies[count] = frequencies[i];
+                    count++;
+                }
+            }
+            size = count;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.atsumeru.web.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers successfully authenticated credentials for a short time, so repeated HTTP Basic requests
+ * (like pages loading) don't verify BCrypt password hash every time. Credentials are never stored as is,
+ * cache is keyed by HMAC of user name and password with random key generated on every start
+ */
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static final Cache<String, Authentication> AUTHENTICATIONS = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+
+    private static final SecretKeySpec KEY = createKey();
+
+    private final AuthenticationProvider delegate;
+
+    public CachingAuthenticationProvider(AuthenticationProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Forgets cached authentications of user. Must be called on user password, roles or authorities change
+     */
+    public static void invalidate(String userName) {
+        AUTHENTICATIONS.asMap()
+                .values()
+                .removeIf(authentication -> authentication.getName().equals(userName));
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        if (authentication.getCredentials() == null) {
+            return delegate.authenticate(authentication);
+        }
+
+        String key = createCacheKey(authentication.getName(), authentication.getCredentials().toString());
+        Authentication cached = AUTHENTICATIONS.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Authentication result = delegate.authenticate(authentication);
+        if (result != null && result.isAuthenticated()) {
+            AUTHENTICATIONS.put(key, result);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication) && delegate.supports(authentication);
+    }
+
+    private static String createCacheKey(String userName, String password) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(KEY);
+            mac.update(userName.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static SecretKeySpec createKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return new SecretKeySpec(key, HMAC_ALGORITHM);
+    }
+}
@@ -5,18 +5,21 @@ import com.atsumeru.web.repository.BooksRepository;
 import com.atsumeru.web.util.StringUtils;
 import com.atsumeru.web.util.StreamUtils;
 import com.atsumeru.web.configuration.FileWatcherConfig;
+import com.atsumeru.web.event.LibraryEventBus;
 import com.atsumeru.web.exception.NoReadableFoundException;
+import com.atsumeru.web.helper.Constants;
 import com.atsumeru.web.helper.JavaHelper;
 import com.atsumeru.web.importer.Importer;
-import com.atsumeru.web.manager.AtsumeruCacheManager;
 import com.atsumeru.web.manager.Settings;
 import com.atsumeru.web.model.book.BaseBook;
 import com.atsumeru.web.model.book.BookArchive;
 import com.atsumeru.web.model.book.IBaseBookItem;
 import com.atsumeru.web.model.book.chapter.BookChapter;
 import com.atsumeru.web.model.importer.FolderProperty;
+import com.atsumeru.web.model.importer.ReadableContent;
 import com.atsumeru.web.properties.FoldersProperties;
 import com.atsumeru.web.repository.BooksDatabaseRepository;
+import com.atsumeru.web.repository.BooksIndexRepository;
 import com.atsumeru.web.repository.CategoryRepository;
 import com.atsumeru.web.repository.MetacategoryRepository;
 import com.atsumeru.web.repository.dao.BooksDaoManager;
@@ -26,6 +29,7 @@ import com.atsumeru.web.util.comparator.AlphanumComparator;
 import me.tongfei.progressbar.ProgressBar;
 import me.tongfei.progressbar.ProgressBarBuilder;
 import me.tongfei.progressbar.ProgressBarStyle;
+import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
@@ -36,12 +40,15 @@ import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class ImportService {
@@ -52,10 +59,13 @@ public class ImportService {
 
     private static final AtomicBoolean isImportActive = new AtomicBoolean(false);
     private static final AtomicLong importStartTime = new AtomicLong(0);
+    // Время остановки FileWatcher на время полного импорта, 0 если FileWatcher не останавливался
+    private static final AtomicLong fileWatcherStopTime = new AtomicLong(0);
 
     private static final BooksDaoManager daoManager;
 
     private static ThreadPoolExecutor executorService;
+    private static ExecutorService readerService;
 
     private static ProgressBar cliProgressBar;
 
@@ -66,7 +76,10 @@ public class ImportService {
     @EventListener(ApplicationReadyEvent.class)
     @Order(20)
     public void onStart() {
-        executorService = (ThreadPoolExecutor) Executors.newFixedThreadPool(Settings.isDisableChapters() ? Runtime.getRuntime().availableProcessors() : 1);
+        // Папки импортируются по очереди в одном потоке, который и является единственным писателем в БД.
+        // Чтение архивов при этом выполняется параллельно в readerService
+        executorService = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+        readerService = Executors.newFixedThreadPool(Settings.getImportThreads());
     }
 
     @Scheduled(fixedDelay = 2500, initialDelay = 3000)
@@ -74,7 +87,7 @@ public class ImportService {
         if (isImportActive() && (executorService.getActiveCount() == 0 && executorService.getQueue().size() == 0 && executorService.getCompletedTaskCount() > 0)) {
             List<String> changedSeriesPaths = FoldersProperties.getFolderProperties()
                     .stream()
-                    .filter(property -> ArrayUtils.isNotNull(property.getInLibrarySeries()) && ArrayUtils.isNotNull(property.getInLibraryArchives()))
+                    .filter(property -> ArrayUtils.isNotNull(property.getAddedSerieFolders()))
                     .map(FolderProperty::getAddedSerieFolders)
                     .flatMap(Collection::stream)
                     .collect(Collectors.toList());
@@ -84,7 +97,8 @@ public class ImportService {
             }
 
             CategoryRepository.reLoadCategories();
-            MetacategoryRepository.reIndex();
+            MetacategoryRepository.save();
+            BooksIndexRepository.saveSearchIndex();
 
             daoManager.commit();
             daoManager.setAutoCommit(true);
@@ -94,17 +108,59 @@ public class ImportService {
             Importer.resetProgress();
             setImportActive(false);
 
-            AtsumeruCacheManager.evictAll();
+            LibraryEventBus.publish(Importer.takeImportChanges());
             CoversSaverService.saveNonExistentCoversIntoCache();
-            FileWatcherConfig.start();
+            restartFileWatcher();
+        }
+    }
+
+    /**
+     * Stops FileWatcher for full rescan. Incremental imports of changed files keep it running, so changes made
+     * during them are queued as usual
+     */
+    private static void stopFileWatcher() {
+        if (fileWatcherStopTime.compareAndSet(0, System.currentTimeMillis())) {
+            FileWatcherConfig.destroy();
+        }
+    }
+
+    /**
+     * Restarts FileWatcher stopped for full rescan and imports changes that were made while it was stopped
+     */
+    private static void restartFileWatcher() {
+        long stopTime = fileWatcherStopTime.getAndSet(0);
+        if (stopTime == 0) {
+            return;
+        }
+
+        FileWatcherConfig.start();
+
+        List<File> changedFiles = new ArrayList<>();
+        List<File> deletedFiles = new ArrayList<>();
+        for (FolderProperty property : FoldersProperties.getFolderProperties()) {
+            property.getArchivesInFolder()
+                    .stream()
+                    .filter(file -> file.lastModified() >= stopTime)
+                    .forEach(changedFiles::add);
+            Importer.getArchivesInFolderFromDb(property)
+                    .values()
+                    .stream()
+                    .map(archive -> new File(archive.getFolder()))
+                    .filter(file -> !FileUtils.isFile(file))
+                    .forEach(deletedFiles::add);
+        }
+
+        if (!changedFiles.isEmpty() || !deletedFiles.isEmpty()) {
+            logger.info(String.format("Importing changes made while Filesystem Watcher was stopped: %d changed, %d deleted", changedFiles.size(), deletedFiles.size()));
+            importChanged(changedFiles, deletedFiles);
         }
     }
 
     private static void addIntoQueue(FolderProperty property) {
         executorService.submit(() -> {
             Thread.setDefaultUncaughtExceptionHandler((t, e) -> e.printStackTrace());
-            
-            FileWatcherConfig.destroy();
+
+            stopFileWatcher();
 
             property.loadInLibraryBooks();
             property.clearAddedFolders();
@@ -237,14 +293,173 @@ public class ImportService {
         int skipImport = actualArchivesInFS.size() - files.size();
         cliProgressBar.stepBy(skipImport);
 
-        for (File file : files) {
+        importFiles(property, files, seriesInDbMap, archivesInDbMap);
+    }
+
+    /**
+     * Imports only changed files and removes deleted ones without rescanning of whole import folders
+     *
+     * @param changedFiles added or modified files
+     * @param deletedFiles deleted files or folders
+     */
+    public static void importChanged(Collection<File> changedFiles, Collection<File> deletedFiles) {
+        for (FolderProperty property : FoldersProperties.getFolderProperties()) {
+            List<File> changed = filterFilesInFolder(property, changedFiles)
+                    .filter(FileUtils::isFile)
+                    .filter(file -> FilenameUtils.isExtension(file.getName().toLowerCase(), Constants.SUPPORTED_SINGLE_FILES))
+                    .sorted((file1, file2) -> AlphanumComparator.compareStrings(file1.toString(), file2.toString()))
+                    .collect(Collectors.toList());
+            List<File> deleted = filterFilesInFolder(property, deletedFiles).collect(Collectors.toList());
+
+            if (ArrayUtils.isNotEmpty(changed) || ArrayUtils.isNotEmpty(deleted)) {
+                executorService.submit(() -> {
+                    Thread.setDefaultUncaughtExceptionHandler((t, e) -> e.printStackTrace());
+                    logger.info(String.format("Importing %d changed and removing %d deleted files in folder: %s", changed.size(), deleted.size(), property.getPath()));
+
+                    // Изменения могут прийти во время уже идущего импорта, его прогресс и список Серий сохраняются
+                    if (isImportActive()) {
+                        cliProgressBar.maxHint(cliProgressBar.getMax() + changed.size());
+                    } else {
+                        createCliProgressBar(changed.size());
+                    }
+                    Importer.incrementTotal(changed.size());
+
+                    property.setReImportIfExist(false);
+                    property.setForceUpdateCovers(false);
+                    if (!isImportActive() || property.getAddedSerieFolders() == null) {
+                        property.clearAddedFolders();
+                    }
+
+                    daoManager.setAutoCommit(false);
+                    setImportActive(true);
+
+                    removeDeleted(property, deleted);
+                    importChangedFiles(property, changed);
+                });
+            }
+        }
+    }
+
+    private static Stream<File> filterFilesInFolder(FolderProperty property, Collection<File> files) {
+        String folderPath = FileUtils.addPathSlash(new File(property.getPath()).getAbsolutePath());
+        return files.stream()
+                .map(File::getAbsoluteFile)
+                .filter(file -> file.getPath().startsWith(folderPath))
+                // Файл относится к наиболее вложенной папке импорта
+                .filter(file -> FoldersProperties.getFolderProperties()
+                        .stream()
+                        .map(other -> FileUtils.addPathSlash(new File(other.getPath()).getAbsolutePath()))
+                        .noneMatch(otherPath -> otherPath.length() > folderPath.length() && file.getPath().startsWith(otherPath)));
+    }
+
+    private static void removeDeleted(FolderProperty property, List<File> deletedFiles) {
+        if (ArrayUtils.isEmpty(deletedFiles)) {
+            return;
+        }
+
+        // Удаленный путь может быть как файлом архива, так и директорией с архивами
+        List<IBaseBookItem> deletedArchives = deletedFiles.stream()
+                .flatMap(file -> queryBooksUnderPath(file, BookArchive.class).stream())
+                .filter(archive -> !FileUtils.isFile(new File(archive.getFolder())))
+                .filter(StreamUtils.distinctByKey(IBaseBookItem::getDbId))
+                .collect(Collectors.toList());
+
+        Set<String> serieFolders = deletedArchives.stream()
+                .map(archive -> new File(archive.getFolder()).getParent())
+                .collect(Collectors.toSet());
+
+        Map<Boolean, List<IBaseBookItem>> series = Stream.concat(
+                        deletedFiles.stream().flatMap(file -> queryBooksUnderPath(file, BookSerie.class).stream()),
+                        serieFolders.stream().flatMap(folder -> queryBooksUnderPath(new File(folder), BookSerie.class).stream()))
+                .filter(StreamUtils.distinctByKey(IBaseBookItem::getDbId))
+                .collect(Collectors.partitioningBy(serie -> {
+                    File serieFolder = new File(serie.getFolder());
+                    return !FileUtils.isDirectory(serieFolder) || FileUtils.isDirectoryEmpty(serieFolder);
+                }));
+
+        Importer.deleteNotInFileSystemBooks(deletedArchives, BookArchive.class);
+        Importer.deleteNotInFileSystemBooks(series.get(true), BookSerie.class);
+
+        // Оставшиеся Серии будут пересчитаны по окончании импорта
+        series.get(false).forEach(serie -> property.addSerieFolder(serie.getFolder()));
+    }
+
+    private static List<IBaseBookItem> queryBooksUnderPath(File file, Class<? extends IBaseBookItem> clazz) {
+        String path = file.getAbsolutePath();
+        List<IBaseBookItem> books = daoManager.queryLike(FOLDER_FIELD_NAME, path, clazz);
+        return Optional.ofNullable(books)
+                .orElseGet(ArrayList::new)
+                .stream()
+                .filter(book -> StringUtils.equals(book.getFolder(), path) || book.getFolder().startsWith(FileUtils.addPathSlash(path)))
+                .collect(Collectors.toList());
+    }
+
+    private static void importChangedFiles(FolderProperty property, List<File> changedFiles) {
+        if (ArrayUtils.isEmpty(changedFiles)) {
+            return;
+        }
+
+        // Из БД загружаются только Архивы изменившихся файлов и Серии их директорий
+        Map<String, BookArchive> archivesInFolder = new HashMap<>();
+        Map<String, BookArchive> archivesInDbMap = new HashMap<>();
+        changedFiles.forEach(file -> Optional.ofNullable(daoManager.<BookArchive, BookArchive>query(FOLDER_FIELD_NAME, file.getAbsolutePath(), BookArchive.class))
+                .ifPresent(archives -> archives.forEach(archive -> {
+                    archivesInFolder.put(archive.getFolder(), archive);
+                    archivesInDbMap.put(archive.getContentId(), archive);
+                })));
+
+        Map<String, BookSerie> seriesInDbMap = new HashMap<>();
+        changedFiles.stream()
+                .map(File::getParent)
+                .distinct()
+                .forEach(folder -> Optional.ofNullable(daoManager.<BookSerie, BookSerie>query(FOLDER_FIELD_NAME, folder, BookSerie.class))
+                        .ifPresent(series -> series.forEach(serie -> {
+                            serie.setSerieUpdatedInImport(false);
+                            seriesInDbMap.put(serie.getContentId(), serie);
+                        })));
+
+        List<File> files = changedFiles.stream()
+                .filter(file -> !archivesInFolder.containsKey(file.getAbsolutePath())
+                        || archivesInFolder.get(file.getAbsolutePath()).fileSizeChanged(file))
+                .collect(Collectors.toList());
+
+        cliProgressBar.stepBy(changedFiles.size() - files.size());
+        importFiles(property, files, seriesInDbMap, archivesInDbMap);
+    }
+
+    private static void importFiles(FolderProperty property, List<File> files, Map<String, BookSerie> seriesInDbMap, Map<String, BookArchive> archivesInDbMap) {
+        int batchSize = Settings.getImportBatchSize();
+        int queueCapacity = Settings.getImportThreads() * 4;
+        Deque<Future<ReadableContent>> readQueue = new ArrayDeque<>(queueCapacity);
+        Iterator<File> filesIterator = files.iterator();
+
+        int notCommitted = 0;
+        while (filesIterator.hasNext() || !readQueue.isEmpty()) {
+            // Ограниченная очередь прочитанных архивов. Архивы записываются в порядке сортировки файлов
+            while (filesIterator.hasNext() && readQueue.size() < queueCapacity) {
+                File file = filesIterator.next();
+                readQueue.add(readerService.submit(() -> Importer.readFile(property, file, archivesInDbMap)));
+            }
+
             try {
-                Importer.importFile(property, file, seriesInDbMap, archivesInDbMap, (count, total) -> cliProgressBar.step());
+                Importer.saveFile(property, readQueue.poll().get(), seriesInDbMap);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                readQueue.forEach(future -> future.cancel(true));
+                return;
             } catch (Exception ex) {
                 ex.printStackTrace();
-                cliProgressBar.step();
+            }
+
+            Importer.incrementProgress();
+            cliProgressBar.step();
+
+            if (++notCommitted >= batchSize) {
+                daoManager.commit();
+                notCommitted = 0;
             }
         }
+        daoManager.commit();
     }
 
     public static boolean isImportActive() {
@@ -291,10 +506,14 @@ public class ImportService {
         String deletionColumnValue = property.getPath();
 
         List<BookArchive> archives = daoManager.queryLike(FOLDER_FIELD_NAME, deletionColumnValue, BookArchive.class);
+        List<BookSerie> series = daoManager.queryLike(FOLDER_FIELD_NAME, deletionColumnValue, BookSerie.class);
         int removedArchives = daoManager.removeByColumnLike(FOLDER_FIELD_NAME, deletionColumnValue, BookArchive.class);
         int removedSeries = daoManager.removeByColumnLike(FOLDER_FIELD_NAME, deletionColumnValue, BookSerie.class);
         int removedChapter = daoManager.removeByColumnIn(ARCHIVE_ID_FIELD_NAME, archives.stream().map(BookArchive::getContentId).collect(Collectors.toList()), BookChapter.class);
 
+        BooksIndexRepository.remove(archives);
+        BooksIndexRepository.remove(series);
+
         logger.info(String.format("Removed %d archives, %d series and %s chapters from DB for path: %s", removedArchives, removedSeries, removedChapter, property.getPath()));
     }
 
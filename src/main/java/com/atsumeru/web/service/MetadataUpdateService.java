@@ -1,6 +1,8 @@
 package com.atsumeru.web.service;
 
 import com.atsumeru.web.configuration.FileWatcherConfig;
+import com.atsumeru.web.event.LibraryChangeEvent;
+import com.atsumeru.web.event.LibraryEventBus;
 import com.atsumeru.web.helper.Constants;
 import com.atsumeru.web.helper.FilesHelper;
 import com.atsumeru.web.metadata.BookInfo;
@@ -8,16 +10,19 @@ import com.atsumeru.web.model.book.BookArchive;
 import com.atsumeru.web.model.book.BookSerie;
 import com.atsumeru.web.model.importer.ReadableContent;
 import com.atsumeru.web.repository.BooksDatabaseRepository;
+import com.atsumeru.web.repository.BooksIndexRepository;
+import com.atsumeru.web.repository.HistoryRepository;
 import com.atsumeru.web.repository.dao.BooksDaoManager;
 import com.atsumeru.web.util.ContentDetector;
 import com.atsumeru.web.util.StringUtils;
+import com.atsumeru.web.archive.ArchiveIteratorPool;
 import com.atsumeru.web.archive.ArchiveReader;
+import com.atsumeru.web.archive.ZipPageTable;
 import com.atsumeru.web.archive.iterator.IArchiveIterator;
 import com.atsumeru.web.enums.BookType;
 import com.atsumeru.web.enums.LibraryPresentation;
 import com.atsumeru.web.helper.HashHelper;
 import com.atsumeru.web.helper.JavaHelper;
-import com.atsumeru.web.manager.AtsumeruCacheManager;
 import com.atsumeru.web.manager.Settings;
 import com.atsumeru.web.model.book.chapter.BookChapter;
 import com.atsumeru.web.model.database.History;
@@ -44,6 +49,7 @@ import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 @Service
 @Component
@@ -120,6 +126,10 @@ public class MetadataUpdateService {
     }
 
     private static boolean startInThread(Runnable runnable, String taskName) {
+        return startInThread(runnable, taskName, LibraryChangeEvent.wholeLibrary());
+    }
+
+    private static boolean startInThread(Runnable runnable, String taskName, LibraryChangeEvent changes) {
         if (isUpdateActive() || ImportService.isImportActive() || CoversSaverService.isCachingActive()) {
             return false;
         }
@@ -127,7 +137,7 @@ public class MetadataUpdateService {
         new Thread(() -> {
             onThreadStart(taskName);
             runnable.run();
-            onThreadFinish();
+            onThreadFinish(changes);
         }, MetadataUpdateService.class.getSimpleName() + threadId.incrementAndGet()).start();
         return true;
     }
@@ -140,19 +150,28 @@ public class MetadataUpdateService {
         updateStartTime.set(System.currentTimeMillis());
     }
 
-    private static void onThreadFinish() {
+    private static void onThreadFinish(LibraryChangeEvent changes) {
         isUpdateActive.set(false);
 
-        AtsumeruCacheManager.evictAll();
+        LibraryEventBus.publish(changes);
         FileWatcherConfig.start();
     }
 
     public boolean startUpdateForSerie(BookSerie bookSeries, boolean insertIntoArchive, boolean insertIntoDBOnly) {
-        return startInThread(() -> saveIntoArchives(bookSeries, insertIntoArchive, insertIntoDBOnly), "metadata update");
+        List<String> bookHashes = daoManager.queryArchivesForSerie(bookSeries)
+                .stream()
+                .map(BookArchive::getContentId)
+                .collect(Collectors.toList());
+        bookHashes.add(bookSeries.getContentId());
+
+        return startInThread(() -> saveIntoArchives(bookSeries, insertIntoArchive, insertIntoDBOnly), "metadata update",
+                LibraryChangeEvent.metadataChanged(bookHashes));
     }
 
     public boolean startUpdateForArchive(BookArchive bookArchive, boolean insertIntoArchive, boolean insertIntoDBOnly) {
-        return startInThread(() -> saveIntoArchive(bookArchive, insertIntoArchive, insertIntoDBOnly, true), "metadata update");
+        String serieHash = Optional.ofNullable(bookArchive.getSerie()).map(BookSerie::getContentId).orElse(null);
+        return startInThread(() -> saveIntoArchive(bookArchive, insertIntoArchive, insertIntoDBOnly, true), "metadata update",
+                LibraryChangeEvent.metadataChanged(Arrays.asList(bookArchive.getContentId(), serieHash)));
     }
 
     public boolean startCreatingUniqueIds(boolean insertIntoArchives, boolean insertIntoDBOnly, boolean forceCreate) {
@@ -170,6 +189,8 @@ public class MetadataUpdateService {
     }
 
     private void createUniqueIds(boolean insertIntoArchive, boolean insertIntoDBOnly, boolean forceCreate) {
+        // Хеши в Истории будут изменены, поэтому отложенные записи сохраняются заранее
+        HistoryRepository.flush();
         List<BookSerie> series = daoManager.queryAll(BookSerie.class, LibraryPresentation.ARCHIVES);
 
         ProgressBar cliProgressBar = new ProgressBarBuilder()
@@ -203,6 +224,8 @@ public class MetadataUpdateService {
                         // Save Serie and Archive into database
                         daoManager.save(serie);
                         daoManager.save(archive);
+                        BooksIndexRepository.update(serie);
+                        BooksIndexRepository.update(archive);
 
                         // Generate new Chapter Hash
                         if (!Settings.isDisableChapters()) {
@@ -255,6 +278,7 @@ public class MetadataUpdateService {
             logger.info(String.format("Updating metadata for archive %s with hash %s", archive.getTitle(), archive.getContentId()));
             archive.copyFromBaseBook(bookSerie);
             daoManager.save(archive);
+            BooksIndexRepository.update(archive);
 
             boolean isSaved = save(bookSerie, archive, insertIntoArchive, insertIntoDBOnly);
             if (isSaved) {
@@ -304,6 +328,7 @@ public class MetadataUpdateService {
         boolean isArchiveFile = bookType == BookType.ARCHIVE || bookType == BookType.EPUB;
 
         if (isArchiveFile && insertIntoArchive) {
+            ArchiveIteratorPool.invalidate(archive.getFolder());
             IArchiveIterator archiveIterator = createArchiveIterator(archive);
             if (archiveIterator != null) {
                 Map<String, String> contentToSave = new HashMap<>();
@@ -314,7 +339,13 @@ public class MetadataUpdateService {
                             BookInfo.toJson(chapter).toString(4)
                     ));
                 }
-                return archiveIterator.saveIntoArchive(archive.getFolder(), contentToSave);
+                boolean isSaved = archiveIterator.saveIntoArchive(archive.getFolder(), contentToSave);
+                if (isSaved && StringUtils.isNotEmpty(archive.getPageOffsets())) {
+                    // Запись в архив сдвигает смещения страниц
+                    archive.setPageOffsets(ZipPageTable.create(archive.getFolder(), archive.getPageEntryNames()));
+                    daoManager.save(archive);
+                }
+                return isSaved;
             }
         }
         return false;
@@ -0,0 +1,127 @@
+package com.atsumeru.web.service;
+
+import com.atsumeru.web.model.database.User;
+import com.atsumeru.web.repository.UserDatabaseRepository;
+import com.atsumeru.web.util.StringUtils;
+import com.atsumeru.web.util.Workspace;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues and verifies signed bearer tokens. Token contains user name, expiration time and stamp of user credentials,
+ * so it becomes invalid after password, roles or authorities change. Signing key is kept in config dir and
+ * survives restarts
+ */
+@Service
+public class TokenService {
+    private static final Logger logger = LoggerFactory.getLogger(TokenService.class.getSimpleName());
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final String KEY_FILE_NAME = "token.key";
+    public static final long TOKEN_LIFETIME_MS = TimeUnit.DAYS.toMillis(30);
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final UserDatabaseRepository userService;
+    private final SecretKeySpec key;
+
+    public TokenService(UserDatabaseRepository userService) {
+        this.userService = userService;
+        this.key = new SecretKeySpec(loadOrCreateKey(), HMAC_ALGORITHM);
+    }
+
+    public String createToken(User user, long expiresAt) {
+        String payload = user.getUserName() + "\n" + expiresAt + "\n" + createCredentialsStamp(user);
+        return ENCODER.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + "." + sign(payload);
+    }
+
+    /**
+     * Verifies token signature, expiration time and credentials stamp
+     *
+     * @return token owner or null if token is invalid
+     */
+    @Nullable
+    public User verifyToken(String token) {
+        int separator = token.indexOf('.');
+        if (separator < 0) {
+            return null;
+        }
+
+        try {
+            String payload = new String(DECODER.decode(token.substring(0, separator)), StandardCharsets.UTF_8);
+            if (!MessageDigest.isEqual(sign(payload).getBytes(StandardCharsets.US_ASCII), token.substring(separator + 1).getBytes(StandardCharsets.US_ASCII))) {
+                return null;
+            }
+
+            String[] parts = payload.split("\n", -1);
+            if (parts.length != 3 || Long.parseLong(parts[1]) < System.currentTimeMillis()) {
+                return null;
+            }
+
+            User user = userService.getUserByUsername(parts[0]);
+            return user != null && StringUtils.equals(createCredentialsStamp(user), parts[2]) ? user : null;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private String sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return ENCODER.encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String createCredentialsStamp(User user) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String credentials = user.getPassword() + "\n" + user.getRoles() + "\n" + user.getAuthorities();
+            byte[] hash = digest.digest(credentials.getBytes(StandardCharsets.UTF_8));
+            return ENCODER.encodeToString(hash).substring(0, 16);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] loadOrCreateKey() {
+        Path keyPath = Paths.get(Workspace.CONFIG_DIR, KEY_FILE_NAME);
+        try {
+            if (Files.exists(keyPath)) {
+                byte[] key = Files.readAllBytes(keyPath);
+                if (key.length >= 32) {
+                    return key;
+                }
+            }
+
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            Files.createDirectories(keyPath.getParent());
+            Files.write(keyPath, key);
+            return key;
+        } catch (IOException ex) {
+            logger.error("Unable to load or save token signing key. Tokens will be valid until restart");
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            return key;
+        }
+    }
+}